@@ -0,0 +1,24 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository;
+
+
+import org.archicontribs.modelrepository.grafico.GraficoBenchmarks;
+
+import junit.framework.TestSuite;
+
+@SuppressWarnings("nls")
+public class AllBenchmarks {
+
+    public static junit.framework.Test suite() {
+		TestSuite suite = new TestSuite("org.archicontribs.modelrepository.benchmarks");
+
+		suite.addTest(GraficoBenchmarks.suite());
+
+        return suite;
+	}
+
+}
@@ -0,0 +1,217 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Runs an operation for a number of warmup and measured iterations and reports its throughput, allocation and live heap.
+ *
+ * Benchmarks run inside the plug-in test runtime because the exporter and importer need the workbench, so this does
+ * the job of a JMH harness with the JDK's management beans only:
+ *
+ * - Throughput is measured operations per second of wall clock time, setup excluded.
+ * - Allocation is the bytes allocated by all live threads during the operation, which includes export Jobs
+ *   but misses threads that end while it runs.
+ * - Live heap is the most heap used after any garbage collection during the measured iterations, as reported
+ *   by the collectors. Peak usage of the heap pools is not used as it mostly measures the size of the young generation.
+ *
+ * Iteration counts are set with the system properties "benchmark.warmups" and "benchmark.iterations".
+ */
+@SuppressWarnings("nls")
+public class BenchmarkRunner {
+
+    /**
+     * Creates the state of one invocation. Not timed.
+     */
+    public interface Setup<T> {
+        T create() throws Exception;
+    }
+
+    /**
+     * The operation that is timed
+     */
+    public interface Operation<T> {
+        void run(T state) throws Exception;
+    }
+
+    /**
+     * Result of a benchmark
+     */
+    public static class Result {
+        public final String name;
+        public final int iterations;
+        public final long totalNanos;
+        public final long allocatedBytes;
+        public final long liveHeapBytes;
+
+        Result(String name, int iterations, long totalNanos, long allocatedBytes, long liveHeapBytes) {
+            this.name = name;
+            this.iterations = iterations;
+            this.totalNanos = totalNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.liveHeapBytes = liveHeapBytes;
+        }
+
+        public double getOperationsPerSecond() {
+            return totalNanos == 0 ? 0 : iterations * 1e9 / totalNanos;
+        }
+
+        public double getMillisPerOperation() {
+            return totalNanos / 1e6 / iterations;
+        }
+
+        public long getAllocatedBytesPerOperation() {
+            return allocatedBytes / iterations;
+        }
+
+        /**
+         * @return Allocated MB per second of operation time
+         */
+        public double getAllocationRate() {
+            return totalNanos == 0 ? 0 : allocatedBytes / 1048576.0 / (totalNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %10.3f ops/s %12.3f ms/op %12.1f MB/s %12d B/op %8s MB live heap",
+                    name, getOperationsPerSecond(), getMillisPerOperation(), getAllocationRate(),
+                    getAllocatedBytesPerOperation(), liveHeapBytes < 0 ? "-" : String.valueOf(liveHeapBytes / 1048576));
+        }
+    }
+
+    private int fWarmups;
+    private int fIterations;
+
+    public BenchmarkRunner() {
+        this(Integer.getInteger("benchmark.warmups", 3), Integer.getInteger("benchmark.iterations", 10));
+    }
+
+    public BenchmarkRunner(int warmups, int iterations) {
+        fWarmups = warmups;
+        fIterations = Math.max(1, iterations);
+    }
+
+    /**
+     * Run a benchmark and print its result
+     * @param name Name shown in the result
+     * @param setup Creates the state of each invocation
+     * @param operation The operation to time
+     * @return The result
+     * @throws Exception
+     */
+    public <T> Result run(String name, Setup<T> setup, Operation<T> operation) throws Exception {
+        for(int i = 0; i < fWarmups; i++) {
+            operation.run(setup.create());
+        }
+
+        System.gc();
+
+        long totalNanos = 0;
+        long allocatedBytes = 0;
+
+        HeapAfterGCListener heapListener = new HeapAfterGCListener();
+        heapListener.start();
+
+        try {
+            for(int i = 0; i < fIterations; i++) {
+                T state = setup.create();
+
+                long allocatedBefore = Allocations.getAllocatedBytes();
+                long start = System.nanoTime();
+
+                operation.run(state);
+
+                totalNanos += System.nanoTime() - start;
+                allocatedBytes += Math.max(0, Allocations.since(allocatedBefore));
+            }
+        }
+        finally {
+            heapListener.stop();
+        }
+
+        Result result = new Result(name, fIterations, totalNanos, allocatedBytes, heapListener.getMaxBytes());
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * Listens to the garbage collectors and keeps the most heap that was used after any collection, which is the
+     * most memory that was live at one time. Notifications come from a JVM thread.
+     */
+    private static class HeapAfterGCListener implements NotificationListener {
+        private Set<String> fHeapPools = new HashSet<String>();
+        private volatile long fMaxBytes = -1;
+
+        void start() {
+            for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if(pool.getType() == MemoryType.HEAP) {
+                    fHeapPools.add(pool.getName());
+                }
+            }
+
+            for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if(collector instanceof NotificationEmitter) {
+                    ((NotificationEmitter)collector).addNotificationListener(this, null, null);
+                }
+            }
+        }
+
+        void stop() {
+            for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if(collector instanceof NotificationEmitter) {
+                    try {
+                        ((NotificationEmitter)collector).removeNotificationListener(this);
+                    }
+                    catch(ListenerNotFoundException ex) {
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The most heap used after a collection, or -1 if there was no collection
+         */
+        long getMaxBytes() {
+            return fMaxBytes;
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if(!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+
+            long used = 0;
+            for(Entry<String, MemoryUsage> entry : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                if(fHeapPools.contains(entry.getKey())) {
+                    used += entry.getValue().getUsed();
+                }
+            }
+
+            synchronized(this) {
+                fMaxBytes = Math.max(fMaxBytes, used);
+            }
+        }
+    }
+}
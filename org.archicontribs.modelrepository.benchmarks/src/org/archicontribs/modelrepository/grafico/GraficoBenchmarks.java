@@ -0,0 +1,237 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.archicontribs.modelrepository.BenchmarkRunner;
+import org.archicontribs.modelrepository.ModelGenerator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.archimatetool.editor.model.IArchiveManager;
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateModel;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+/**
+ * Benchmarks of export, import, commit, checking for changes with a clean and a dirty model file, and restoring missing
+ * objects with a generated model.
+ * Results are printed to standard out.
+ *
+ * The size of the model is set with the system properties "benchmark.elements", "benchmark.views" and "benchmark.images".
+ * There are two relations for each element, and by default one view for each 20 elements.
+ */
+@SuppressWarnings("nls")
+public class GraficoBenchmarks {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoBenchmarks.class);
+    }
+
+    private static File benchmarksFolder;
+    private static IArchimateModel model;
+
+    private BenchmarkRunner runner = new BenchmarkRunner();
+
+    @BeforeClass
+    public static void runOnceBeforeAllTests() {
+        benchmarksFolder = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.benchmarks.tmp");
+        benchmarksFolder.mkdirs();
+        model = createModel();
+    }
+
+    @AfterClass
+    public static void runOnceAfterAllTests() throws IOException {
+        FileUtils.deleteFolder(benchmarksFolder);
+    }
+
+    @Test
+    public void exportModel() throws Exception {
+        File folder = new File(benchmarksFolder, "export");
+
+        runner.run("GraficoModelExporter.exportModel",
+                () -> new GraficoModelExporter(model, folder),
+                exporter -> exporter.exportModel());
+    }
+
+    @Test
+    public void exportModel_Incremental() throws Exception {
+        File folder = new File(benchmarksFolder, "exportIncremental");
+        new GraficoModelExporter(model, folder).exportModel();
+
+        runner.run("GraficoModelExporter.exportModel incremental",
+                () -> {
+                    GraficoModelExporter exporter = new GraficoModelExporter(model, folder);
+                    exporter.setIncremental(true);
+                    exporter.setUseStreamingWriter(true);
+                    return exporter;
+                },
+                exporter -> exporter.exportModel());
+    }
+
+    @Test
+    public void importAsModel() throws Exception {
+        File folder = new File(benchmarksFolder, "import");
+        new GraficoModelExporter(model, folder).exportModel();
+
+        runner.run("GraficoModelImporter.importAsModel",
+                () -> new GraficoModelImporter(folder),
+                importer -> importer.importAsModel());
+    }
+
+    @Test
+    public void commitChanges() throws Exception {
+        // The model is changed before each commit, so it has its own one to leave the shared model the same for the other benchmarks
+        IArchimateModel commitModel = createModel();
+
+        File folder = new File(benchmarksFolder, "commit");
+        IArchiRepository archiRepo = createRepository(folder, commitModel);
+
+        int[] count = new int[1];
+
+        // Change the names of one in a hundred elements and export them before each commit
+        runner.run("ArchiRepository.commitChanges",
+                () -> {
+                    count[0]++;
+                    int n = 0;
+                    for(Iterator<EObject> iter = commitModel.eAllContents(); iter.hasNext();) {
+                        EObject eObject = iter.next();
+                        if(eObject instanceof IArchimateElement && n++ % 100 == 0) {
+                            ((IArchimateElement)eObject).setName("Element " + count[0] + "-" + n);
+                        }
+                    }
+                    GraficoModelExporter exporter = new GraficoModelExporter(commitModel, folder);
+                    exporter.setIncremental(true);
+                    exporter.exportModel();
+                    return archiRepo;
+                },
+                repo -> repo.commitChanges("Commit " + count[0], false));
+    }
+
+    @Test
+    public void hasLocalChanges() throws Exception {
+        File folder = new File(benchmarksFolder, "checksum");
+        IArchiRepository archiRepo = createRepository(folder, model);
+
+        saveTempModel(archiRepo, model);
+
+        // A fingerprint taken just after the file was saved isn't trusted, so make the file older
+        archiRepo.getTempModelFile().setLastModified(System.currentTimeMillis() - ModelChecksum.RACY_INTERVAL * 2);
+        archiRepo.saveChecksum();
+
+        // Same size and modified time as when the checksum was saved, so only the fingerprint is read
+        runner.run("ArchiRepository.hasLocalChanges",
+                () -> archiRepo,
+                repo -> repo.hasLocalChanges());
+    }
+
+    @Test
+    public void hasLocalChanges_Dirty() throws Exception {
+        IArchimateModel dirtyModel = createModel();
+
+        File folder = new File(benchmarksFolder, "checksumDirty");
+        IArchiRepository archiRepo = createRepository(folder, dirtyModel);
+
+        saveTempModel(archiRepo, dirtyModel);
+        archiRepo.saveChecksum();
+
+        // Change the model and save it again, so that the fingerprint differs and the whole file is checksummed each time
+        dirtyModel.setName(dirtyModel.getName() + " changed");
+        saveTempModel(archiRepo, dirtyModel);
+
+        runner.run("ArchiRepository.hasLocalChanges dirty",
+                () -> archiRepo,
+                repo -> {
+                    if(!repo.hasLocalChanges()) {
+                        throw new IllegalStateException("Model should have changed");
+                    }
+                });
+    }
+
+    @Test
+    public void restoreProblemObjects() throws Exception {
+        File folder = new File(benchmarksFolder, "restore");
+        IArchiRepository archiRepo = createRepository(folder, model);
+
+        // Delete the files of one in a hundred elements and commit so that they have to be found in the history
+        List<Path> elementFiles;
+        try(Stream<Path> stream = Files.walk(new File(folder, IGraficoConstants.MODEL_FOLDER).toPath())) {
+            elementFiles = stream.filter(path -> path.getFileName().toString().contains("_element-")).sorted().collect(Collectors.toList());
+        }
+        for(int i = 0; i < elementFiles.size(); i += 100) {
+            Files.delete(elementFiles.get(i));
+        }
+        archiRepo.commitChanges("Delete elements", false);
+
+        runner.run("GraficoModelLoader.restoreProblemObjects",
+                () -> {
+                    GraficoModelImporter importer = new GraficoModelImporter(folder);
+                    importer.importAsModel();
+                    return importer;
+                },
+                importer -> new GraficoModelLoader(archiRepo).restoreProblemObjects(importer));
+    }
+
+    private static IArchimateModel createModel() {
+        return new ModelGenerator()
+                .setElements(Integer.getInteger("benchmark.elements", 2000))
+                .setViews(Integer.getInteger("benchmark.views", -1))
+                .setImages(Integer.getInteger("benchmark.images", 10))
+                .generate();
+    }
+
+    /**
+     * Save a model to the repository's temp model file as the model manager does
+     */
+    private void saveTempModel(IArchiRepository archiRepo, IArchimateModel model) throws IOException {
+        IArchiveManager archiveManager = (IArchiveManager)model.getAdapter(IArchiveManager.class);
+        if(archiveManager == null) {
+            archiveManager = IArchiveManager.FACTORY.createArchiveManager(model);
+            model.setAdapter(IArchiveManager.class, archiveManager);
+        }
+
+        File oldFile = model.getFile();
+        model.setFile(archiRepo.getTempModelFile());
+        try {
+            archiveManager.saveModel();
+        }
+        finally {
+            model.setFile(oldFile);
+        }
+    }
+
+    /**
+     * Create a repository with a model committed
+     */
+    private IArchiRepository createRepository(File folder, IArchimateModel model) throws Exception {
+        // Close any cached Repository left from an earlier run in the same folder
+        RepositoryCache.clear();
+        FileUtils.deleteFolder(folder);
+
+        Git.init().setDirectory(folder).call().close();
+
+        IArchiRepository archiRepo = new ArchiRepository(folder);
+        new GraficoModelExporter(model, folder).exportModel();
+        archiRepo.commitChanges("First commit", false);
+
+        return archiRepo;
+    }
+}
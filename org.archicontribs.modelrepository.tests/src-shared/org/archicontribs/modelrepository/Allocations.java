@@ -0,0 +1,54 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counts the bytes allocated by the JVM's threads, for the scaling tests and the benchmarks.
+ *
+ * Only live threads are counted, so the count includes Jobs that are running but misses threads that have ended.
+ */
+public class Allocations {
+
+    private Allocations() {
+    }
+
+    /**
+     * @return Total bytes allocated by live threads, or -1 if the JVM can't tell
+     */
+    public static long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if(!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean)threadBean;
+        if(!sunThreadBean.isThreadAllocatedMemorySupported() || !sunThreadBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+
+        long total = 0;
+        for(long bytes : sunThreadBean.getThreadAllocatedBytes(sunThreadBean.getAllThreadIds())) {
+            if(bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return The bytes allocated since an earlier count, or -1 if either count is -1
+     */
+    public static long since(long allocatedBefore) {
+        long allocatedAfter = getAllocatedBytes();
+        if(allocatedBefore < 0 || allocatedAfter < 0) {
+            return -1;
+        }
+        return Math.max(0, allocatedAfter - allocatedBefore);
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.archimatetool.editor.model.IArchiveManager;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelGroup;
+import com.archimatetool.model.IDiagramModelImage;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IProperty;
+
+/**
+ * Generates a large model that looks like a real one: elements of several types in deeply nested user folders,
+ * relations between them, views with groups containing nested diagram objects and connections, and images.
+ * Models of the same size are always the same, so results can be compared between runs.
+ *
+ * This is in the "src-shared" folder, which the benchmarks fragment compiles too.
+ */
+@SuppressWarnings("nls")
+public class ModelGenerator {
+
+    private int fElements = 1000;
+    private int fFolderDepth = 5;
+    private int fElementsPerFolder = 50;
+    private int fViews = -1;
+    private int fImages = 10;
+
+    /**
+     * @param elements Number of elements. There are two relations for each element.
+     */
+    public ModelGenerator setElements(int elements) {
+        fElements = elements;
+        return this;
+    }
+
+    /**
+     * @param depth How deep folders are nested
+     */
+    public ModelGenerator setFolderDepth(int depth) {
+        fFolderDepth = depth;
+        return this;
+    }
+
+    /**
+     * @param views Number of views, or -1 (the default) for one view for each 20 elements
+     */
+    public ModelGenerator setViews(int views) {
+        fViews = views;
+        return this;
+    }
+
+    public ModelGenerator setImages(int images) {
+        fImages = images;
+        return this;
+    }
+
+    public IArchimateModel generate() {
+        Random random = new Random(fElements);
+
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model-id");
+        model.setName("Generated Model");
+
+        List<IArchimateElement> elements = createElements(model);
+        List<IArchimateRelationship> relations = createRelations(model, elements, random);
+        List<String> imagePaths = createImages(model, random);
+        createViews(model, elements, relations, imagePaths);
+
+        return model;
+    }
+
+    private List<IArchimateElement> createElements(IArchimateModel model) {
+        List<IArchimateElement> elements = new ArrayList<IArchimateElement>();
+
+        // Folder type -> folders from the top folder down to the current deepest one
+        Map<FolderType, List<IFolder>> folderPaths = new HashMap<FolderType, List<IFolder>>();
+
+        for(int i = 0; i < fElements; i++) {
+            IArchimateElement element = createElement(i);
+            element.setId("element-" + i);
+            element.setName("Element " + i);
+            element.setDocumentation("Documentation of element " + i + "\nwith a second line");
+            element.getProperties().add(createProperty("Owner", "Team " + (i % 7)));
+
+            IFolder topFolder = model.getDefaultFolderForObject(element);
+            List<IFolder> path = folderPaths.get(topFolder.getType());
+            if(path == null) {
+                path = new ArrayList<IFolder>();
+                path.add(topFolder);
+                folderPaths.put(topFolder.getType(), path);
+            }
+
+            // Go one folder deeper when the current folder is full, or back up to a new branch at the top when it is as deep as it can be
+            IFolder folder = path.get(path.size() - 1);
+            if(folder == topFolder || folder.getElements().size() >= fElementsPerFolder) {
+                if(path.size() > fFolderDepth) {
+                    path.subList(1, path.size()).clear();
+                }
+                IFolder subFolder = IArchimateFactory.eINSTANCE.createFolder();
+                subFolder.setId("folder-" + i);
+                subFolder.setName("Folder " + i);
+                path.get(path.size() - 1).getFolders().add(subFolder);
+                path.add(subFolder);
+                folder = subFolder;
+            }
+
+            folder.getElements().add(element);
+            elements.add(element);
+        }
+
+        return elements;
+    }
+
+    private IArchimateElement createElement(int i) {
+        switch(i % 6) {
+            case 0:
+                return IArchimateFactory.eINSTANCE.createBusinessActor();
+            case 1:
+                return IArchimateFactory.eINSTANCE.createBusinessProcess();
+            case 2:
+                return IArchimateFactory.eINSTANCE.createApplicationComponent();
+            case 3:
+                return IArchimateFactory.eINSTANCE.createApplicationService();
+            case 4:
+                return IArchimateFactory.eINSTANCE.createNode();
+            default:
+                return IArchimateFactory.eINSTANCE.createDataObject();
+        }
+    }
+
+    private IProperty createProperty(String key, String value) {
+        IProperty property = IArchimateFactory.eINSTANCE.createProperty();
+        property.setKey(key);
+        property.setValue(value);
+        return property;
+    }
+
+    private List<IArchimateRelationship> createRelations(IArchimateModel model, List<IArchimateElement> elements, Random random) {
+        List<IArchimateRelationship> relations = new ArrayList<IArchimateRelationship>();
+
+        if(elements.size() < 2) {
+            return relations;
+        }
+
+        for(int i = 0; i < elements.size() * 2; i++) {
+            // Mostly between neighbours, which are shown on the same view
+            IArchimateElement source = elements.get(i / 2);
+            int offset = i % 2 == 0 ? 1 : 1 + random.nextInt(elements.size() - 1);
+            IArchimateElement target = elements.get((i / 2 + offset) % elements.size());
+
+            IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+            relation.setId("relation-" + i);
+            relation.setName("Relation " + i);
+            relation.connect(source, target);
+            model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+            relations.add(relation);
+        }
+
+        return relations;
+    }
+
+    private List<String> createImages(IArchimateModel model, Random random) {
+        List<String> imagePaths = new ArrayList<String>();
+
+        if(fImages == 0) {
+            return imagePaths;
+        }
+
+        IArchiveManager archiveManager = IArchiveManager.FACTORY.createArchiveManager(model);
+        model.setAdapter(IArchiveManager.class, archiveManager);
+
+        for(int i = 0; i < fImages; i++) {
+            // Only copied as bytes, so they don't have to be real images
+            byte[] bytes = new byte[4096 + random.nextInt(60 * 1024)];
+            random.nextBytes(bytes);
+
+            String path = "images/image-" + i + ".png";
+            archiveManager.addByteContentEntry(path, bytes);
+            imagePaths.add(path);
+        }
+
+        return imagePaths;
+    }
+
+    private void createViews(IArchimateModel model, List<IArchimateElement> elements, List<IArchimateRelationship> relations, List<String> imagePaths) {
+        if(elements.isEmpty()) {
+            return;
+        }
+
+        int views = fViews >= 0 ? fViews : elements.size() / 20;
+
+        int elementsPerView = Math.max(1, Math.min(20, elements.size()));
+
+        // Views are in nested folders too
+        IFolder viewFolder = model.getFolder(FolderType.DIAGRAMS);
+
+        for(int i = 0; i < views; i++) {
+            if(i % 50 == 0) {
+                IFolder subFolder = IArchimateFactory.eINSTANCE.createFolder();
+                subFolder.setId("view-folder-" + i);
+                subFolder.setName("Views " + i);
+                model.getFolder(FolderType.DIAGRAMS).getFolders().add(subFolder);
+                viewFolder = subFolder;
+            }
+
+            IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+            dm.setId("view-" + i);
+            dm.setName("View " + i);
+            dm.setDocumentation("Documentation of view " + i);
+            viewFolder.getElements().add(dm);
+
+            Map<IArchimateElement, IDiagramModelArchimateObject> dmos = new HashMap<IArchimateElement, IDiagramModelArchimateObject>();
+            List<IArchimateRelationship> relationsOnView = new ArrayList<IArchimateRelationship>();
+
+            // Groups of five elements, with the last element of each group nested in the one before it
+            IDiagramModelGroup group = null;
+            IDiagramModelArchimateObject previous = null;
+
+            for(int j = 0; j < elementsPerView; j++) {
+                int index = (i * elementsPerView + j) % elements.size();
+                IArchimateElement element = elements.get(index);
+                if(dmos.containsKey(element)) {
+                    continue;
+                }
+
+                if(j % 5 == 0) {
+                    group = IArchimateFactory.eINSTANCE.createDiagramModelGroup();
+                    group.setId("view-" + i + "-group-" + j);
+                    group.setName("Group " + j);
+                    group.setBounds(IArchimateFactory.eINSTANCE.createBounds((j / 5) * 420, 10, 400, 400));
+                    dm.getChildren().add(group);
+                    previous = null;
+                }
+
+                IDiagramModelArchimateObject dmo = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+                dmo.setId("view-" + i + "-object-" + j);
+                dmo.setArchimateElement(element);
+                dmo.setBounds(IArchimateFactory.eINSTANCE.createBounds(10, 10 + (j % 5) * 70, 120, 55));
+
+                if(j % 5 == 4 && previous != null) {
+                    previous.getChildren().add(dmo);
+                }
+                else {
+                    group.getChildren().add(dmo);
+                }
+
+                dmos.put(element, dmo);
+                previous = dmo;
+
+                // The relations from each element are the two at twice its index
+                if(!relations.isEmpty()) {
+                    relationsOnView.add(relations.get(index * 2));
+                    relationsOnView.add(relations.get(index * 2 + 1));
+                }
+            }
+
+            // Connections of the relations between elements on this view
+            for(IArchimateRelationship relation : relationsOnView) {
+                IDiagramModelArchimateObject source = dmos.get(relation.getSource());
+                IDiagramModelArchimateObject target = dmos.get(relation.getTarget());
+                if(source != null && target != null) {
+                    IDiagramModelArchimateConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelArchimateConnection();
+                    connection.setId(dm.getId() + "-" + relation.getId());
+                    connection.setArchimateRelationship(relation);
+                    connection.connect(source, target);
+                }
+            }
+
+            if(!imagePaths.isEmpty()) {
+                IDiagramModelImage image = IArchimateFactory.eINSTANCE.createDiagramModelImage();
+                image.setId("view-" + i + "-image");
+                image.setImagePath(imagePaths.get(i % imagePaths.size()));
+                image.setBounds(IArchimateFactory.eINSTANCE.createBounds(10, 450, 200, 200));
+                dm.getChildren().add(image);
+            }
+        }
+    }
+}
@@ -7,7 +7,18 @@ package org.archicontribs.modelrepository;
 
 
 import org.archicontribs.modelrepository.grafico.ArchiRepositoryTests;
+import org.archicontribs.modelrepository.grafico.GraficoHistoryCacheTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelExporterTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelImporterTests;
+import org.archicontribs.modelrepository.grafico.GraficoObjectIndexTests;
+import org.archicontribs.modelrepository.grafico.GraficoObjectLoaderTests;
 import org.archicontribs.modelrepository.grafico.GraficoUtilsTests;
+import org.archicontribs.modelrepository.grafico.GraficoXMLWriterTests;
+import org.archicontribs.modelrepository.grafico.ModelChecksumTests;
+import org.archicontribs.modelrepository.grafico.RepositoryMetricsTests;
+import org.archicontribs.modelrepository.grafico.RepositorySessionTests;
+import org.archicontribs.modelrepository.grafico.ScalingTests;
+import org.archicontribs.modelrepository.merge.ObjectMergerTests;
 
 import junit.framework.TestSuite;
 
@@ -19,6 +30,17 @@ public class AllTests {
 
 		suite.addTest(ArchiRepositoryTests.suite());
 		suite.addTest(GraficoUtilsTests.suite());
+		suite.addTest(GraficoModelExporterTests.suite());
+		suite.addTest(GraficoModelImporterTests.suite());
+		suite.addTest(GraficoObjectIndexTests.suite());
+		suite.addTest(GraficoObjectLoaderTests.suite());
+		suite.addTest(GraficoHistoryCacheTests.suite());
+		suite.addTest(GraficoXMLWriterTests.suite());
+		suite.addTest(ModelChecksumTests.suite());
+		suite.addTest(RepositorySessionTests.suite());
+		suite.addTest(RepositoryMetricsTests.suite());
+		suite.addTest(ObjectMergerTests.suite());
+		suite.addTest(ScalingTests.suite());
 		
         return suite;
 	}
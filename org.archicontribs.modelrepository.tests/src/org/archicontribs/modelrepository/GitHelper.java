@@ -7,14 +7,38 @@ package org.archicontribs.modelrepository;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
+import org.archicontribs.modelrepository.grafico.ArchiRepository;
+import org.archicontribs.modelrepository.grafico.GraficoModelExporter;
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.RepositorySession;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateModel;
+
 @SuppressWarnings("nls")
 public class GitHelper {
 
     public static Repository createNewRepository(File localPath) throws IOException {
+        // Close any cached Repository left from an earlier test in the same folder
+        RepositoryCache.clear();
+        
         Repository repository = FileRepositoryBuilder.create(new File(localPath, ".git"));
         repository.create();
         return repository;
@@ -27,6 +51,92 @@ public class GitHelper {
         return file;
     }
     
+    /**
+     * Create a repository with the model committed, followed by a history of commits that each change a few elements.
+     * Each commit exports only the changed elements and stages only their files, in the same way as the plug-in does.
+     * @param localPath The folder of the new repository
+     * @param model The model, which is changed
+     * @param commits Number of commits after the first one
+     * @return The repository
+     */
+    public static IArchiRepository createRepositoryWithHistory(File localPath, IArchimateModel model, int commits) throws Exception {
+        createNewRepository(localPath).close();
+        
+        IArchiRepository archiRepo = new ArchiRepository(localPath);
+        new GraficoModelExporter(model, localPath).exportModel();
+        archiRepo.commitChanges("First commit", false);
+        
+        List<IArchimateElement> elements = getElements(model);
+        
+        for(int i = 1; i <= commits && !elements.isEmpty(); i++) {
+            List<EObject> changed = new ArrayList<EObject>();
+            for(int j = 0; j < 5; j++) {
+                IArchimateElement element = elements.get((i * 37 + j * 101) % elements.size());
+                element.setName(element.getName() + " " + i);
+                changed.add(element);
+            }
+            
+            commitObjects(archiRepo, model, changed, "Commit " + i);
+        }
+        
+        return archiRepo;
+    }
+    
+    /**
+     * Make a conflicting merge of a change to some elements on master and a different change to them on origin/master
+     * @param archiRepo A repository made with {@link #createRepositoryWithHistory}
+     * @param model The model in the repository, which is left with our changes
+     * @param conflicts Number of conflicting elements
+     * @return The result of merging origin/master into master
+     */
+    public static MergeResult createMergeConflict(IArchiRepository archiRepo, IArchimateModel model, int conflicts) throws Exception {
+        List<IArchimateElement> elements = getElements(model).subList(0, conflicts);
+        
+        try(Repository repository = archiRepo.openRepository(); Git git = Git.wrap(repository)) {
+            ObjectId baseId = repository.resolve(Constants.HEAD);
+            
+            // Their change, which is then moved to origin/master
+            for(IArchimateElement element : elements) {
+                element.setName(element.getName() + " theirs");
+            }
+            RevCommit theirCommit = commitObjects(archiRepo, model, elements, "Their change");
+            
+            RefUpdate refUpdate = repository.updateRef(IGraficoConstants.REFS_REMOTES_ORIGIN_MASTER);
+            refUpdate.setNewObjectId(theirCommit);
+            refUpdate.forceUpdate();
+            
+            git.reset().setMode(ResetType.HARD).setRef(baseId.getName()).call();
+            
+            // Our change
+            for(IArchimateElement element : elements) {
+                element.setName(element.getName().replace(" theirs", " ours"));
+            }
+            commitObjects(archiRepo, model, elements, "Our change");
+            
+            return git.merge().include(repository.exactRef(IGraficoConstants.REFS_REMOTES_ORIGIN_MASTER)).call();
+        }
+    }
+    
+    private static RevCommit commitObjects(IArchiRepository archiRepo, IArchimateModel model, List<? extends EObject> objects, String message) throws Exception {
+        GraficoModelExporter exporter = new GraficoModelExporter(model, archiRepo.getLocalRepositoryFolder());
+        exporter.exportObjects(objects, Collections.<String>emptyList());
+        
+        try(RepositorySession session = archiRepo.openSession()) {
+            session.stageFiles(exporter.getWrittenFiles(), exporter.getDeletedFiles());
+            return session.commitChanges(message, false);
+        }
+    }
+    
+    private static List<IArchimateElement> getElements(IArchimateModel model) {
+        List<IArchimateElement> elements = new ArrayList<IArchimateElement>();
+        for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IArchimateElement) {
+                elements.add((IArchimateElement)eObject);
+            }
+        }
+        return elements;
+    }
 
 }
 
@@ -8,7 +8,9 @@ package org.archicontribs.modelrepository.grafico;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -152,5 +154,61 @@ public class ArchiRepositoryTests {
         }
     }
     
+    @Test
+    public void openRepository_IsSharedUntilEvicted() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        IArchiRepository repo = new ArchiRepository(localRepoFolder);
+        
+        GitHelper.createNewRepository(localRepoFolder).close();
+        
+        Repository repository1, repository2;
+        
+        try(Repository repository = repo.openRepository()) {
+            repository1 = repository;
+            assertEquals(repo.getLocalGitFolder(), repository.getDirectory());
+        }
+        
+        try(Repository repository = repo.openRepository()) {
+            repository2 = repository;
+        }
+        
+        assertSame(repository1, repository2);
+        
+        repo.evictRepository();
+        
+        try(Repository repository = repo.openRepository()) {
+            assertNotSame(repository1, repository);
+        }
+        
+        repo.evictRepository();
+    }
+    
+    @Test
+    public void hasRemoteChanged_ComparesRemoteMasterWithOriginMaster() throws Exception {
+        File remoteRepoFolder = new File(GitHelper.getTempTestsFolder(), "remoteRepo");
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        IArchiRepository repo = new ArchiRepository(localRepoFolder);
+        
+        try(Repository remoteRepository = GitHelper.createNewRepository(remoteRepoFolder); Git remoteGit = Git.wrap(remoteRepository)) {
+            remoteGit.commit().setAuthor("Test", "Test").setMessage("First").call();
+            
+            repo.createNewLocalGitRepository(remoteRepoFolder.toURI().toString()).close();
+            
+            // Not fetched yet
+            assertTrue(repo.hasRemoteChanged("", ""));
+            
+            repo.fetchFromRemote("", "", null, false);
+            assertFalse(repo.hasRemoteChanged("", ""));
+            
+            // New commit on the remote
+            remoteGit.commit().setAuthor("Test", "Test").setMessage("Second").call();
+            assertTrue(repo.hasRemoteChanged("", ""));
+            
+            repo.fetchFromRemote("", "", null, false);
+            assertFalse(repo.hasRemoteChanged("", ""));
+        }
+        
+        repo.evictRepository();
+    }
 
 }
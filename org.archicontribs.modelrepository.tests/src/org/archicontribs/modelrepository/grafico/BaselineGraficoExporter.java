@@ -0,0 +1,113 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ExtensibleURIConverterImpl;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+import com.archimatetool.model.IIdentifier;
+
+
+/**
+ * The model files part of the original GraficoModelExporter, which saved a copy of the model with EMF.
+ * Kept unchanged, apart from saving the Resources one after the other instead of in Jobs, so that the files it writes
+ * can be used as the golden files that the current save paths must match byte for byte.
+ * Images are not written.
+ */
+@SuppressWarnings("nls")
+public class BaselineGraficoExporter {
+
+    private ResourceSet fResourceSet;
+    private IArchimateModel fModel;
+    private File fLocalRepoFolder;
+
+    public BaselineGraficoExporter(IArchimateModel model, File folder) {
+        fModel = model;
+        fLocalRepoFolder = folder;
+    }
+
+    public void exportModel() throws IOException {
+        File modelFolder = new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER);
+        FileUtils.deleteFolder(modelFolder);
+        modelFolder.mkdirs();
+
+        fResourceSet = new ResourceSetImpl();
+        fResourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl());
+        fResourceSet.setURIConverter(new ExtensibleURIConverterImpl());
+
+        IArchimateModel copy = EcoreUtil.copy(fModel);
+
+        createAndSaveResourceForFolder(copy, modelFolder);
+
+        for(Resource resource : fResourceSet.getResources()) {
+            resource.save(null);
+        }
+    }
+
+    private void createAndSaveResourceForFolder(IFolderContainer folderContainer, File folder) throws IOException {
+        List<IFolder> allFolders = new ArrayList<IFolder>();
+        allFolders.addAll(folderContainer.getFolders());
+
+        for(IFolder tmpFolder : allFolders) {
+            File tmpFolderFile = new File(folder, getNameFor(tmpFolder));
+            tmpFolderFile.mkdirs();
+            createAndSaveResource(new File(tmpFolderFile, IGraficoConstants.FOLDER_XML), tmpFolder);
+            createAndSaveResourceForFolder(tmpFolder, tmpFolderFile);
+        }
+
+        if(folderContainer instanceof IFolder) {
+            List<EObject> allElements = new ArrayList<EObject>();
+            allElements.addAll(((IFolder)folderContainer).getElements());
+            for(EObject tmpElement : allElements) {
+                createAndSaveResource(
+                        new File(folder, tmpElement.getClass().getSimpleName() + "_" + ((IIdentifier)tmpElement).getId() + ".xml"),
+                        tmpElement);
+            }
+        }
+        if(folderContainer instanceof IArchimateModel) {
+            createAndSaveResource(new File(folder, IGraficoConstants.FOLDER_XML), folderContainer);
+        }
+    }
+
+    private String getNameFor(IFolder folder) {
+        return folder.getType() == FolderType.USER ? folder.getId().toString() : folder.getType().toString();
+    }
+
+    private void createAndSaveResource(File file, EObject object) throws IOException {
+        URI key = file.getName().equals(IGraficoConstants.FOLDER_XML) ? URI.createFileURI(file.getAbsolutePath()) : URI.createFileURI(file.getName());
+        URI value = URI.createFileURI(file.getAbsolutePath());
+        fResourceSet.getURIConverter().getURIMap().put(key, value);
+
+        XMLResource resource = (XMLResource)fResourceSet.createResource(key);
+
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_ENCODING, "UTF-8");
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_DECLARE_XML, Boolean.FALSE);
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_FORMATTED, Boolean.TRUE);
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_LINE_WIDTH, new Integer(5));
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_USE_ENCODED_ATTRIBUTE_STYLE, Boolean.FALSE);
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_CONFIGURATION_CACHE, Boolean.TRUE);
+        resource.getDefaultSaveOptions().put(Resource.OPTION_LINE_DELIMITER, "\n");
+
+        resource.getContents().add(object);
+    }
+}
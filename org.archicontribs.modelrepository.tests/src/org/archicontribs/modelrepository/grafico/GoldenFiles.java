@@ -0,0 +1,193 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IBusinessActor;
+import com.archimatetool.model.IBusinessRole;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelBendpoint;
+import com.archimatetool.model.IDiagramModelGroup;
+import com.archimatetool.model.IDiagramModelNote;
+import com.archimatetool.model.IDiagramModelReference;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IProperty;
+import com.archimatetool.model.ISketchModel;
+
+
+/**
+ * Golden files for the Grafico save paths. The golden files of a model are the ones written by
+ * {@link BaselineGraficoExporter}, the original exporter that saved a copy of the model with EMF.
+ */
+@SuppressWarnings("nls")
+class GoldenFiles {
+
+    /**
+     * Write the golden files of a model
+     * @param model
+     * @param folder The repository folder to write the model folder in
+     */
+    static void write(IArchimateModel model, File folder) throws IOException {
+        new BaselineGraficoExporter(model, folder).exportModel();
+    }
+
+    /**
+     * Assert that the model folder of actual has the same files with the same bytes as the model folder of expected
+     */
+    static void assertSameFiles(File expected, File actual) throws IOException {
+        File expectedFolder = new File(expected, IGraficoConstants.MODEL_FOLDER);
+        File actualFolder = new File(actual, IGraficoConstants.MODEL_FOLDER);
+
+        List<String> expectedFiles = getFiles(expectedFolder);
+        List<String> actualFiles = getFiles(actualFolder);
+        assertEquals(expectedFiles, actualFiles);
+        assertTrue(expectedFiles.size() > 0);
+
+        for(String path : expectedFiles) {
+            byte[] expectedBytes = Files.readAllBytes(new File(expectedFolder, path).toPath());
+            byte[] actualBytes = Files.readAllBytes(new File(actualFolder, path).toPath());
+            assertArrayEquals(path, expectedBytes, actualBytes);
+        }
+    }
+
+    private static List<String> getFiles(File root) {
+        List<String> paths = new ArrayList<String>();
+        addFiles(root, "", paths);
+        paths.sort(null);
+        return paths;
+    }
+
+    private static void addFiles(File folder, String prefix, List<String> paths) {
+        for(File file : folder.listFiles()) {
+            if(file.isDirectory()) {
+                addFiles(file, prefix + file.getName() + "/", paths);
+            }
+            else {
+                paths.add(prefix + file.getName());
+            }
+        }
+    }
+
+    /**
+     * @return A model with a user folder, properties, elements with text that has to be escaped, a relation,
+     * and views with nested objects, connections, bendpoints, a note and a reference to another view
+     */
+    static IArchimateModel createModel() {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model-id");
+        model.setName("Test Model");
+        model.setPurpose("Purpose");
+
+        IProperty property = IArchimateFactory.eINSTANCE.createProperty();
+        property.setKey("key");
+        property.setValue("value");
+        model.getProperties().add(property);
+
+        // User folder
+        IFolder userFolder = IArchimateFactory.eINSTANCE.createFolder();
+        userFolder.setId("user-folder-id");
+        userFolder.setName("User Folder");
+        userFolder.setDocumentation("Folder documentation");
+        model.getFolder(FolderType.BUSINESS).getFolders().add(userFolder);
+
+        IBusinessActor actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setId("actor-id");
+        actor.setName("Actor");
+        actor.setDocumentation("Documentation");
+        property = IArchimateFactory.eINSTANCE.createProperty();
+        property.setKey("key");
+        property.setValue("value");
+        actor.getProperties().add(property);
+        userFolder.getElements().add(actor);
+
+        IBusinessRole role = IArchimateFactory.eINSTANCE.createBusinessRole();
+        role.setId("role-id");
+        role.setName("Role");
+        model.getFolder(FolderType.BUSINESS).getElements().add(role);
+
+        IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssignmentRelationship();
+        relation.setId("relation-id");
+        relation.connect(actor, role);
+        model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+
+        // Diagram with nested objects, connections, bendpoints and a reference to another diagram
+        IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm.setId("dm-id");
+        dm.setName("View");
+        model.getFolder(FolderType.DIAGRAMS).getElements().add(dm);
+
+        IDiagramModelGroup group = IArchimateFactory.eINSTANCE.createDiagramModelGroup();
+        group.setId("group-id");
+        group.setName("Group");
+        group.setBounds(IArchimateFactory.eINSTANCE.createBounds(10, 10, 400, 300));
+        dm.getChildren().add(group);
+
+        IDiagramModelArchimateObject dmo1 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo1.setId("dmo1-id");
+        dmo1.setArchimateElement(actor);
+        dmo1.setBounds(IArchimateFactory.eINSTANCE.createBounds(20, 30, 120, 55));
+        dmo1.setFillColor("#ff0000");
+        group.getChildren().add(dmo1);
+
+        IDiagramModelArchimateObject dmo2 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo2.setId("dmo2-id");
+        dmo2.setArchimateElement(role);
+        dmo2.setBounds(IArchimateFactory.eINSTANCE.createBounds(500, 30, -1, -1));
+        dm.getChildren().add(dmo2);
+
+        IDiagramModelArchimateConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelArchimateConnection();
+        connection.setId("connection-id");
+        connection.setArchimateRelationship(relation);
+        connection.connect(dmo1, dmo2);
+        IDiagramModelBendpoint bendpoint = IArchimateFactory.eINSTANCE.createDiagramModelBendpoint();
+        bendpoint.setStartX(10);
+        bendpoint.setStartY(20);
+        bendpoint.setEndX(-10);
+        bendpoint.setEndY(-20);
+        connection.getBendpoints().add(bendpoint);
+
+        IDiagramModelNote note = IArchimateFactory.eINSTANCE.createDiagramModelNote();
+        note.setId("note-id");
+        note.setContent("Note\nwith two lines");
+        note.setBounds(IArchimateFactory.eINSTANCE.createBounds(10, 400, 185, 80));
+        dm.getChildren().add(note);
+
+        ISketchModel sketch = IArchimateFactory.eINSTANCE.createSketchModel();
+        sketch.setId("sketch-id");
+        sketch.setName("Sketch");
+        model.getFolder(FolderType.DIAGRAMS).getElements().add(sketch);
+
+        IDiagramModelReference reference = IArchimateFactory.eINSTANCE.createDiagramModelReference();
+        reference.setId("reference-id");
+        reference.setReferencedModel(sketch);
+        reference.setBounds(IArchimateFactory.eINSTANCE.createBounds(300, 400, 120, 55));
+        dm.getChildren().add(reference);
+
+        IBusinessActor escaped = IArchimateFactory.eINSTANCE.createBusinessActor();
+        escaped.setId("escaped-id");
+        escaped.setName("<Name> & \"Quotes\" 'apos' ]]> ]>");
+        escaped.setDocumentation("Line 1\nLine 2\r\nTab\there -> éè 中文");
+        model.getFolder(FolderType.BUSINESS).getElements().add(escaped);
+
+        return model;
+    }
+}
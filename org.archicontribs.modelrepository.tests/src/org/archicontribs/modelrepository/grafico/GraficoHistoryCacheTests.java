@@ -0,0 +1,234 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.archicontribs.modelrepository.grafico.GraficoHistoryCache.CommitInfo;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoHistoryCacheTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoHistoryCacheTests.class);
+    }
+
+    private File localRepoFolder;
+
+    @Before
+    public void runOnceBeforeEachTest() {
+        localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        GraficoHistoryCache.SNAPSHOTS.clear();
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        GraficoHistoryCache.SNAPSHOTS.clear();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+
+    @Test
+    public void update_AddsNewCommitsNewestFirst() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            try(Git git = new Git(repository)) {
+                RevCommit commit1 = git.commit().setAuthor("Ann", "ann@example.com").setMessage("First\n\nMore text").call();
+                git.commit().setAuthor("Bob", "bob@example.com").setMessage("Second").call();
+
+                GraficoHistoryCache cache = new GraficoHistoryCache(repository);
+                assertFalse(cache.isUpToDate());
+                cache.update();
+                assertTrue(cache.isUpToDate());
+
+                RevCommit commit3 = git.commit().setAuthor("Ann", "ann@example.com").setMessage("Third").call();
+                assertFalse(cache.isUpToDate());
+                cache.update();
+
+                List<CommitInfo> history = cache.getHistory();
+                assertEquals(3, history.size());
+                assertEquals(commit3, history.get(0).getId());
+                assertEquals("Third", history.get(0).getShortMessage());
+                assertEquals("Bob", history.get(1).getAuthorName());
+                assertEquals("First", history.get(2).getShortMessage());
+                assertEquals(commit1.getCommitTime(), history.get(2).getCommitTime());
+
+                assertEquals(1, cache.get(commit3).getParentCount());
+                assertEquals(0, cache.get(commit1).getParentCount());
+            }
+        }
+    }
+
+    @Test
+    public void getHistory_LeavesOutResetCommits() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            try(Git git = new Git(repository)) {
+                git.commit().setMessage("First").call();
+                git.commit().setMessage("Second").call();
+
+                GraficoHistoryCache cache = new GraficoHistoryCache(repository);
+                cache.update();
+                assertEquals(2, cache.getHistory().size());
+
+                git.reset().setMode(ResetType.SOFT).setRef("HEAD^").call();
+                cache.update();
+
+                assertEquals(2, cache.size());
+                assertEquals(1, cache.getHistory().size());
+                assertEquals("First", cache.getHistory().get(0).getShortMessage());
+            }
+        }
+    }
+
+    @Test
+    public void walkNewest_WalksFirstCommitsWithoutCache() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            try(Git git = new Git(repository)) {
+                git.commit().setAuthor("Ann", "ann@example.com").setMessage("First").call();
+                git.commit().setAuthor("Bob", "bob@example.com").setMessage("Second").call();
+                RevCommit commit3 = git.commit().setAuthor("Ann", "ann@example.com").setMessage("Third\n\nMore text").call();
+
+                GraficoHistoryCache cache = new GraficoHistoryCache(repository);
+                List<CommitInfo> newest = cache.walkNewest(2);
+
+                assertEquals(2, newest.size());
+                assertEquals(commit3, newest.get(0).getId());
+                assertEquals("Third", newest.get(0).getShortMessage());
+                assertEquals("Ann", newest.get(0).getAuthorName());
+                assertEquals(1, newest.get(0).getParentCount());
+                assertEquals("Second", newest.get(1).getShortMessage());
+
+                // Nothing was cached
+                assertEquals(0, cache.size());
+                assertFalse(new File(repository.getDirectory(), GraficoHistoryCache.CACHE_FOLDER).exists());
+            }
+        }
+    }
+
+    @Test
+    public void get_UnknownCommitIsNull() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            try(Git git = new Git(repository)) {
+                RevCommit commit1 = git.commit().setMessage("First").call();
+
+                GraficoHistoryCache cache = new GraficoHistoryCache(repository);
+                cache.update();
+
+                RevCommit commit2 = git.commit().setMessage("Second").call();
+
+                assertEquals(commit1, cache.get(commit1).getId());
+                assertNull(cache.get(commit2));
+            }
+        }
+    }
+
+    @Test
+    public void lookup_UsesCacheWithoutUpdatingIt() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            try(Git git = new Git(repository)) {
+                RevCommit commit1 = git.commit().setMessage("First").call();
+                new GraficoHistoryCache(repository).update();
+
+                RevCommit commit2 = git.commit().setAuthor("Bob", "bob@example.com").setMessage("Second").call();
+
+                GraficoHistoryCache cache = new GraficoHistoryCache(repository);
+                assertEquals(0, cache.lookup(commit1).getParentCount());
+
+                // Not in the cache, so read from the commit
+                CommitInfo info = cache.lookup(commit2);
+                assertEquals(commit2, info.getId());
+                assertEquals(1, info.getParentCount());
+                assertEquals("Bob", info.getAuthorName());
+
+                // And the cache wasn't updated
+                assertEquals(1, cache.size());
+            }
+        }
+    }
+
+    @Test
+    public void evict_RemovesCacheFromMemory() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            try(Git git = new Git(repository)) {
+                git.commit().setMessage("First").call();
+
+                new GraficoHistoryCache(repository).update();
+                assertTrue(GraficoHistoryCache.SNAPSHOTS.containsKey(repository.getDirectory()));
+
+                GraficoHistoryCache.evict(new File(localRepoFolder, ".git"));
+                assertTrue(GraficoHistoryCache.SNAPSHOTS.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void isUpToDate_LoadsSavedCache() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            try(Git git = new Git(repository)) {
+                git.commit().setMessage("First").call();
+                git.commit().setMessage("Second").call();
+
+                new GraficoHistoryCache(repository).update();
+
+                // Read it from the files
+                GraficoHistoryCache.SNAPSHOTS.clear();
+
+                GraficoHistoryCache cache = new GraficoHistoryCache(repository);
+                assertTrue(cache.isUpToDate());
+                assertEquals(2, cache.getHistory().size());
+                assertEquals("Second", cache.getHistory().get(0).getShortMessage());
+            }
+        }
+    }
+
+    @Test
+    public void update_MakesCacheAgainIfColumnIsCut() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            try(Git git = new Git(repository)) {
+                git.commit().setMessage("First").call();
+                git.commit().setMessage("Second").call();
+
+                new GraficoHistoryCache(repository).update();
+
+                File messages = new File(repository.getDirectory(), GraficoHistoryCache.CACHE_FOLDER + "/" + GraficoHistoryCache.MESSAGES);
+                try(RandomAccessFile file = new RandomAccessFile(messages, "rw")) {
+                    file.setLength(3);
+                }
+
+                GraficoHistoryCache.SNAPSHOTS.clear();
+
+                GraficoHistoryCache cache = new GraficoHistoryCache(repository);
+                assertFalse(cache.isUpToDate());
+                cache.update();
+                assertEquals(2, cache.getHistory().size());
+
+                GraficoHistoryCache.SNAPSHOTS.clear();
+                cache = new GraficoHistoryCache(repository);
+                assertTrue(cache.isUpToDate());
+                assertEquals("First", cache.getHistory().get(1).getShortMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IBusinessActor;
+import com.archimatetool.model.IBusinessRole;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelExporterTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelExporterTests.class);
+    }
+
+    private File localRepoFolder;
+    private IArchimateModel model;
+    private IBusinessActor actor;
+    private IBusinessRole role;
+
+    @Before
+    public void runOnceBeforeEachTest() {
+        localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+
+        model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model-id");
+        model.setName("Test Model");
+
+        actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setId("actor-id");
+        actor.setName("Actor");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor);
+
+        role = IArchimateFactory.eINSTANCE.createBusinessRole();
+        role.setId("role-id");
+        role.setName("Role");
+        model.getFolder(FolderType.BUSINESS).getElements().add(role);
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+
+    @Test
+    public void exportModel_WritesAllFiles() throws Exception {
+        GraficoModelExporter exporter = new GraficoModelExporter(model, localRepoFolder);
+        exporter.exportModel();
+
+        assertTrue(getElementFile(actor.getClass().getSimpleName(), actor.getId()).exists());
+        assertTrue(getElementFile(role.getClass().getSimpleName(), role.getId()).exists());
+        assertTrue(exporter.getDeletedFiles().isEmpty());
+        assertFalse(exporter.getWrittenFiles().isEmpty());
+    }
+
+    @Test
+    public void exportModel_DoesNotChangeModel() throws Exception {
+        GraficoModelExporter exporter = new GraficoModelExporter(model, localRepoFolder);
+        exporter.exportModel();
+
+        assertEquals(model, actor.getArchimateModel());
+        assertEquals(2, model.getFolder(FolderType.BUSINESS).getElements().size());
+        assertNull(actor.eResource());
+    }
+
+    @Test
+    public void exportModel_SameAsBaselineExporter() throws Exception {
+        IArchimateModel goldenModel = GoldenFiles.createModel();
+        
+        File goldenFolder = new File(GitHelper.getTempTestsFolder(), "golden");
+        GoldenFiles.write(goldenModel, goldenFolder);
+        
+        // Saved from the live model by GraficoResource
+        new GraficoModelExporter(goldenModel, localRepoFolder).exportModel();
+        
+        GoldenFiles.assertSameFiles(goldenFolder, localRepoFolder);
+    }
+
+    @Test
+    public void exportModel_Incremental_WritesNothingIfUnchanged() throws Exception {
+        GraficoModelExporter exporter = new GraficoModelExporter(model, localRepoFolder);
+        exporter.exportModel();
+
+        exporter.setIncremental(true);
+        exporter.exportModel();
+
+        assertTrue(exporter.getWrittenFiles().isEmpty());
+        assertTrue(exporter.getDeletedFiles().isEmpty());
+    }
+
+    @Test
+    public void exportModel_Incremental_WritesChangedAndDeletesRemoved() throws Exception {
+        GraficoModelExporter exporter = new GraficoModelExporter(model, localRepoFolder);
+        exporter.exportModel();
+
+        File actorFile = getElementFile(actor.getClass().getSimpleName(), actor.getId());
+        File roleFile = getElementFile(role.getClass().getSimpleName(), role.getId());
+
+        actor.setName("Renamed Actor");
+        model.getFolder(FolderType.BUSINESS).getElements().remove(role);
+
+        exporter.setIncremental(true);
+        exporter.exportModel();
+
+        assertEquals(1, exporter.getWrittenFiles().size());
+        assertEquals(actorFile, exporter.getWrittenFiles().get(0));
+
+        assertEquals(1, exporter.getDeletedFiles().size());
+        assertEquals(roleFile, exporter.getDeletedFiles().get(0));
+        assertFalse(roleFile.exists());
+    }
+
+    @Test
+    public void exportObjects_WritesTrackedChangesOnly() throws Exception {
+        GraficoModelExporter exporter = new GraficoModelExporter(model, localRepoFolder);
+        exporter.exportModel();
+        
+        GraficoDirtyTracker tracker = GraficoDirtyTracker.attach(model);
+
+        File actorFile = getElementFile(actor.getClass().getSimpleName(), actor.getId());
+        File roleFile = getElementFile(role.getClass().getSimpleName(), role.getId());
+
+        actor.setName("Renamed Actor");
+        model.getFolder(FolderType.BUSINESS).getElements().remove(role);
+        
+        assertEquals(1, tracker.getDirtyObjects().size());
+        assertEquals(actor, tracker.getDirtyObjects().get(0));
+        assertEquals(1, tracker.getRemovedPaths().size());
+
+        exporter.setIncremental(true);
+        exporter.exportObjects(tracker.getDirtyObjects(), tracker.getRemovedPaths());
+
+        assertEquals(1, exporter.getWrittenFiles().size());
+        assertEquals(actorFile, exporter.getWrittenFiles().get(0));
+
+        assertEquals(1, exporter.getDeletedFiles().size());
+        assertEquals(roleFile, exporter.getDeletedFiles().get(0));
+        assertFalse(roleFile.exists());
+        
+        // Same files as a full export
+        exporter.exportModel();
+        assertTrue(exporter.getWrittenFiles().isEmpty());
+        assertTrue(exporter.getDeletedFiles().isEmpty());
+    }
+
+    @Test
+    public void exportObjects_ReferencesToOtherFiles() throws Exception {
+        exportObjectsWithReferences(false);
+    }
+
+    @Test
+    public void exportObjects_ReferencesToOtherFiles_StreamingWriter() throws Exception {
+        exportObjectsWithReferences(true);
+    }
+
+    /**
+     * Add a relation and a view that refer to elements in other files, export only those, and check the files
+     * are the same as the golden files
+     */
+    private void exportObjectsWithReferences(boolean useStreamingWriter) throws Exception {
+        GraficoModelExporter exporter = new GraficoModelExporter(model, localRepoFolder);
+        exporter.setUseStreamingWriter(useStreamingWriter);
+        exporter.exportModel();
+
+        GraficoDirtyTracker tracker = GraficoDirtyTracker.attach(model);
+
+        IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssignmentRelationship();
+        relation.setId("relation-id");
+        relation.connect(actor, role);
+        model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+
+        IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm.setId("dm-id");
+        dm.setName("View");
+        model.getFolder(FolderType.DIAGRAMS).getElements().add(dm);
+
+        IDiagramModelArchimateObject dmo1 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo1.setId("dmo1-id");
+        dmo1.setArchimateElement(actor);
+        dmo1.setBounds(IArchimateFactory.eINSTANCE.createBounds(20, 30, 120, 55));
+        dm.getChildren().add(dmo1);
+
+        IDiagramModelArchimateObject dmo2 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo2.setId("dmo2-id");
+        dmo2.setArchimateElement(role);
+        dmo2.setBounds(IArchimateFactory.eINSTANCE.createBounds(300, 30, 120, 55));
+        dm.getChildren().add(dmo2);
+
+        IDiagramModelArchimateConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelArchimateConnection();
+        connection.setId("connection-id");
+        connection.setArchimateRelationship(relation);
+        connection.connect(dmo1, dmo2);
+
+        exporter.setIncremental(true);
+        exporter.exportObjects(tracker.getDirtyObjects(), tracker.getRemovedPaths());
+
+        File relationFile = new File(localRepoFolder, IGraficoConstants.MODEL_FOLDER + "/" + FolderType.RELATIONS + "/"
+                + relation.getClass().getSimpleName() + "_" + relation.getId() + ".xml");
+        File dmFile = new File(localRepoFolder, IGraficoConstants.MODEL_FOLDER + "/" + FolderType.DIAGRAMS + "/"
+                + dm.getClass().getSimpleName() + "_" + dm.getId() + ".xml");
+
+        assertEquals(2, exporter.getWrittenFiles().size());
+        assertTrue(exporter.getWrittenFiles().contains(relationFile));
+        assertTrue(exporter.getWrittenFiles().contains(dmFile));
+
+        String actorHref = "href=\"" + actor.getClass().getSimpleName() + "_" + actor.getId() + ".xml#" + actor.getId() + "\"";
+        assertTrue(new String(Files.readAllBytes(relationFile.toPath()), "UTF-8").contains(actorHref));
+        assertTrue(new String(Files.readAllBytes(dmFile.toPath()), "UTF-8").contains(actorHref));
+
+        File goldenFolder = new File(GitHelper.getTempTestsFolder(), "golden");
+        GoldenFiles.write(model, goldenFolder);
+        GoldenFiles.assertSameFiles(goldenFolder, localRepoFolder);
+    }
+
+    private File getElementFile(String className, String id) {
+        File folder = new File(localRepoFolder, IGraficoConstants.MODEL_FOLDER + "/" + FolderType.BUSINESS.toString());
+        return new File(folder, className + "_" + id + ".xml");
+    }
+}
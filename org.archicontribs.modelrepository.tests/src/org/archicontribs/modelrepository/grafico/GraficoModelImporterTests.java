@@ -0,0 +1,265 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IBusinessActor;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelConnection;
+import com.archimatetool.model.IDiagramModelNote;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IIdentifier;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelImporterTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelImporterTests.class);
+    }
+
+    private File localRepoFolder;
+
+    @Before
+    public void runOnceBeforeEachTest() {
+        localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+
+    @Test
+    public void importAsModel_NothingToImport() throws Exception {
+        GraficoModelImporter importer = new GraficoModelImporter(localRepoFolder);
+        assertNull(importer.importAsModel());
+    }
+
+    @Test
+    public void importAsModel_LoadsAllFilesInNameOrder() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model-id");
+        model.setName("Test Model");
+
+        // More than one task's worth of elements, in a sub-folder and added in reverse order
+        IFolder subFolder = IArchimateFactory.eINSTANCE.createFolder();
+        subFolder.setId("subfolder-id");
+        model.getFolder(FolderType.BUSINESS).getFolders().add(subFolder);
+
+        int count = GraficoModelImporter.ELEMENTS_PER_TASK * 3;
+        for(int i = count - 1; i >= 0; i--) {
+            IBusinessActor actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+            actor.setId(String.format("actor-%04d", i));
+            subFolder.getElements().add(actor);
+        }
+
+        IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+        relation.setId("relation-id");
+        relation.connect((IArchimateElement)subFolder.getElements().get(0), (IArchimateElement)subFolder.getElements().get(1));
+        model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+
+        GraficoModelExporter exporter = new GraficoModelExporter(model, localRepoFolder);
+        exporter.exportModel();
+
+        GraficoModelImporter importer = new GraficoModelImporter(localRepoFolder);
+        IArchimateModel importedModel = importer.importAsModel();
+
+        assertNotNull(importedModel);
+        assertNull(importer.getUnresolvedObjects());
+        assertEquals("model-id", importedModel.getId());
+
+        List<IFolder> subFolders = importedModel.getFolder(FolderType.BUSINESS).getFolders();
+        assertEquals(1, subFolders.size());
+
+        IFolder importedSubFolder = subFolders.get(0);
+        assertEquals(count, importedSubFolder.getElements().size());
+        for(int i = 0; i < count; i++) {
+            assertEquals(String.format("actor-%04d", i), ((IBusinessActor)importedSubFolder.getElements().get(i)).getId());
+        }
+
+        // Proxies are resolved to the loaded objects
+        IArchimateRelationship importedRelation = (IArchimateRelationship)importedModel.getFolder(FolderType.RELATIONS).getElements().get(0);
+        assertSame(importedSubFolder.getElements().get(count - 1), importedRelation.getSource());
+        assertSame(importedSubFolder.getElements().get(count - 2), importedRelation.getTarget());
+    }
+
+    @Test
+    public void importAsModel_ExportAgainWritesSameFiles() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model-id");
+        model.setName("Test Model");
+
+        IBusinessActor actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setId("actor-id");
+        actor.setName("Actor & <Name>");
+        actor.setDocumentation("Line 1\nLine 2");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor);
+
+        IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm.setId("dm-id");
+        model.getFolder(FolderType.DIAGRAMS).getElements().add(dm);
+
+        IDiagramModelArchimateObject dmo1 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo1.setId("dmo1-id");
+        dmo1.setArchimateElement(actor);
+        dmo1.setBounds(IArchimateFactory.eINSTANCE.createBounds(10, 10, 120, 55));
+        dm.getChildren().add(dmo1);
+
+        IDiagramModelNote note = IArchimateFactory.eINSTANCE.createDiagramModelNote();
+        note.setId("note-id");
+        dm.getChildren().add(note);
+
+        // Connection saved with IDREFs to objects in the same file
+        IDiagramModelConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelConnection();
+        connection.setId("connection-id");
+        connection.connect(dmo1, note);
+
+        new GraficoModelExporter(model, localRepoFolder).exportModel();
+
+        IArchimateModel importedModel = new GraficoModelImporter(localRepoFolder).importAsModel();
+
+        GraficoModelExporter exporter = new GraficoModelExporter(importedModel, localRepoFolder);
+        exporter.setIncremental(true);
+        exporter.exportModel();
+
+        assertTrue(exporter.getWrittenFiles().isEmpty());
+        assertTrue(exporter.getDeletedFiles().isEmpty());
+    }
+
+    @Test
+    public void importAsModel_FromCommittedTree() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model-id");
+        model.setName("Test Model");
+
+        IFolder subFolder = IArchimateFactory.eINSTANCE.createFolder();
+        subFolder.setId("subfolder-id");
+        model.getFolder(FolderType.BUSINESS).getFolders().add(subFolder);
+
+        IBusinessActor actor1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor1.setId("actor1-id");
+        subFolder.getElements().add(actor1);
+
+        IBusinessActor actor2 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor2.setId("actor2-id");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor2);
+
+        IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+        relation.setId("relation-id");
+        relation.connect(actor1, actor2);
+        model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            new GraficoModelExporter(model, localRepoFolder).exportModel();
+
+            RevCommit commit;
+            try(Git git = new Git(repository)) {
+                git.add().addFilepattern(".").call();
+                commit = git.commit().setMessage("Commit").call();
+            }
+
+            // Remove the working tree files so that they can only come from the object database
+            FileUtils.deleteFolder(new File(localRepoFolder, IGraficoConstants.MODEL_FOLDER));
+
+            GraficoModelImporter importer = new GraficoModelImporter(repository, commit.getTree());
+            IArchimateModel importedModel = importer.importAsModel();
+
+            assertNotNull(importedModel);
+            assertNull(importer.getUnresolvedObjects());
+            assertEquals("model-id", importedModel.getId());
+
+            IFolder importedSubFolder = importedModel.getFolder(FolderType.BUSINESS).getFolders().get(0);
+            assertEquals("subfolder-id", importedSubFolder.getId());
+            assertEquals("actor1-id", ((IBusinessActor)importedSubFolder.getElements().get(0)).getId());
+
+            IArchimateRelationship importedRelation = (IArchimateRelationship)importedModel.getFolder(FolderType.RELATIONS).getElements().get(0);
+            assertSame(importedSubFolder.getElements().get(0), importedRelation.getSource());
+            assertSame(importedModel.getFolder(FolderType.BUSINESS).getElements().get(0), importedRelation.getTarget());
+
+            // Nothing was written back to the working tree
+            assertFalse(new File(localRepoFolder, IGraficoConstants.MODEL_FOLDER).exists());
+        }
+    }
+
+    @Test
+    public void addRestoredObjects_ResolvesMissingObjects() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model-id");
+
+        IFolder subFolder = IArchimateFactory.eINSTANCE.createFolder();
+        subFolder.setId("subfolder-id");
+        model.getFolder(FolderType.BUSINESS).getFolders().add(subFolder);
+
+        IBusinessActor actor1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor1.setId("actor1-id");
+        subFolder.getElements().add(actor1);
+
+        IBusinessActor actor2 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor2.setId("actor2-id");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor2);
+
+        IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+        relation.setId("relation-id");
+        relation.connect(actor1, actor2);
+        model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+
+        new GraficoModelExporter(model, localRepoFolder).exportModel();
+
+        // Lose actor1's file
+        String path = IGraficoConstants.MODEL_FOLDER + "/" + GraficoModelExporter.getPathFor(actor1);
+        assertTrue(new File(localRepoFolder, path).delete());
+
+        GraficoModelImporter importer = new GraficoModelImporter(localRepoFolder);
+        IArchimateModel importedModel = importer.importAsModel();
+        assertEquals(1, importer.getUnresolvedObjects().size());
+
+        // Restore it
+        IBusinessActor restoredActor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        restoredActor.setId("actor1-id");
+        importer.addRestoredObjects(Collections.singletonMap(path, (IIdentifier)restoredActor));
+
+        assertNull(importer.getUnresolvedObjects());
+
+        IFolder importedSubFolder = importedModel.getFolder(FolderType.BUSINESS).getFolders().get(0);
+        assertSame(importedSubFolder, restoredActor.eContainer());
+
+        IArchimateRelationship importedRelation = (IArchimateRelationship)importedModel.getFolder(FolderType.RELATIONS).getElements().get(0);
+        assertSame(restoredActor, importedRelation.getSource());
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoObjectIndexTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoObjectIndexTests.class);
+    }
+
+    private static final String ACTOR_PATH = "model/business/BusinessActor_id-1234.xml";
+
+    private File localRepoFolder;
+
+    @Before
+    public void runOnceBeforeEachTest() {
+        localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+
+    @Test
+    public void getIDFromFileName() {
+        assertEquals("id-1234", GraficoObjectIndex.getIDFromFileName("BusinessActor_id-1234.xml"));
+        assertEquals("id_1234", GraficoObjectIndex.getIDFromFileName("BusinessActor_id_1234.xml"));
+        assertNull(GraficoObjectIndex.getIDFromFileName("folder.xml"));
+        assertNull(GraficoObjectIndex.getIDFromFileName("image.png"));
+    }
+
+    @Test
+    public void update_KeepsLastVersionOfDeletedFile() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            try(Git git = new Git(repository)) {
+                writeFile(IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML, "model");
+                writeFile(ACTOR_PATH, "version 1");
+                git.add().addFilepattern(".").call();
+                RevCommit commit1 = git.commit().setMessage("Add").call();
+
+                GraficoObjectIndex index = new GraficoObjectIndex(repository);
+                index.update();
+
+                assertEquals(1, index.size());
+                assertEquals(ACTOR_PATH, index.get("id-1234").getPath());
+                assertEquals(commit1, index.get("id-1234").getCommitId());
+
+                writeFile(ACTOR_PATH, "version 2");
+                git.add().addFilepattern(".").call();
+                RevCommit commit2 = git.commit().setMessage("Change").call();
+
+                git.rm().addFilepattern(ACTOR_PATH).call();
+                git.commit().setMessage("Delete").call();
+
+                // Only the new commits are added
+                index.update();
+                assertEquals(commit2, index.get("id-1234").getCommitId());
+                assertEquals("version 2", new String(repository.open(index.get("id-1234").getBlobId()).getBytes()));
+            }
+        }
+    }
+
+    @Test
+    public void update_SavedInGitFolder() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            try(Git git = new Git(repository)) {
+                writeFile(ACTOR_PATH, "version 1");
+                git.add().addFilepattern(".").call();
+                RevCommit commit = git.commit().setMessage("Add").call();
+
+                new GraficoObjectIndex(repository).update();
+                assertTrue(new File(repository.getDirectory(), GraficoObjectIndex.INDEX_FILE).isFile());
+
+                GraficoObjectIndex index = new GraficoObjectIndex(repository);
+                index.update();
+                assertEquals(commit, index.get("id-1234").getCommitId());
+            }
+        }
+    }
+
+    private void writeFile(String path, String contents) throws IOException {
+        File file = new File(localRepoFolder, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes());
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IBusinessActor;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IFolder;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoObjectLoaderTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoObjectLoaderTests.class);
+    }
+
+    private File localRepoFolder;
+
+    @Before
+    public void runOnceBeforeEachTest() {
+        localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+
+    @Test
+    public void load_LoadsReferencedObjectsOnly() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model-id");
+
+        // In a sub-folder so that the href path is not where the file is
+        IFolder subFolder = IArchimateFactory.eINSTANCE.createFolder();
+        subFolder.setId("subfolder-id");
+        model.getFolder(FolderType.BUSINESS).getFolders().add(subFolder);
+
+        IBusinessActor actor1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor1.setId("actor1-id");
+        subFolder.getElements().add(actor1);
+
+        IBusinessActor actor2 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor2.setId("actor2-id");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor2);
+
+        IBusinessActor actor3 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor3.setId("actor3-id");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor3);
+
+        IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+        relation.setId("relation-id");
+        relation.connect(actor1, actor2);
+        model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+
+        IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm.setId("dm-id");
+        model.getFolder(FolderType.DIAGRAMS).getElements().add(dm);
+
+        IDiagramModelArchimateObject dmo1 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo1.setId("dmo1-id");
+        dmo1.setArchimateElement(actor1);
+        dmo1.setBounds(IArchimateFactory.eINSTANCE.createBounds(10, 10, 120, 55));
+        dm.getChildren().add(dmo1);
+
+        IDiagramModelArchimateObject dmo2 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo2.setId("dmo2-id");
+        dmo2.setArchimateElement(actor2);
+        dmo2.setBounds(IArchimateFactory.eINSTANCE.createBounds(200, 10, 120, 55));
+        dm.getChildren().add(dmo2);
+
+        IDiagramModelArchimateConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelArchimateConnection();
+        connection.setId("connection-id");
+        connection.setArchimateRelationship(relation);
+        connection.connect(dmo1, dmo2);
+
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            new GraficoModelExporter(model, localRepoFolder).exportModel();
+
+            RevCommit commit;
+            try(Git git = new Git(repository)) {
+                git.add().addFilepattern(".").call();
+                commit = git.commit().setMessage("Commit").call();
+            }
+
+            String path = null;
+            ObjectId blobId = null;
+            try(TreeWalk treeWalk = new TreeWalk(repository)) {
+                treeWalk.addTree(commit.getTree());
+                treeWalk.setRecursive(true);
+                while(treeWalk.next()) {
+                    if(treeWalk.getNameString().endsWith("_dm-id.xml")) {
+                        path = treeWalk.getPathString();
+                        blobId = treeWalk.getObjectId(0);
+                    }
+                }
+            }
+            assertNotNull(path);
+
+            GraficoObjectLoader loader = new GraficoObjectLoader(repository, commit.getTree());
+            Map<String, EObject> objects = loader.load(Collections.singletonMap(path, blobId));
+
+            IArchimateDiagramModel loadedDiagram = (IArchimateDiagramModel)objects.get(path);
+            assertEquals("dm-id", loadedDiagram.getId());
+            assertNotNull(loadedDiagram.getArchimateModel());
+
+            // The diagram's elements and relation, and the relation's source and target are loaded and resolved
+            IDiagramModelArchimateObject loadedDmo1 = (IDiagramModelArchimateObject)loadedDiagram.getChildren().get(0);
+            assertSame(loader.getObject("actor1-id"), loadedDmo1.getArchimateElement());
+            assertFalse(loadedDmo1.getArchimateElement().eIsProxy());
+
+            IArchimateRelationship loadedRelation = (IArchimateRelationship)loader.getObject("relation-id");
+            assertSame(loadedRelation, ((IDiagramModelArchimateConnection)loadedDmo1.getSourceConnections().get(0)).getArchimateRelationship());
+            assertSame(loader.getObject("actor1-id"), loadedRelation.getSource());
+            assertSame(loader.getObject("actor2-id"), loadedRelation.getTarget());
+
+            // Objects that aren't referred to are not loaded
+            assertNull(loader.getObject("actor3-id"));
+
+            // The ID of a folder is read from its file
+            assertEquals("model-id", loader.getID(IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML,
+                    TreeWalk.forPath(repository, IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML, commit.getTree()).getObjectId(0)));
+        }
+    }
+}
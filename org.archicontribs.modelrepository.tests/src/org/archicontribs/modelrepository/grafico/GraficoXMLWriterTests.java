@@ -0,0 +1,108 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IBusinessActor;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+/**
+ * Golden file tests: files written by GraficoXMLWriter and by EMF from the live model must be the same
+ * as the files written by the original exporter
+ */
+@SuppressWarnings("nls")
+public class GraficoXMLWriterTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoXMLWriterTests.class);
+    }
+
+    private File goldenFolder, emfFolder, writerFolder;
+
+    @Before
+    public void runOnceBeforeEachTest() {
+        goldenFolder = new File(GitHelper.getTempTestsFolder(), "golden");
+        emfFolder = new File(GitHelper.getTempTestsFolder(), "emf");
+        writerFolder = new File(GitHelper.getTempTestsFolder(), "writer");
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+
+    @Test
+    public void write_SameAsEMF_EmptyModel() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model-id");
+        model.setName("Empty");
+
+        assertSameFiles(model);
+    }
+
+    @Test
+    public void write_SameAsEMF_FullModel() throws Exception {
+        assertSameFiles(GoldenFiles.createModel());
+    }
+
+    @Test
+    public void write_SameAsEMF_EscapedText() throws Exception {
+        IArchimateModel model = GoldenFiles.createModel();
+
+        IBusinessActor actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setId("escaped-2-id");
+        actor.setName("]]>]]]>] ]> >]]");
+        actor.setDocumentation("Line 1\nLine 2\r\nTab\there -> éè 中文");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor);
+
+        assertSameFiles(model);
+    }
+
+    @Test
+    public void escape() throws Exception {
+        assertEquals("plain", GraficoXMLWriter.escape("plain"));
+        assertEquals("a&amp;b&lt;c>d&quot;e'f", GraficoXMLWriter.escape("a&b<c>d\"e'f"));
+        assertEquals("a&#xA;b&#xD;c&#x9;d", GraficoXMLWriter.escape("a\nb\rc\td"));
+        assertEquals("]]&gt; ]> ]]]&gt;", GraficoXMLWriter.escape("]]> ]> ]]]>"));
+    }
+
+    @Test(expected=GraficoXMLWriter.UnsupportedContentException.class)
+    public void escape_ControlCharacterIsLeftToEMF() throws Exception {
+        GraficoXMLWriter.escape("a\u0001b");
+    }
+
+    /**
+     * Export the model with EMF from the live model and with the streaming writer, and check both against the golden files
+     */
+    private void assertSameFiles(IArchimateModel model) throws IOException {
+        GoldenFiles.write(model, goldenFolder);
+
+        new GraficoModelExporter(model, emfFolder).exportModel();
+
+        GraficoModelExporter exporter = new GraficoModelExporter(model, writerFolder);
+        exporter.setUseStreamingWriter(true);
+        exporter.exportModel();
+
+        GoldenFiles.assertSameFiles(goldenFolder, emfFolder);
+        GoldenFiles.assertSameFiles(goldenFolder, writerFolder);
+    }
+}
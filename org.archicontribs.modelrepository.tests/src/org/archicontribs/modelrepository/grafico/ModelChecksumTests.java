@@ -0,0 +1,124 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class ModelChecksumTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ModelChecksumTests.class);
+    }
+
+    private File gitFolder, modelFile;
+
+    @Before
+    public void runOnceBeforeEachTest() {
+        gitFolder = new File(GitHelper.getTempTestsFolder(), ".git");
+        gitFolder.mkdirs();
+        modelFile = new File(gitFolder, IGraficoConstants.LOCAL_ARCHI_FILENAME);
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+
+    @Test
+    public void hasChanged_NoChecksum() throws Exception {
+        writeModelFile("model", 0);
+        assertFalse(new ModelChecksum(modelFile, gitFolder).hasChanged());
+    }
+
+    @Test
+    public void hasChanged_AfterSave() throws Exception {
+        writeModelFile("model", ModelChecksum.RACY_INTERVAL * 2);
+
+        ModelChecksum checksum = new ModelChecksum(modelFile, gitFolder);
+        checksum.save();
+        assertTrue(new File(gitFolder, ModelChecksum.FINGERPRINT_FILE).exists());
+        assertFalse(checksum.hasChanged());
+
+        writeModelFile("changed", ModelChecksum.RACY_INTERVAL);
+        assertTrue(checksum.hasChanged());
+    }
+
+    @Test
+    public void hasChanged_TouchedButSameContent() throws Exception {
+        writeModelFile("model", ModelChecksum.RACY_INTERVAL * 2);
+
+        ModelChecksum checksum = new ModelChecksum(modelFile, gitFolder);
+        checksum.save();
+
+        writeModelFile("model", ModelChecksum.RACY_INTERVAL);
+        assertFalse(checksum.hasChanged());
+    }
+
+    @Test
+    public void save_RecentlyModifiedFileHasNoFingerprint() throws Exception {
+        writeModelFile("model", 0);
+
+        ModelChecksum checksum = new ModelChecksum(modelFile, gitFolder);
+        checksum.save();
+        assertFalse(new File(gitFolder, ModelChecksum.FINGERPRINT_FILE).exists());
+
+        // Same size, so only the hash can tell
+        writeModelFile("MODEL", 0);
+        assertTrue(checksum.hasChanged());
+    }
+
+    @Test
+    public void hasChanged_LegacyMD5Checksum() throws Exception {
+        writeModelFile("model", 0);
+        File checksumFile = new File(gitFolder, ModelChecksum.CHECKSUM_FILE);
+        Files.write(checksumFile.toPath(), ModelChecksum.createMD5Checksum(modelFile).getBytes());
+
+        ModelChecksum checksum = new ModelChecksum(modelFile, gitFolder);
+        assertFalse(checksum.hasChanged());
+
+        // Replaced with the new checksum
+        assertTrue(new String(Files.readAllBytes(checksumFile.toPath())).startsWith("crc32:"));
+
+        writeModelFile("changed", 0);
+        assertTrue(checksum.hasChanged());
+    }
+
+    @Test
+    public void createChecksum_FileLargerThanBuffer() throws Exception {
+        byte[] bytes = new byte[3 * 1024 * 1024 + 123];
+        new Random(1).nextBytes(bytes);
+        Files.write(modelFile.toPath(), bytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        assertEquals("crc32:" + Long.toHexString(crc.getValue()) + ":" + bytes.length, ModelChecksum.createChecksum(modelFile));
+    }
+
+    private void writeModelFile(String contents, long age) throws IOException {
+        Files.write(modelFile.toPath(), contents.getBytes());
+        modelFile.setLastModified(System.currentTimeMillis() - age);
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.archicontribs.modelrepository.grafico.RepositoryMetrics.OperationStats;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class RepositoryMetricsTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RepositoryMetricsTests.class);
+    }
+
+    private File localRepoFolder;
+
+    @Before
+    public void runOnceBeforeEachTest() {
+        localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        RepositoryMetrics.INSTANCE.reset(localRepoFolder);
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryMetrics.INSTANCE.setLogFile(null, null);
+        RepositoryMetrics.INSTANCE.reset(localRepoFolder);
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+
+    @Test
+    public void timer_RecordsOnceWhenClosed() {
+        RepositoryMetrics.Timer timer = RepositoryMetrics.INSTANCE.start(localRepoFolder, "test");
+        timer.addItems(2);
+        timer.addBytes(100);
+        timer.close();
+        timer.close();
+
+        RepositoryMetrics.INSTANCE.start(localRepoFolder, "test").close();
+
+        OperationStats stats = RepositoryMetrics.INSTANCE.getMetrics(localRepoFolder).get("test");
+        assertEquals(2, stats.getCalls());
+        assertEquals(2, stats.getItems());
+        assertEquals(100, stats.getBytes());
+        assertTrue(stats.getMaxMillis() <= stats.getTotalMillis());
+    }
+
+    @Test
+    public void commitChanges_RecordsStageStatusAndCommit() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            File file = new File(localRepoFolder, "model/folder.xml");
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), "content".getBytes());
+
+            new ArchiRepository(localRepoFolder).commitChanges("Commit", false);
+
+            Map<String, OperationStats> metrics = RepositoryMetrics.INSTANCE.getMetrics(localRepoFolder);
+            assertEquals(1, metrics.get(RepositoryMetrics.STAGE).getItems());
+            assertEquals(7, metrics.get(RepositoryMetrics.STAGE).getBytes());
+            assertNotNull(metrics.get(RepositoryMetrics.STATUS));
+            assertEquals(1, metrics.get(RepositoryMetrics.COMMIT).getCalls());
+        }
+    }
+
+    @Test
+    public void setLogFile_WritesCSV() throws Exception {
+        File logFile = new File(GitHelper.getTempTestsFolder(), "metrics.csv");
+        RepositoryMetrics.INSTANCE.setLogFile(logFile, RepositoryMetrics.LOG_FORMAT_CSV);
+
+        RepositoryMetrics.INSTANCE.record(localRepoFolder, "test", 5, 2, 100);
+        RepositoryMetrics.INSTANCE.record(localRepoFolder, "test", 6, 3, 200);
+
+        List<String> lines = Files.readAllLines(logFile.toPath());
+        assertEquals(3, lines.size());
+        assertEquals("time,repository,operation,millis,items,bytes", lines.get(0));
+        assertTrue(lines.get(1).endsWith(",test,5,2,100"));
+        assertTrue(lines.get(2).endsWith(",test,6,3,200"));
+    }
+
+    @Test
+    public void setLogFile_WritesUTF8() throws Exception {
+        File logFile = new File(GitHelper.getTempTestsFolder(), "metrics.csv");
+        RepositoryMetrics.INSTANCE.setLogFile(logFile, RepositoryMetrics.LOG_FORMAT_CSV);
+
+        File repoFolder = new File(GitHelper.getTempTestsFolder(), "Modèle 中文");
+        RepositoryMetrics.INSTANCE.record(repoFolder, "test", 5, 2, 100);
+        RepositoryMetrics.INSTANCE.reset(repoFolder);
+
+        // Read as UTF-8
+        List<String> lines = Files.readAllLines(logFile.toPath());
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1).contains("Modèle 中文"));
+    }
+
+    @Test
+    public void setLogFile_WritesJSON() throws Exception {
+        File logFile = new File(GitHelper.getTempTestsFolder(), "metrics.json");
+        RepositoryMetrics.INSTANCE.setLogFile(logFile, RepositoryMetrics.LOG_FORMAT_JSON);
+
+        RepositoryMetrics.INSTANCE.record(localRepoFolder, "test", 5, 2, 100);
+
+        List<String> lines = Files.readAllLines(logFile.toPath());
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"time\":\""));
+        assertTrue(lines.get(0).endsWith("\"operation\":\"test\",\"millis\":5,\"items\":2,\"bytes\":100}"));
+    }
+
+    @Test
+    public void setLogFile_EscapesJSON() throws Exception {
+        File logFile = new File(GitHelper.getTempTestsFolder(), "metrics.json");
+        RepositoryMetrics.INSTANCE.setLogFile(logFile, RepositoryMetrics.LOG_FORMAT_JSON);
+
+        RepositoryMetrics.INSTANCE.record(localRepoFolder, "a\"b\\c\nd\re\tf\u0001g", 5, 2, 100);
+
+        List<String> lines = Files.readAllLines(logFile.toPath());
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("\"operation\":\"a\\\"b\\\\c\\nd\\re\\tf\\u0001g\","));
+    }
+}
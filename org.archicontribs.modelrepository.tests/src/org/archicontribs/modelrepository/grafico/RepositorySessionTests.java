@@ -0,0 +1,210 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IBusinessActor;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class RepositorySessionTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RepositorySessionTests.class);
+    }
+
+    private File localRepoFolder;
+
+    @Before
+    public void runOnceBeforeEachTest() {
+        localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+
+    @Test
+    public void stageAll_WritesIndexOnceWhenFlushed() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            writeFile("model/folder.xml", "one");
+            writeFile("model/business/Actor_1.xml", "two");
+
+            IArchiRepository archiRepo = new ArchiRepository(localRepoFolder);
+
+            try(RepositorySession session = archiRepo.openSession()) {
+                session.stageAll();
+
+                // Not written yet
+                assertEquals(0, DirCache.read(repository).getEntryCount());
+
+                session.flush();
+                assertEquals(2, DirCache.read(repository).getEntryCount());
+            }
+
+            try(Git git = Git.wrap(repository)) {
+                Status status = git.status().call();
+                assertEquals(2, status.getAdded().size());
+                assertTrue(status.getUntracked().isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void commitChanges_CommitsModifiedAndMissingFiles() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            writeFile("model/folder.xml", "one");
+            writeFile("model/business/Actor_1.xml", "two");
+
+            IArchiRepository archiRepo = new ArchiRepository(localRepoFolder);
+
+            try(RepositorySession session = archiRepo.openSession()) {
+                assertTrue(session.hasChangesToCommit());
+                assertNotNull(session.commitChanges("First", false));
+                assertFalse(session.hasChangesToCommit());
+                assertNull(session.commitChanges("Nothing", false));
+
+                writeFile("model/folder.xml", "changed");
+                new File(localRepoFolder, "model/business/Actor_1.xml").delete();
+
+                RevCommit commit = session.commitChanges("Second", false);
+                assertNotNull(commit);
+                assertEquals("Second", commit.getFullMessage());
+
+                assertNotNull(TreeWalk.forPath(repository, "model/folder.xml", commit.getTree()));
+                assertNull(TreeWalk.forPath(repository, "model/business/Actor_1.xml", commit.getTree()));
+            }
+
+            try(Git git = Git.wrap(repository)) {
+                assertTrue(git.status().call().isClean());
+            }
+        }
+    }
+
+    @Test
+    public void stageFiles_StagesOnlyGivenFiles() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            writeFile("model/folder.xml", "one");
+            writeFile("model/business/Actor_1.xml", "two");
+            writeFile("model/business/Actor_2.xml", "three");
+
+            IArchiRepository archiRepo = new ArchiRepository(localRepoFolder);
+
+            try(RepositorySession session = archiRepo.openSession()) {
+                session.commitChanges("First", false);
+
+                File written = writeFile("model/business/Actor_1.xml", "changed");
+                File deleted = new File(localRepoFolder, "model/business/Actor_2.xml");
+                deleted.delete();
+                writeFile("model/folder.xml", "not staged");
+
+                session.stageFiles(Collections.singletonList(written), Collections.singletonList(deleted));
+            }
+
+            try(Git git = Git.wrap(repository)) {
+                Status status = git.status().call();
+                assertEquals(Collections.singleton("model/business/Actor_1.xml"), status.getChanged());
+                assertEquals(Collections.singleton("model/business/Actor_2.xml"), status.getRemoved());
+                assertEquals(Collections.singleton("model/folder.xml"), status.getModified());
+            }
+        }
+    }
+
+    @Test
+    public void stageFiles_Failed_HasChangesToCommitStagesAll() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            writeFile("model/folder.xml", "one");
+
+            IArchiRepository archiRepo = new ArchiRepository(localRepoFolder);
+
+            try(RepositorySession session = archiRepo.openSession()) {
+                session.commitChanges("First", false);
+
+                writeFile("model/folder.xml", "changed");
+                File missing = new File(localRepoFolder, "model/missing.xml");
+
+                try {
+                    session.stageFiles(Collections.singletonList(missing), Collections.<File>emptyList());
+                    fail("Should have thrown");
+                }
+                catch(IOException ex) {
+                }
+
+                assertTrue(session.hasChangesToCommit());
+            }
+
+            try(Git git = Git.wrap(repository)) {
+                assertEquals(Collections.singleton("model/folder.xml"), git.status().call().getChanged());
+            }
+        }
+    }
+
+    @Test
+    public void commitModel_CommitsToBareRepository() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model-id");
+
+        IBusinessActor actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setId("actor-id");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor);
+
+        try(Git git = Git.init().setBare(true).setDirectory(localRepoFolder).call()) {
+            Repository repository = git.getRepository();
+
+            try(RepositorySession session = new RepositorySession(repository)) {
+                RevCommit commit = session.commitModel(model, "Snapshot");
+                assertNotNull(commit);
+                assertEquals(commit, repository.resolve("HEAD"));
+
+                assertNotNull(TreeWalk.forPath(repository, "model/folder.xml", commit.getTree()));
+                assertNotNull(TreeWalk.forPath(repository, "model/business/BusinessActor_actor-id.xml", commit.getTree()));
+
+                // Nothing changed
+                assertNull(session.commitModel(model, "Again"));
+            }
+
+            // Nothing was written outside of the Git folder
+            assertFalse(new File(localRepoFolder, "model").exists());
+        }
+    }
+
+    private File writeFile(String path, String contents) throws IOException {
+        File file = new File(localRepoFolder, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes());
+        return file;
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.archicontribs.modelrepository.Allocations;
+import org.archicontribs.modelrepository.GitHelper;
+import org.archicontribs.modelrepository.ModelGenerator;
+import org.archicontribs.modelrepository.merge.MergeConflictHandler;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.MergeResult.MergeStatus;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateModel;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+/**
+ * Checks that export, import, loading the history and preparing a merge stay within time and memory budgets
+ * as models get bigger.
+ *
+ * Each budget is a baseline times HEADROOM. A baseline is what the operation cost when it was last measured,
+ * as a fixed amount and an amount for each element, or for each commit when loading the history. The history
+ * has a commit for each ELEMENTS_PER_COMMIT elements and the merge a conflict for each ELEMENTS_PER_CONFLICT elements,
+ * so that they grow with the model too. A change that makes an operation much slower, allocate much more or scale
+ * worse than linearly fails. Each test prints what it measured, so that baselines can be set again after a change
+ * that makes an operation cheaper.
+ *
+ * Memory is the number of bytes allocated by all live threads while the operation runs, which includes the Jobs
+ * that the exporter saves with. It is not checked if the JVM can't count allocations for each thread.
+ *
+ * Only 1000 elements are tested by default. Set the system property "scaling.sizes" to test more, for example
+ * "-Dscaling.sizes=1000,10000,100000". 100000 elements needs a heap of about 4GB.
+ */
+@SuppressWarnings("nls")
+@RunWith(Parameterized.class)
+public class ScalingTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScalingTests.class);
+    }
+
+    @Parameters(name = "{0} elements")
+    public static List<Object[]> sizes() {
+        List<Object[]> sizes = new ArrayList<Object[]>();
+        for(String size : System.getProperty("scaling.sizes", "1000").split(",")) {
+            sizes.add(new Object[] { Integer.valueOf(size.trim()) });
+        }
+        return sizes;
+    }
+
+    /**
+     * How much more than its baseline an operation can cost, to allow for slower machines and noise
+     */
+    private static final double HEADROOM = 3;
+
+    // Baselines as fixed milliseconds, milliseconds for each element or commit, fixed bytes and bytes for each element or commit
+    private static final Baseline EXPORT = new Baseline("Export", 1000, 0.3, 64 << 20, 48 << 10);
+    private static final Baseline IMPORT = new Baseline("Import", 1000, 0.2, 64 << 20, 32 << 10);
+    private static final Baseline HISTORY = new Baseline("History load", 200, 0.05, 8 << 20, 4 << 10);
+    private static final Baseline MERGE = new Baseline("Merge preparation", 1000, 0.2, 64 << 20, 32 << 10);
+
+    private static final int ELEMENTS_PER_COMMIT = 10;
+    private static final int ELEMENTS_PER_CONFLICT = 50;
+
+    private int fElements;
+    private File localRepoFolder;
+
+    public ScalingTests(int elements) {
+        fElements = elements;
+    }
+
+    @Before
+    public void runOnceBeforeEachTest() {
+        localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        GraficoHistoryCache.SNAPSHOTS.clear();
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        GraficoHistoryCache.SNAPSHOTS.clear();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+
+    @Test
+    public void exportModel_WithinBudget() throws Exception {
+        IArchimateModel model = new ModelGenerator().setElements(fElements).generate();
+
+        Measurement measurement = measure(() -> new GraficoModelExporter(model, localRepoFolder).exportModel());
+
+        assertTrue(new File(localRepoFolder, IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML).exists());
+        measurement.assertWithin(EXPORT, fElements, "elements");
+    }
+
+    @Test
+    public void importAsModel_WithinBudget() throws Exception {
+        new GraficoModelExporter(new ModelGenerator().setElements(fElements).generate(), localRepoFolder).exportModel();
+
+        IArchimateModel[] model = new IArchimateModel[1];
+        Measurement measurement = measure(() -> model[0] = new GraficoModelImporter(localRepoFolder).importAsModel());
+
+        assertNotNull(model[0]);
+        measurement.assertWithin(IMPORT, fElements, "elements");
+    }
+
+    @Test
+    public void historyLoad_WithinBudget() throws Exception {
+        int commits = Math.max(1, fElements / ELEMENTS_PER_COMMIT);
+
+        IArchimateModel model = new ModelGenerator().setElements(fElements).generate();
+        IArchiRepository archiRepo = GitHelper.createRepositoryWithHistory(localRepoFolder, model, commits);
+
+        // Build the history cache again from the commits
+        GraficoHistoryCache.SNAPSHOTS.clear();
+        FileUtils.deleteFolder(new File(archiRepo.getLocalGitFolder(), GraficoHistoryCache.CACHE_FOLDER));
+
+        try(Repository repository = archiRepo.openRepository()) {
+            int[] size = new int[1];
+            Measurement measurement = measure(() -> {
+                GraficoHistoryCache cache = new GraficoHistoryCache(repository);
+                cache.update();
+                for(GraficoHistoryCache.CommitInfo info : cache.getHistory()) {
+                    info.getShortMessage();
+                    size[0]++;
+                }
+            });
+
+            assertEquals(commits + 1, size[0]);
+            measurement.assertWithin(HISTORY, size[0], "commits");
+        }
+    }
+
+    @Test
+    public void mergePreparation_WithinBudget() throws Exception {
+        IArchimateModel model = new ModelGenerator().setElements(fElements).generate();
+        IArchiRepository archiRepo = GitHelper.createRepositoryWithHistory(localRepoFolder, model, 1);
+        MergeResult mergeResult = GitHelper.createMergeConflict(archiRepo, model, Math.max(1, fElements / ELEMENTS_PER_CONFLICT));
+        assertEquals(MergeStatus.CONFLICTING, mergeResult.getMergeStatus());
+
+        // The handler takes our model from the model manager, so give it the one in memory
+        IArchiRepository handlerRepo = new ArchiRepository(localRepoFolder) {
+            @Override
+            public IArchimateModel locateModel() {
+                return model;
+            }
+        };
+
+        MergeConflictHandler handler = new MergeConflictHandler(mergeResult, handlerRepo, null);
+        Measurement measurement = measure(() -> handler.init(new NullProgressMonitor()));
+
+        assertTrue(handler.hasConflicts());
+        measurement.assertWithin(MERGE, fElements, "elements");
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * What an operation cost when it was last measured
+     */
+    private static class Baseline {
+        final String name;
+        final long millis;
+        final double millisPerUnit;
+        final long bytes;
+        final long bytesPerUnit;
+
+        Baseline(String name, long millis, double millisPerUnit, long bytes, long bytesPerUnit) {
+            this.name = name;
+            this.millis = millis;
+            this.millisPerUnit = millisPerUnit;
+            this.bytes = bytes;
+            this.bytesPerUnit = bytesPerUnit;
+        }
+    }
+
+    /**
+     * Time and allocated bytes of an operation
+     */
+    private static class Measurement {
+        long millis;
+        long allocatedBytes = -1;
+
+        /**
+         * @param baseline The operation's baseline
+         * @param units Number of elements or commits the operation worked on
+         * @param unitName Name of the units in messages
+         */
+        void assertWithin(Baseline baseline, int units, String unitName) {
+            String name = baseline.name + " of " + units + " " + unitName;
+
+            System.out.println(String.format("%s: %dms (%.3fms each), %dMB allocated (%dKB each)", name, millis,
+                    (double)millis / units, allocatedBytes >> 20, allocatedBytes < 0 ? -1 : (allocatedBytes / units) >> 10));
+
+            long millisBudget = (long)(HEADROOM * (baseline.millis + baseline.millisPerUnit * units));
+            assertTrue(name + " took " + millis + "ms, budget is " + millisBudget + "ms", millis <= millisBudget);
+
+            // Not counted
+            if(allocatedBytes < 0) {
+                return;
+            }
+
+            long bytesBudget = (long)(HEADROOM * (baseline.bytes + (double)baseline.bytesPerUnit * units));
+            assertTrue(name + " allocated " + (allocatedBytes >> 20) + "MB, budget is " + (bytesBudget >> 20) + "MB",
+                    allocatedBytes <= bytesBudget);
+        }
+    }
+
+    /**
+     * Run an operation and measure its time and the bytes allocated while it runs
+     */
+    private Measurement measure(Operation operation) throws Exception {
+        long allocatedBefore = Allocations.getAllocatedBytes();
+        long start = System.nanoTime();
+
+        operation.run();
+
+        Measurement measurement = new Measurement();
+        measurement.millis = (System.nanoTime() - start) / 1000000;
+        measurement.allocatedBytes = Allocations.since(allocatedBefore);
+        return measurement;
+    }
+}
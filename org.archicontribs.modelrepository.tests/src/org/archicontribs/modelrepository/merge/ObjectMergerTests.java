@@ -0,0 +1,138 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.junit.Test;
+
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IBusinessActor;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IIdentifier;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class ObjectMergerTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ObjectMergerTests.class);
+    }
+
+    @Test
+    public void merge_DifferentFeaturesMergeWithoutConflict() {
+        IArchimateModel model = createModel();
+        IBusinessActor ours = (IBusinessActor)model.getFolder(FolderType.BUSINESS).getElements().get(0);
+        IBusinessActor base = EcoreUtil.copy(ours);
+        IBusinessActor theirs = EcoreUtil.copy(ours);
+
+        ours.setName("Our Name");
+        theirs.setDocumentation("Their Documentation");
+
+        ObjectMerger merger = new ObjectMerger(getObjectsByID(model));
+        assertTrue(merger.merge(base, ours, theirs));
+
+        // Not changed until applied
+        assertEquals("", ours.getDocumentation());
+
+        merger.apply();
+        assertEquals("Our Name", ours.getName());
+        assertEquals("Their Documentation", ours.getDocumentation());
+    }
+
+    @Test
+    public void merge_SameFeatureChangedOnBothSidesIsConflict() {
+        IArchimateModel model = createModel();
+        IBusinessActor ours = (IBusinessActor)model.getFolder(FolderType.BUSINESS).getElements().get(0);
+        IBusinessActor base = EcoreUtil.copy(ours);
+        IBusinessActor theirs = EcoreUtil.copy(ours);
+
+        ours.setName("Our Name");
+        theirs.setName("Their Name");
+
+        ObjectMerger merger = new ObjectMerger(getObjectsByID(model));
+        assertFalse(merger.merge(base, ours, theirs));
+        assertEquals(1, merger.getConflicts().size());
+        assertEquals("name", merger.getConflicts().get(0));
+    }
+
+    @Test
+    public void merge_ChildrenMergedByID() {
+        IArchimateModel model = createModel();
+        IBusinessActor actor = (IBusinessActor)model.getFolder(FolderType.BUSINESS).getElements().get(0);
+        IArchimateDiagramModel ours = (IArchimateDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+        IArchimateDiagramModel base = EcoreUtil.copy(ours);
+        IArchimateDiagramModel theirs = EcoreUtil.copy(ours);
+
+        // We move the diagram object, they add another one
+        ((IDiagramModelArchimateObject)ours.getChildren().get(0)).setBounds(IArchimateFactory.eINSTANCE.createBounds(50, 50, 120, 55));
+
+        IDiagramModelArchimateObject dmo2 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo2.setId("dmo2-id");
+        dmo2.setArchimateElement(actor);
+        dmo2.setBounds(IArchimateFactory.eINSTANCE.createBounds(200, 10, 120, 55));
+        theirs.getChildren().add(dmo2);
+
+        ObjectMerger merger = new ObjectMerger(getObjectsByID(model));
+        assertTrue(merger.merge(base, ours, theirs));
+        merger.apply();
+
+        assertEquals(2, ours.getChildren().size());
+        assertEquals(50, ((IDiagramModelArchimateObject)ours.getChildren().get(0)).getBounds().getX());
+
+        IDiagramModelArchimateObject mergedDmo2 = (IDiagramModelArchimateObject)ours.getChildren().get(1);
+        assertEquals("dmo2-id", mergedDmo2.getId());
+        assertSame(actor, mergedDmo2.getArchimateElement());
+    }
+
+    private IArchimateModel createModel() {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model-id");
+
+        IBusinessActor actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setId("actor-id");
+        actor.setName("Actor");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor);
+
+        IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm.setId("dm-id");
+        model.getFolder(FolderType.DIAGRAMS).getElements().add(dm);
+
+        IDiagramModelArchimateObject dmo1 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo1.setId("dmo1-id");
+        dmo1.setArchimateElement(actor);
+        dmo1.setBounds(IArchimateFactory.eINSTANCE.createBounds(10, 10, 120, 55));
+        dm.getChildren().add(dmo1);
+
+        return model;
+    }
+
+    private Map<String, EObject> getObjectsByID(IArchimateModel model) {
+        Map<String, EObject> objects = new HashMap<String, EObject>();
+        for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IIdentifier) {
+                objects.put(((IIdentifier)eObject).getId(), eObject);
+            }
+        }
+        return objects;
+    }
+}
@@ -17,6 +17,7 @@ import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryMetrics;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
@@ -53,6 +54,8 @@ public class ModelRepositoryPlugin extends AbstractUIPlugin implements PropertyC
         
         // Set this first
         ProxyAuthenticater.init();
+        
+        updateMetricsLog();
     }
     
     @Override
@@ -95,6 +98,21 @@ public class ModelRepositoryPlugin extends AbstractUIPlugin implements PropertyC
         return new File(path);
     }
     
+    /**
+     * Start or stop logging repository operations to a file in the plug-in state folder, as set in preferences
+     */
+    public void updateMetricsLog() {
+        String format = getPreferenceStore().getString(IPreferenceConstants.PREFS_METRICS_LOG);
+        
+        if(StringUtils.isSet(format)) {
+            File file = new File(getStateLocation().toFile(), "metrics." + format); //$NON-NLS-1$
+            RepositoryMetrics.INSTANCE.setLogFile(file, format);
+        }
+        else {
+            RepositoryMetrics.INSTANCE.setLogFile(null, null);
+        }
+    }
+    
     @Override
     public void propertyChange(PropertyChangeEvent evt) {
         // Notify on Save
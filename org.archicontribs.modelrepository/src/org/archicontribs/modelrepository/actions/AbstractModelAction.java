@@ -9,6 +9,7 @@ import java.io.File;
 import java.io.IOException;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.authentication.ProxyAuthenticater;
 import org.archicontribs.modelrepository.authentication.SimpleCredentialsStorage;
 import org.archicontribs.modelrepository.authentication.UsernamePassword;
 import org.archicontribs.modelrepository.dialogs.CommitDialog;
@@ -16,6 +17,8 @@ import org.archicontribs.modelrepository.dialogs.UserNamePasswordDialog;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryMetrics;
+import org.archicontribs.modelrepository.grafico.RepositorySession;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -103,9 +106,10 @@ public abstract class AbstractModelAction extends Action implements IGraficoMode
     
     /**
      * Offer to Commit changes
+     * @param session The session of the workflow, with the changes staged
      * @return true if successful, false otherwise
      */
-    protected boolean offerToCommitChanges() {
+    protected boolean offerToCommitChanges(RepositorySession session) {
         CommitDialog commitDialog = new CommitDialog(fWindow.getShell(), getRepository());
         int response = commitDialog.open();
         
@@ -114,7 +118,7 @@ public abstract class AbstractModelAction extends Action implements IGraficoMode
             boolean amend = commitDialog.getAmend();
             
             try {
-                getRepository().commitChanges(commitMessage, amend);
+                session.commitChanges(commitMessage, amend);
 
                 // Save the checksum
                 getRepository().saveChecksum();
@@ -160,6 +164,17 @@ public abstract class AbstractModelAction extends Action implements IGraficoMode
         return null;
     }
     
+    /**
+     * Update the proxy settings and test a connection to the repository URL, timed as the repository's proxy check
+     * @param repoURL
+     * @throws IOException
+     */
+    protected void updateProxy(String repoURL) throws IOException {
+        try(RepositoryMetrics.Timer timer = RepositoryMetrics.INSTANCE.start(getRepository(), RepositoryMetrics.PROXY_CHECK)) {
+            ProxyAuthenticater.update(repoURL);
+        }
+    }
+    
     /**
      * Notify that the repo changed
      */
@@ -10,7 +10,6 @@ import java.io.IOException;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
-import org.archicontribs.modelrepository.authentication.ProxyAuthenticater;
 import org.archicontribs.modelrepository.authentication.SimpleCredentialsStorage;
 import org.archicontribs.modelrepository.dialogs.CloneInputDialog;
 import org.archicontribs.modelrepository.grafico.ArchiRepository;
@@ -18,6 +17,7 @@ import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryMetrics;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -82,7 +82,7 @@ public class CloneModelAction extends AbstractModelAction {
         
         try {
             // Proxy check
-            ProxyAuthenticater.update(repoURL);
+            updateProxy(repoURL);
             
             // Clone
             Exception[] exception = new Exception[1];
@@ -90,7 +90,7 @@ public class CloneModelAction extends AbstractModelAction {
             ps.busyCursorWhile(new IRunnableWithProgress() {
                 public void run(IProgressMonitor pm) {
                     try {
-                        getRepository().cloneModel(repoURL, userName, userPassword, new ProgressMonitorWrapper(pm));
+                        getRepository().cloneModel(repoURL, userName, userPassword, new ProgressMonitorWrapper(pm, getRepository(), RepositoryMetrics.CLONE));
                     }
                     catch(GitAPIException | IOException ex) {
                         exception[0] = ex;
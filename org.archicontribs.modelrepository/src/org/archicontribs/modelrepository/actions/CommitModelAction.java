@@ -11,6 +11,7 @@ import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.grafico.ArchiRepository;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositorySession;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.ui.IWorkbenchWindow;
@@ -57,19 +58,20 @@ public class CommitModelAction extends AbstractModelAction {
             }
         }
 
-        // Do the Grafico Export first
-        try {
-            getRepository().exportModelToGraficoFiles();
-        }
-        catch(IOException | GitAPIException ex) {
-            displayErrorDialog(Messages.CommitModelAction_0, ex);
-            return;
-        }
-        
-        // Then Commit
-        try {
-            if(getRepository().hasChangesToCommit()) {
-                if(offerToCommitChanges()) {
+        // Export, check and commit in one session so that the index is only read and written once
+        try(RepositorySession session = getRepository().openSession()) {
+            // Do the Grafico Export first
+            try {
+                getRepository().exportModelToGraficoFiles(session);
+            }
+            catch(IOException | GitAPIException ex) {
+                displayErrorDialog(Messages.CommitModelAction_0, ex);
+                return;
+            }
+            
+            // Then Commit
+            if(session.hasChangesToCommit()) {
+                if(offerToCommitChanges(session)) {
                     notifyChangeListeners(IRepositoryListener.HISTORY_CHANGED);
                 }
             }
@@ -79,7 +81,7 @@ public class CommitModelAction extends AbstractModelAction {
                         Messages.CommitModelAction_2);
             }
         }
-        catch(IOException | GitAPIException ex) {
+        catch(IOException ex) {
             displayErrorDialog(Messages.CommitModelAction_0, ex);
         }
     }
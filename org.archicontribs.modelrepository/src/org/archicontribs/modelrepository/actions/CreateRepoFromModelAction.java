@@ -10,12 +10,12 @@ import java.io.IOException;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
-import org.archicontribs.modelrepository.authentication.ProxyAuthenticater;
 import org.archicontribs.modelrepository.authentication.SimpleCredentialsStorage;
 import org.archicontribs.modelrepository.dialogs.NewModelRepoDialog;
 import org.archicontribs.modelrepository.grafico.ArchiRepository;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.RepositoryMetrics;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -82,7 +82,7 @@ public class CreateRepoFromModelAction extends AbstractModelAction {
         
         try {
             // Proxy check
-            ProxyAuthenticater.update(repoURL);
+            updateProxy(repoURL);
             
             // Create a new repo
             try(Git git = getRepository().createNewLocalGitRepository(repoURL)) {
@@ -109,7 +109,7 @@ public class CreateRepoFromModelAction extends AbstractModelAction {
             ps.busyCursorWhile(new IRunnableWithProgress() {
                 public void run(IProgressMonitor pm) {
                     try {
-                        getRepository().pushToRemote(userName, userPassword, new ProgressMonitorWrapper(pm));
+                        getRepository().pushToRemote(userName, userPassword, new ProgressMonitorWrapper(pm, getRepository(), RepositoryMetrics.PUSH));
                     }
                     catch(GitAPIException | IOException ex) {
                         exception[0] = ex;
@@ -58,6 +58,12 @@ public class DeleteModelAction extends AbstractModelAction {
                 }
             }
             
+            // Let listeners stop watching or using its files
+            RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(IRepositoryListener.REPOSITORY_DELETING, getRepository());
+            
+            // Close the cached Repository so that its files are not held open
+            getRepository().evictRepository();
+            
             // Delete folder
             FileUtils.deleteFolder(getRepository().getLocalRepositoryFolder());
             
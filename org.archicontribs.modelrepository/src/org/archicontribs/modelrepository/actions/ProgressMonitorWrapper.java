@@ -5,23 +5,66 @@
  */
 package org.archicontribs.modelrepository.actions;
 
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.RepositoryMetrics;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jgit.lib.EmptyProgressMonitor;
 
 /**
  * JGit ProgressMonitor Wrapper around a IProgressMonitor
- * 
+ *
+ * If a repository and operation are given each JGit task, such as "Receiving objects", is recorded in the
+ * RepositoryMetrics as a phase of the operation with the work done as its items.
+ *
  * @author Phillip Beauvoir
  */
 public class ProgressMonitorWrapper extends EmptyProgressMonitor {
     private IProgressMonitor pm;
 
+    private IArchiRepository repo;
+    private String operation;
+    private RepositoryMetrics.Timer taskTimer;
+
     public ProgressMonitorWrapper(IProgressMonitor pm) {
         this.pm = pm;
     }
-    
+
+    /**
+     * @param pm The IProgressMonitor, or null
+     * @param repo The repository
+     * @param operation The RepositoryMetrics operation that the tasks are phases of
+     */
+    public ProgressMonitorWrapper(IProgressMonitor pm, IArchiRepository repo, String operation) {
+        this(pm);
+        this.repo = repo;
+        this.operation = operation;
+    }
+
+    @Override
+    public void beginTask(String title, int totalWork) {
+        endTask();
+        if(repo != null) {
+            taskTimer = RepositoryMetrics.INSTANCE.start(repo, operation + ": " + title); //$NON-NLS-1$
+        }
+    }
+
+    @Override
+    public void update(int completed) {
+        if(taskTimer != null) {
+            taskTimer.addItems(completed);
+        }
+    }
+
+    @Override
+    public void endTask() {
+        if(taskTimer != null) {
+            taskTimer.close();
+            taskTimer = null;
+        }
+    }
+
     @Override
     public boolean isCancelled() {
         return (pm != null) ? pm.isCanceled() : false;
     }
-}
\ No newline at end of file
+}
@@ -11,6 +11,8 @@ import java.lang.reflect.InvocationTargetException;
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.authentication.UsernamePassword;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryMetrics;
+import org.archicontribs.modelrepository.grafico.RepositorySession;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -43,15 +45,16 @@ public class PushModelAction extends RefreshModelAction {
 
     @Override
     public void run() {
-        try {
+        // One session for the whole workflow
+        try(RepositorySession session = getRepository().openSession()) {
             // Init
-            UsernamePassword up = init();
+            UsernamePassword up = init(session);
             if(up != null) {
                 // Pull
-                int status = pull(up);
+                int status = pull(session, up);
                 if(status == PULL_STATUS_OK || status == PULL_STATUS_UP_TO_DATE) {
                     // Push
-                    push(up);
+                    push(session, up);
                 }
             }
         }
@@ -60,14 +63,14 @@ public class PushModelAction extends RefreshModelAction {
         }
     }
     
-    private void push(UsernamePassword up) throws InvocationTargetException, InterruptedException {
+    private void push(RepositorySession session, UsernamePassword up) throws InvocationTargetException, InterruptedException {
         Exception[] exception = new Exception[1];
         
         IProgressService ps = PlatformUI.getWorkbench().getProgressService();
         ps.busyCursorWhile(new IRunnableWithProgress() {
             public void run(IProgressMonitor pm) {
                 try {
-                    getRepository().pushToRemote(up.getUsername(), up.getPassword(), new ProgressMonitorWrapper(pm));
+                    session.pushToRemote(up.getUsername(), up.getPassword(), new ProgressMonitorWrapper(pm, getRepository(), RepositoryMetrics.PUSH));
                 }
                 catch(GitAPIException | IOException ex) {
                     exception[0] = ex;
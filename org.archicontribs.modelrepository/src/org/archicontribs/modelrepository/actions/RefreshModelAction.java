@@ -8,12 +8,13 @@ package org.archicontribs.modelrepository.actions;
 import java.io.IOException;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
-import org.archicontribs.modelrepository.authentication.ProxyAuthenticater;
 import org.archicontribs.modelrepository.authentication.UsernamePassword;
 import org.archicontribs.modelrepository.grafico.ArchiRepository;
 import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryMetrics;
+import org.archicontribs.modelrepository.grafico.RepositorySession;
 import org.archicontribs.modelrepository.merge.MergeConflictHandler;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -67,10 +68,10 @@ public class RefreshModelAction extends AbstractModelAction {
     
     @Override
     public void run() {
-        try {
-            UsernamePassword up = init();
+        try(RepositorySession session = getRepository().openSession()) {
+            UsernamePassword up = init(session);
             if(up != null) {
-                int status = pull(up);
+                int status = pull(session, up);
                 if(status == PULL_STATUS_UP_TO_DATE) {
                     MessageDialog.openInformation(fWindow.getShell(), Messages.RefreshModelAction_0, Messages.RefreshModelAction_2);
                 }
@@ -81,7 +82,7 @@ public class RefreshModelAction extends AbstractModelAction {
         }
     }
     
-    protected UsernamePassword init() throws IOException, GitAPIException {
+    protected UsernamePassword init(RepositorySession session) throws IOException, GitAPIException {
         // Offer to save the model if open and dirty
         // We need to do this to keep grafico and temp files in sync
         IArchimateModel model = getRepository().locateModel();
@@ -92,11 +93,11 @@ public class RefreshModelAction extends AbstractModelAction {
         }
         
         // Do the Grafico Export first
-        getRepository().exportModelToGraficoFiles();
+        getRepository().exportModelToGraficoFiles(session);
         
         // Then offer to Commit
-        if(getRepository().hasChangesToCommit()) {
-            if(!offerToCommitChanges()) {
+        if(session.hasChangesToCommit()) {
+            if(!offerToCommitChanges(session)) {
                 return null;
             }
             notifyChangeListeners(IRepositoryListener.HISTORY_CHANGED);
@@ -109,12 +110,12 @@ public class RefreshModelAction extends AbstractModelAction {
         }
         
         // Proxy update
-        ProxyAuthenticater.update(getRepository().getOnlineRepositoryURL());
+        updateProxy(getRepository().getOnlineRepositoryURL());
 
         return up;
     }
     
-    protected int pull(UsernamePassword up) throws Exception {
+    protected int pull(RepositorySession session, UsernamePassword up) throws Exception {
         PullResult[] pullResult = new PullResult[1];
         Exception[] exception = new Exception[1];
         
@@ -122,7 +123,7 @@ public class RefreshModelAction extends AbstractModelAction {
         ps.busyCursorWhile(new IRunnableWithProgress() {
             public void run(IProgressMonitor pm) {
                 try {
-                    pullResult[0] = getRepository().pullFromRemote(up.getUsername(), up.getPassword(), new ProgressMonitorWrapper(pm));
+                    pullResult[0] = session.pullFromRemote(up.getUsername(), up.getPassword(), new ProgressMonitorWrapper(pm, getRepository(), RepositoryMetrics.PULL));
                 }
                 catch(GitAPIException | IOException ex) {
                     exception[0] = ex;
@@ -170,7 +171,8 @@ public class RefreshModelAction extends AbstractModelAction {
                 throw exception[0];
             }
             
-            boolean result = handler.openConflictsDialog();
+            // Objects changed on both sides might have all been merged without conflicts
+            boolean result = !handler.hasConflicts() || handler.openConflictsDialog();
             if(result) {
                 handler.merge();
             }
@@ -187,7 +189,7 @@ public class RefreshModelAction extends AbstractModelAction {
         loader.loadModel();
         
         // Do a commit if needed
-        if(getRepository().hasChangesToCommit()) {
+        if(session.hasChangesToCommit()) {
             String commitMessage = Messages.RefreshModelAction_1;
             
             // Did we restore any missing objects?
@@ -198,7 +200,7 @@ public class RefreshModelAction extends AbstractModelAction {
                 commitMessage += "\n\n" + Messages.RefreshModelAction_3 + "\n" + restoredObjects; //$NON-NLS-1$ //$NON-NLS-2$
             }
 
-            getRepository().commitChanges(commitMessage, true);
+            session.commitChanges(commitMessage, true);
         }
         
         notifyChangeListeners(IRepositoryListener.HISTORY_CHANGED);
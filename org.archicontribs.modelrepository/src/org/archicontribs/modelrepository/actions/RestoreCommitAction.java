@@ -10,11 +10,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
+import org.archicontribs.modelrepository.grafico.GraficoHistoryCache;
 import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
@@ -81,7 +81,7 @@ public class RestoreCommitAction extends AbstractModelAction {
         }
         
         // Walk the tree and get the contents of the commit
-        try(Repository repository = Git.open(getRepository().getLocalRepositoryFolder()).getRepository()) {
+        try(Repository repository = getRepository().openRepository()) {
             try(TreeWalk treeWalk = new TreeWalk(repository)) {
                 treeWalk.addTree(fCommit.getTree());
                 treeWalk.setRecursive(true);
@@ -152,10 +152,15 @@ public class RestoreCommitAction extends AbstractModelAction {
             return false;
         }
         
-        try(Repository repo = Git.open(getRepository().getLocalRepositoryFolder()).getRepository()) {
+        try(Repository repo = getRepository().openRepository()) {
             ObjectId headID = repo.resolve(IGraficoConstants.REFS_HEADS_MASTER);
-            ObjectId commitID = fCommit.getId();
-            return commitID.equals(headID);
+            if(headID == null) {
+                return false;
+            }
+
+            // Look in the history cache as it is, without updating it, as this is called on the UI thread for each selection
+            ObjectId commitID = new GraficoHistoryCache(repo).lookup(headID).getId();
+            return commitID.equals(fCommit.getId());
         }
     }
 }
@@ -8,15 +8,14 @@ package org.archicontribs.modelrepository.actions;
 import java.io.IOException;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
+import org.archicontribs.modelrepository.grafico.GraficoHistoryCache;
 import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.ui.IWorkbenchWindow;
 
 import com.archimatetool.editor.model.IEditorModelManager;
@@ -77,24 +76,11 @@ public class UndoLastCommitAction extends AbstractModelAction {
         }
         
         // If HEAD commit count is 1 then there's nothing to undo
-        try(Repository repository = Git.open(getRepository().getLocalRepositoryFolder()).getRepository()) {
-            try(RevWalk revWalk = new RevWalk(repository)) {
-                // We are interested in the HEAD
-                revWalk.markStart(revWalk.parseCommit(repository.resolve(IGraficoConstants.HEAD)));
-                
-                int count = 0;
-                for(@SuppressWarnings("unused") RevCommit c : revWalk) {
-                    count++;
-                    if(count > 1) {
-                        break;
-                    }
-                }
-                
-                revWalk.dispose();
-                
-                if(count == 1) {
-                    return false;
-                }
+        // Look in the history cache as it is, as updating it could be a long walk and wait for the History view's update
+        try(Repository repository = getRepository().openRepository()) {
+            ObjectId headId = repository.resolve(IGraficoConstants.HEAD);
+            if(headId != null && new GraficoHistoryCache(repository).lookup(headId).getParentCount() == 0) {
+                return false;
             }
         }
         catch(IOException ex) {
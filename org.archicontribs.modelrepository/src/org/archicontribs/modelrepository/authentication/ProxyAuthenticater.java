@@ -44,9 +44,20 @@ public class ProxyAuthenticater {
         System.setProperty("jdk.http.auth.tunneling.disabledSchemes", ""); //$NON-NLS-1$ //$NON-NLS-2$
     }
     
+    /**
+     * Update the Proxy Authenticater without testing a connection to a repository.
+     * Used when fetching more than one repository so that the proxy is only checked once.
+     * Get settings from user prefs
+     * @throws IOException if the proxy can't be reached
+     */
+    public static void update() throws IOException {
+        update(null);
+    }
+    
     /**
      * Update the Proxy Authenticater
      * Get settings from user prefs
+     * @param repositoryURL The repository URL to test a connection with, or null to not test it
      * @throws IOException
      */
     public static void update(String repositoryURL) throws IOException {
@@ -57,7 +68,9 @@ public class ProxyAuthenticater {
             ProxySelector.setDefault(DEFAULT_PROXY_SELECTOR);
             
             // Test the connection - this is better to do it now
-            testConnection(repositoryURL, null);
+            if(repositoryURL != null) {
+                testConnection(repositoryURL, null);
+            }
             
             return;
         }
@@ -113,7 +126,9 @@ public class ProxyAuthenticater {
         });      
 
         // Test the connection with the repository URL
-        testConnection(repositoryURL, proxy);
+        if(repositoryURL != null) {
+            testConnection(repositoryURL, proxy);
+        }
     }
     
     /**
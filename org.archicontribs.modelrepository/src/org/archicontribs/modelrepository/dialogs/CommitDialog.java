@@ -12,7 +12,6 @@ import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.eclipse.jface.dialogs.IMessageProvider;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
@@ -200,7 +199,7 @@ public class CommitDialog extends ExtendedTitleAreaDialog {
     }
     
     private int getLatestLocalCommitParentCount() throws IOException {
-        try(Repository repository = Git.open(fRepository.getLocalRepositoryFolder()).getRepository()) {
+        try(Repository repository = fRepository.openRepository()) {
             Ref head = repository.exactRef(IGraficoConstants.HEAD);
             if(head == null) {
                 return 0;
@@ -7,31 +7,24 @@ package org.archicontribs.modelrepository.grafico;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
 import java.util.stream.Stream;
 
-import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.CleanCommand;
 import org.eclipse.jgit.api.CloneCommand;
-import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.InitCommand;
-import org.eclipse.jgit.api.PullCommand;
+import org.eclipse.jgit.api.LsRemoteCommand;
 import org.eclipse.jgit.api.PullResult;
-import org.eclipse.jgit.api.PushCommand;
 import org.eclipse.jgit.api.RemoteAddCommand;
 import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
-import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.BranchTrackingStatus;
@@ -43,6 +36,8 @@ import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
@@ -53,6 +48,7 @@ import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.util.FS;
 
 import com.archimatetool.editor.model.IEditorModelManager;
 import com.archimatetool.editor.utils.StringUtils;
@@ -84,6 +80,35 @@ public class ArchiRepository implements IArchiRepository {
     public File getLocalGitFolder() {
         return new File(getLocalRepositoryFolder(), ".git"); //$NON-NLS-1$
     }
+    
+    @Override
+    public Repository openRepository() throws IOException {
+        FileKey key = FileKey.exact(getLocalGitFolder(), FS.DETECTED);
+        
+        // The folder has been deleted, so don't hand out the cached Repository for it
+        if(!getLocalGitFolder().isDirectory()) {
+            RepositoryCache.unregister(key);
+        }
+        
+        return RepositoryCache.open(key, true);
+    }
+    
+    @Override
+    public void evictRepository() {
+        GraficoHistoryCache.evict(getLocalGitFolder());
+
+        FileKey key = FileKey.exact(getLocalGitFolder(), FS.DETECTED);
+        
+        if(RepositoryCache.getRegisteredKeys().contains(key)) {
+            try {
+                // Unregister and close it now, rather than when it has not been used for a while
+                RepositoryCache.close(RepositoryCache.open(key, false));
+            }
+            catch(IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
 
     @Override
     public String getName() {
@@ -118,8 +143,8 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public String getOnlineRepositoryURL() throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            return git.getRepository().getConfig().getString("remote", IGraficoConstants.ORIGIN, "url"); //$NON-NLS-1$ //$NON-NLS-2$
+        try(Repository repository = openRepository()) {
+            return repository.getConfig().getString("remote", IGraficoConstants.ORIGIN, "url"); //$NON-NLS-1$ //$NON-NLS-2$
         }
     }
     
@@ -136,83 +161,64 @@ public class ArchiRepository implements IArchiRepository {
         return null;
     }
 
+    @Override
+    public RepositorySession openSession() throws IOException {
+        return new RepositorySession(this);
+    }
+
     @Override
     public boolean hasChangesToCommit() throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            Status status = git.status().call();
-            return !status.isClean();
+        try(RepositorySession session = openSession()) {
+            return session.hasChangesToCommit();
         }
     }
     
     @Override
     public RevCommit commitChanges(String commitMessage, boolean amend) throws GitAPIException, IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            Status status = git.status().call();
-            
-            // Nothing changed
-            if(status.isClean()) {
-                return null;
-            }
-            
-            // Add modified files to index
-            AddCommand addCommand = git.add();
-            addCommand.addFilepattern("."); //$NON-NLS-1$
-            addCommand.setUpdate(false);
-            addCommand.call();
-            
-            // Add missing files to index
-            for(String s : status.getMissing()) {
-                git.rm().addFilepattern(s).call();
-            }
-            
-            // Commit
-            CommitCommand commitCommand = git.commit();
-            PersonIdent userDetails = getUserDetails();
-            commitCommand.setAuthor(userDetails);
-            commitCommand.setMessage(commitMessage);
-            commitCommand.setAmend(amend);
-            return commitCommand.call();
+        try(RepositorySession session = openSession()) {
+            return session.commitChanges(commitMessage, amend);
         }
     }
     
     @Override
     public void cloneModel(String repoURL, String userName, String userPassword, ProgressMonitor monitor) throws GitAPIException, IOException {
+        // A Repository for an earlier repository in this folder can't be used
+        evictRepository();
+        
         CloneCommand cloneCommand = Git.cloneRepository();
         cloneCommand.setDirectory(getLocalRepositoryFolder());
         cloneCommand.setURI(repoURL);
         cloneCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
         cloneCommand.setProgressMonitor(monitor);
             
-        try(Git git = cloneCommand.call()) {
+        try(RepositoryMetrics.Timer timer = RepositoryMetrics.INSTANCE.start(this, RepositoryMetrics.CLONE); Git git = cloneCommand.call()) {
             // Use the same line endings
             setConfigLineEndings(git);
+            timer.close();
+            
+            // Index the cloned commits now so that the history can be shown from the cache
+            updateIndexes(git.getRepository());
         }
     }
 
     @Override
     public Iterable<PushResult> pushToRemote(String userName, String userPassword, ProgressMonitor monitor) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            PushCommand pushCommand = git.push();
-            pushCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
-            pushCommand.setProgressMonitor(monitor);
-            return pushCommand.call();
+        try(RepositorySession session = openSession()) {
+            return session.pushToRemote(userName, userPassword, monitor);
         }
     }
     
     @Override
     public PullResult pullFromRemote(String userName, String userPassword, ProgressMonitor monitor) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            PullCommand pullCommand = git.pull();
-            pullCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
-            pullCommand.setRebase(false); // Merge, not rebase
-            pullCommand.setProgressMonitor(monitor);
-            return pullCommand.call();
+        try(RepositorySession session = openSession()) {
+            return session.pullFromRemote(userName, userPassword, monitor);
         }
     }
     
     @Override
     public FetchResult fetchFromRemote(String userName, String userPassword, ProgressMonitor monitor, boolean isDryrun) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(RepositoryMetrics.Timer timer = RepositoryMetrics.INSTANCE.start(this, RepositoryMetrics.FETCH);
+                Repository repository = openRepository(); Git git = Git.wrap(repository)) {
             // Check and set tracked master branch
             setTrackedMasterBranch(git);
             
@@ -220,7 +226,33 @@ public class ArchiRepository implements IArchiRepository {
             fetchCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
             fetchCommand.setProgressMonitor(monitor);
             fetchCommand.setDryRun(isDryrun);
-            return fetchCommand.call();
+            FetchResult fetchResult = fetchCommand.call();
+            timer.addItems(fetchResult.getTrackingRefUpdates().size());
+            
+            if(!isDryrun) {
+                updateIndexes(repository);
+            }
+            
+            return fetchResult;
+        }
+    }
+
+    @Override
+    public boolean hasRemoteChanged(String userName, String userPassword) throws IOException, GitAPIException {
+        try(Repository repository = openRepository(); Git git = Git.wrap(repository)) {
+            // Only the advertised refs are read, there is no pack negotiation
+            LsRemoteCommand lsRemoteCommand = git.lsRemote();
+            lsRemoteCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
+            lsRemoteCommand.setRemote(IGraficoConstants.ORIGIN);
+            lsRemoteCommand.setHeads(true);
+            
+            Ref remoteRef = lsRemoteCommand.callAsMap().get(IGraficoConstants.REFS_HEADS_MASTER);
+            Ref localRef = repository.exactRef(IGraficoConstants.REFS_REMOTES_ORIGIN_MASTER);
+            
+            ObjectId remoteId = remoteRef != null ? remoteRef.getObjectId() : null;
+            ObjectId localId = localRef != null ? localRef.getObjectId() : null;
+            
+            return !Objects.equals(remoteId, localId);
         }
     }
 
@@ -230,6 +262,9 @@ public class ArchiRepository implements IArchiRepository {
             throw new IOException("Directory: " + getLocalRepositoryFolder().getAbsolutePath() + " is not empty."); //$NON-NLS-1$ //$NON-NLS-2$
         }
         
+        // A Repository for an earlier repository in this folder can't be used
+        evictRepository();
+        
         InitCommand initCommand = Git.init();
         initCommand.setDirectory(getLocalRepositoryFolder());
         Git git = initCommand.call();
@@ -252,7 +287,7 @@ public class ArchiRepository implements IArchiRepository {
     public String getFileContents(String path, String ref) throws IOException {
         String str = ""; //$NON-NLS-1$
         
-        try(Repository repository = Git.open(getLocalRepositoryFolder()).getRepository()) {
+        try(Repository repository = openRepository()) {
             ObjectId lastCommitId = repository.resolve(ref);
 
             try(RevWalk revWalk = new RevWalk(repository)) {
@@ -287,12 +322,10 @@ public class ArchiRepository implements IArchiRepository {
     public String getWorkingTreeFileContents(String path) throws IOException {
         String str = ""; //$NON-NLS-1$
         
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            try(BufferedReader in = new BufferedReader(new FileReader(new File(getLocalRepositoryFolder(), path)))) {
-                String line;
-                while((line = in.readLine()) != null) {
-                    str += line + "\n"; //$NON-NLS-1$
-                }
+        try(BufferedReader in = new BufferedReader(new FileReader(new File(getLocalRepositoryFolder(), path)))) {
+            String line;
+            while((line = in.readLine()) != null) {
+                str += line + "\n"; //$NON-NLS-1$
             }
         }
         
@@ -301,7 +334,7 @@ public class ArchiRepository implements IArchiRepository {
 
     @Override
     public void resetToRef(String ref) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Repository repository = openRepository(); Git git = Git.wrap(repository)) {
             // Reset to master
             ResetCommand resetCommand = git.reset();
             resetCommand.setRef(ref);
@@ -313,11 +346,14 @@ public class ArchiRepository implements IArchiRepository {
             cleanCommand.setCleanDirectories(true);
             cleanCommand.call();
         }
+        
+        // The Grafico files no longer match the tracked changes
+        invalidateDirtyTracker();
     }
     
     @Override
     public boolean isHeadAndRemoteSame() throws IOException {
-        try(Repository repository = Git.open(getLocalRepositoryFolder()).getRepository()) {
+        try(Repository repository = openRepository()) {
             Ref onlineRef = repository.findRef(ORIGIN_MASTER);
             Ref localRef = repository.findRef(HEAD);
             
@@ -337,15 +373,15 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public boolean hasRef(String refName) throws IOException {
-        try(Repository repository = Git.open(getLocalRepositoryFolder()).getRepository()) {
+        try(Repository repository = openRepository()) {
             return repository.findRef(refName) != null;
         }
     }
     
     @Override
     public boolean hasUnpushedCommits(String branch) throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            BranchTrackingStatus trackingStatus = BranchTrackingStatus.of(git.getRepository(), branch);
+        try(Repository repository = openRepository()) {
+            BranchTrackingStatus trackingStatus = BranchTrackingStatus.of(repository, branch);
             if(trackingStatus != null) {
                 return trackingStatus.getAheadCount() > 0;
             }
@@ -356,8 +392,8 @@ public class ArchiRepository implements IArchiRepository {
 
     @Override
     public boolean hasRemoteCommits(String branch) throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            BranchTrackingStatus trackingStatus = BranchTrackingStatus.of(git.getRepository(), branch);
+        try(Repository repository = openRepository()) {
+            BranchTrackingStatus trackingStatus = BranchTrackingStatus.of(repository, branch);
             if(trackingStatus != null) {
                 return trackingStatus.getBehindCount() > 0;
             }
@@ -367,6 +403,13 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public void exportModelToGraficoFiles() throws IOException, GitAPIException {
+        try(RepositorySession session = openSession()) {
+            exportModelToGraficoFiles(session);
+        }
+    }
+    
+    @Override
+    public void exportModelToGraficoFiles(RepositorySession session) throws IOException, GitAPIException {
         // Open the model
         IArchimateModel model = IEditorModelManager.INSTANCE.openModel(getTempModelFile());
         
@@ -374,29 +417,89 @@ public class ArchiRepository implements IArchiRepository {
             throw new IOException(Messages.ArchiRepository_0);
         }
         
+        // Only write changed files so that only those have to be staged
         GraficoModelExporter exporter = new GraficoModelExporter(model, getLocalRepositoryFolder());
-        exporter.exportModel();
+        exporter.setIncremental(true);
+        exporter.setUseStreamingWriter(true);
         
-        // Stage modified files to index
+        // If we have tracked the changes since the last export, and those were staged, only export and stage the changed objects
+        GraficoDirtyTracker tracker = GraficoDirtyTracker.getTracker(model);
+        boolean targeted = tracker != null && tracker.isValid();
+        
+        try(RepositoryMetrics.Timer timer = RepositoryMetrics.INSTANCE.start(this, RepositoryMetrics.EXPORT)) {
+            if(targeted) {
+                exporter.exportObjects(tracker.getDirtyObjects(), tracker.getRemovedPaths());
+            }
+            else {
+                exporter.exportModel();
+            }
+            
+            timer.addItems(exporter.getWrittenFiles().size() + exporter.getDeletedFiles().size());
+            for(File file : exporter.getWrittenFiles()) {
+                timer.addBytes(file.length());
+            }
+        }
+        
+        // Until the files are staged the tracker can't be used, so if staging fails the next export is a full one
+        if(tracker != null) {
+            tracker.invalidate();
+        }
+        
+        // Stage the files that were written and deleted
         // This will clear any different line endings
-        try (Git git = Git.open(getLocalRepositoryFolder())) {
-            AddCommand addCommand = git.add();
-            addCommand.addFilepattern("."); //$NON-NLS-1$
-            addCommand.setUpdate(false);
-            addCommand.call();
+        // After a full export stage everything, as files that were already written by an export that wasn't staged are not written again
+        if(targeted) {
+            session.stageFiles(exporter.getWrittenFiles(), exporter.getDeletedFiles());
+        }
+        else {
+            session.stageAll();
+        }
+        
+        // The Grafico files and the index are now in sync with the model
+        GraficoDirtyTracker.attach(model);
+    }
+    
+    /**
+     * Add any new commits to the index of element IDs used to restore missing objects and to the history cache
+     * @param repository
+     * @throws IOException
+     */
+    static void updateIndexes(Repository repository) throws IOException {
+        new GraficoObjectIndex(repository).update();
+        new GraficoHistoryCache(repository).update();
+    }
+    
+    /**
+     * Invalidate the tracked changes of the open model so that the next export is a full one
+     */
+    private void invalidateDirtyTracker() {
+        IArchimateModel model = locateModel();
+        if(model != null) {
+            GraficoDirtyTracker tracker = GraficoDirtyTracker.getTracker(model);
+            if(tracker != null) {
+                tracker.invalidate();
+            }
         }
     }
     
     @Override
     public PersonIdent getUserDetails() throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            StoredConfig config = git.getRepository().getConfig();
-            String name = StringUtils.safeString(config.getString(ConfigConstants.CONFIG_USER_SECTION, null, ConfigConstants.CONFIG_KEY_NAME));
-            String email = StringUtils.safeString(config.getString(ConfigConstants.CONFIG_USER_SECTION, null, ConfigConstants.CONFIG_KEY_EMAIL));
-            return new PersonIdent(name, email);
+        try(Repository repository = openRepository()) {
+            return getUserDetails(repository);
         }
     }
     
+    /**
+     * @param repository
+     * @return User name and email from the repository's config
+     */
+    static PersonIdent getUserDetails(Repository repository) {
+        StoredConfig config = repository.getConfig();
+        String name = StringUtils.safeString(config.getString(ConfigConstants.CONFIG_USER_SECTION, null, ConfigConstants.CONFIG_KEY_NAME));
+        String email = StringUtils.safeString(config.getString(ConfigConstants.CONFIG_USER_SECTION, null, ConfigConstants.CONFIG_KEY_EMAIL));
+        return new PersonIdent(name, email);
+    }
+    
     public void saveUserDetails(String name, String email) throws IOException {
         // Get global user details from .gitconfig for comparison
         PersonIdent global = new PersonIdent("", ""); //$NON-NLS-1$ //$NON-NLS-2$
@@ -409,8 +512,8 @@ public class ArchiRepository implements IArchiRepository {
         }
         
         // Save to local config
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            StoredConfig config = git.getRepository().getConfig();
+        try(Repository repository = openRepository()) {
+            StoredConfig config = repository.getConfig();
             
             // If global name == local name or blank then unset
             if(!StringUtils.isSet(name) || global.getName().equals(name)) {
@@ -473,78 +576,17 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public boolean hasLocalChanges() throws IOException {
-        String latestChecksum = getLatestChecksum();
-        if(latestChecksum == null) {
-            return false;
-        }
-
-        String currentChecksum = createChecksum();
-        return !latestChecksum.equals(currentChecksum);
+        return new ModelChecksum(getTempModelFile(), getLocalGitFolder()).hasChanged();
     }
 
     @Override
     public boolean saveChecksum() throws IOException {
-        // Get the file's checksum as string
-        String checksum = createChecksum();
-        if(checksum == null) {
-            return false;
-        }
-
-        File checksumFile = new File(getLocalGitFolder(), "checksum"); //$NON-NLS-1$
-        Files.write(Paths.get(checksumFile.getAbsolutePath()), checksum.getBytes(), StandardOpenOption.CREATE);
-        
-        return true;
-    }
-    
-    private String getLatestChecksum() throws IOException {
-        File checksumFile = new File(getLocalGitFolder(), "checksum"); //$NON-NLS-1$
-        if(!checksumFile.exists()) {
-            return null;
-        }
-        
-        byte[] bytes = Files.readAllBytes(Paths.get(checksumFile.getAbsolutePath()));
-        return new String(bytes);
-    }
-    
-    private String createChecksum() throws IOException {
         File tempFile = getTempModelFile();
-        
         if(tempFile == null) {
-            return null;
-        }
-        
-        MessageDigest digest = null;
-        try {
-            digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
-        }
-        catch(NoSuchAlgorithmException ex) {
-            throw new IOException("NoSuchAlgorithm Exception", ex); //$NON-NLS-1$
-        } 
-
-        // Get file input stream for reading the file content
-        FileInputStream fis = new FileInputStream(tempFile);
-
-        // Create byte array to read data in chunks
-        byte[] byteArray = new byte[1024];
-        int bytesCount = 0;
-
-        // Read file data and update in message digest
-        while((bytesCount = fis.read(byteArray)) != -1) {
-            digest.update(byteArray, 0, bytesCount);
-        }
-
-        fis.close();
-
-        // Get the hash's bytes
-        byte[] bytes = digest.digest();
-        
-        // This bytes[] has bytes in decimal format;
-        // Convert it to hexadecimal format
-        StringBuilder sb = new StringBuilder();
-        for(int i = 0; i < bytes.length; i++) {
-            sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
+            return false;
         }
         
-        return sb.toString();
+        new ModelChecksum(tempFile, getLocalGitFolder()).save();
+        return true;
     }
 }
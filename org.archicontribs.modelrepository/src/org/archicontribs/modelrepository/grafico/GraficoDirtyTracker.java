@@ -0,0 +1,195 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EContentAdapter;
+
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimatePackage;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+
+/**
+ * Records which objects of a model were changed since the last Grafico export.
+ *
+ * An object here is anything that is saved in its own Grafico file - the model, a folder or an element in a folder.
+ * A change to a child object (for example a diagram object or a property) marks the object that owns its file.
+ * The paths of files and folders of removed objects are recorded when they are removed, as they can't be
+ * worked out afterwards.
+ *
+ * The tracker is only valid if it was attached or reset just after an export was staged, so that the Grafico files
+ * and the index are in sync with the model apart from the recorded changes.
+ */
+public class GraficoDirtyTracker extends EContentAdapter {
+
+    /**
+     * @param model
+     * @return The tracker attached to the model, or null
+     */
+    public static GraficoDirtyTracker getTracker(IArchimateModel model) {
+        for(Adapter adapter : model.eAdapters()) {
+            if(adapter instanceof GraficoDirtyTracker) {
+                return (GraficoDirtyTracker)adapter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Attach a tracker to the model, if not already attached, and reset it.
+     * This should be called just after an export has been staged.
+     * @param model
+     * @return The tracker
+     */
+    public static GraficoDirtyTracker attach(IArchimateModel model) {
+        GraficoDirtyTracker tracker = getTracker(model);
+
+        if(tracker == null) {
+            tracker = new GraficoDirtyTracker();
+            model.eAdapters().add(tracker);
+        }
+
+        tracker.reset();
+        return tracker;
+    }
+
+    private Set<EObject> fDirtyObjects = new LinkedHashSet<EObject>();
+
+    private Set<String> fRemovedPaths = new LinkedHashSet<String>();
+
+    private boolean fValid;
+
+    GraficoDirtyTracker() {
+    }
+
+    @Override
+    public void notifyChanged(Notification notification) {
+        // Add or remove this adapter on added or removed objects
+        super.notifyChanged(notification);
+
+        if(notification.isTouch() || !(notification.getNotifier() instanceof EObject)) {
+            return;
+        }
+
+        Object feature = notification.getFeature();
+
+        // Not saved
+        if(feature instanceof EStructuralFeature && ((EStructuralFeature)feature).isTransient()) {
+            return;
+        }
+
+        EObject notifier = (EObject)notification.getNotifier();
+
+        synchronized(this) {
+            // Child folders and elements are saved in their own files
+            if(feature == IArchimatePackage.Literals.FOLDER_CONTAINER__FOLDERS || feature == IArchimatePackage.Literals.FOLDER__ELEMENTS) {
+                switch(notification.getEventType()) {
+                    case Notification.ADD:
+                        addObject((EObject)notification.getNewValue());
+                        break;
+
+                    case Notification.ADD_MANY:
+                        for(Object o : (Collection<?>)notification.getNewValue()) {
+                            addObject((EObject)o);
+                        }
+                        break;
+
+                    case Notification.REMOVE:
+                        removeObject((IFolderContainer)notifier, (EObject)notification.getOldValue());
+                        break;
+
+                    case Notification.REMOVE_MANY:
+                        for(Object o : (Collection<?>)notification.getOldValue()) {
+                            removeObject((IFolderContainer)notifier, (EObject)o);
+                        }
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+            else {
+                EObject owner = GraficoModelExporter.getFileOwner(notifier);
+                if(owner != null) {
+                    fDirtyObjects.add(owner);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the tracker is in sync with the Grafico files and can be used for a targeted export
+     */
+    public synchronized boolean isValid() {
+        return fValid;
+    }
+
+    /**
+     * Mark the tracker as no longer in sync with the Grafico files, for example if they were changed by a reset
+     */
+    public synchronized void invalidate() {
+        fValid = false;
+    }
+
+    /**
+     * Clear all recorded changes and mark the tracker as in sync with the Grafico files
+     */
+    public synchronized void reset() {
+        fDirtyObjects.clear();
+        fRemovedPaths.clear();
+        fValid = true;
+    }
+
+    /**
+     * @return A copy of the objects that were changed or added
+     */
+    public synchronized List<EObject> getDirtyObjects() {
+        return new ArrayList<EObject>(fDirtyObjects);
+    }
+
+    /**
+     * @return A copy of the paths, relative to the model folder, of the files and folders of removed objects
+     */
+    public synchronized List<String> getRemovedPaths() {
+        return new ArrayList<String>(fRemovedPaths);
+    }
+
+    /**
+     * An object was added to a folder or the model. If it's a folder all of its contents have to be written.
+     */
+    private void addObject(EObject object) {
+        fDirtyObjects.add(object);
+
+        if(object instanceof IFolder) {
+            for(Iterator<EObject> iter = object.eAllContents(); iter.hasNext();) {
+                EObject eObject = iter.next();
+                if(eObject instanceof IFolder || eObject.eContainingFeature() == IArchimatePackage.Literals.FOLDER__ELEMENTS) {
+                    fDirtyObjects.add(eObject);
+                }
+            }
+        }
+    }
+
+    /**
+     * An object was removed from a folder or the model. Record the path of its file, or its folder's directory.
+     */
+    private void removeObject(IFolderContainer parent, EObject object) {
+        String parentPath = GraficoModelExporter.getFolderPathFor(parent);
+        String name = object instanceof IFolder ? GraficoModelExporter.getNameFor((IFolder)object) : GraficoModelExporter.getFileNameFor(object);
+        fRemovedPaths.add(parentPath.length() == 0 ? name : parentPath + "/" + name); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,762 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+
+/**
+ * Cache of the commits on master and origin/master with the details shown in the History view,
+ * so that the history can be shown without reading the commits.
+ *
+ * The cache is kept in a folder in the .git folder with one file for each column: commit IDs, commit times, authors, author names,
+ * short messages and parents. New commits are appended to the columns and then a state file is saved with the number of commits,
+ * the length of each column and the commits indexed up to. Anything after the saved length of a column is from an update
+ * that didn't finish and is overwritten.
+ *
+ * Commits are added oldest first so a commit's parents always come before it.
+ * The last loaded or saved cache of each repository is kept in memory and used while the state file doesn't change,
+ * until the repository is evicted.
+ */
+public class GraficoHistoryCache {
+
+    /**
+     * Name of the cache folder in the .git folder
+     */
+    static final String CACHE_FOLDER = "grafico-history"; //$NON-NLS-1$
+
+    static final String STATE_FILE = "state"; //$NON-NLS-1$
+
+    /**
+     * The column files, in the order their lengths are saved in the state file
+     */
+    static final String IDS = "ids"; //$NON-NLS-1$
+    static final String TIMES = "times"; //$NON-NLS-1$
+    static final String AUTHORS = "authors"; //$NON-NLS-1$
+    static final String NAMES = "names"; //$NON-NLS-1$
+    static final String MESSAGES = "messages"; //$NON-NLS-1$
+    static final String PARENTS = "parents"; //$NON-NLS-1$
+
+    private static final String[] COLUMNS = { IDS, TIMES, AUTHORS, NAMES, MESSAGES, PARENTS };
+
+    private static final int MAGIC = 0x47484331; // "GHC1"
+    private static final int VERSION = 1;
+
+    /**
+     * Short messages longer than this are cut
+     */
+    static final int MAX_MESSAGE_LENGTH = 200;
+
+    /**
+     * The branches that are cached
+     */
+    private static final String[] REFS = {
+            IGraficoConstants.REFS_HEADS_MASTER,
+            IGraficoConstants.REFS_REMOTES_ORIGIN_MASTER
+    };
+
+    /**
+     * Updating and saving the cache is done one at a time
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * .git folder -> last loaded or saved cache. Removed by {@link #evict(File)}.
+     */
+    static final Map<File, Snapshot> SNAPSHOTS = new HashMap<File, Snapshot>();
+
+    /**
+     * Forget the cache in memory of a repository, for example when it is closed or before it is deleted
+     * @param gitFolder The repository's .git folder
+     */
+    public static void evict(File gitFolder) {
+        File key = gitFolder.getAbsoluteFile();
+        synchronized(SNAPSHOTS) {
+            SNAPSHOTS.keySet().removeIf(folder -> folder.getAbsoluteFile().equals(key));
+        }
+    }
+
+    /**
+     * The cached details of a commit
+     */
+    public static class CommitInfo {
+        private ObjectId id;
+        private int parentCount;
+        private int commitTime;
+        private String authorName;
+        private String shortMessage;
+
+        CommitInfo(ObjectId id, int parentCount, int commitTime, String authorName, String shortMessage) {
+            this.id = id;
+            this.parentCount = parentCount;
+            this.commitTime = commitTime;
+            this.authorName = authorName;
+            this.shortMessage = shortMessage;
+        }
+
+        public ObjectId getId() {
+            return id;
+        }
+
+        public int getParentCount() {
+            return parentCount;
+        }
+
+        /**
+         * @return Commit time in seconds
+         */
+        public int getCommitTime() {
+            return commitTime;
+        }
+
+        public String getAuthorName() {
+            return authorName;
+        }
+
+        /**
+         * @return The first line of the message, cut to MAX_MESSAGE_LENGTH
+         */
+        public String getShortMessage() {
+            return shortMessage;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CommitInfo && id.equals(((CommitInfo)obj).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+    }
+
+    /**
+     * A commit ID with its index in a snapshot
+     */
+    private static class IndexedId extends ObjectId {
+        final int index;
+
+        IndexedId(AnyObjectId id, int index) {
+            super(id);
+            this.index = index;
+        }
+    }
+
+    /**
+     * The columns as loaded or saved. Not changed once made, apart from the index of commit IDs made when first needed.
+     */
+    static class Snapshot {
+        int count;
+        byte[] ids = new byte[0];
+        int[] times = new int[0];
+        int[] authors = new int[0];
+        List<String> names = new ArrayList<String>();
+        String[] messages = new String[0];
+
+        // Commit index -> start of its parents in parents, with one more at the end
+        int[] parentStarts = { 0 };
+
+        // Indexes of parent commits
+        int[] parents = new int[0];
+
+        List<ObjectId> tips = new ArrayList<ObjectId>();
+
+        // Length of each column file
+        long[] lengths = new long[COLUMNS.length];
+
+        // Modified time and size of the state file
+        long stateModified;
+        long stateSize;
+
+        // Commit ID -> index, made when first needed
+        private ObjectIdSubclassMap<IndexedId> idIndexes;
+
+        ObjectId getId(int index) {
+            return ObjectId.fromRaw(ids, index * Constants.OBJECT_ID_LENGTH);
+        }
+
+        CommitInfo getCommit(int index) {
+            return new CommitInfo(getId(index), parentStarts[index + 1] - parentStarts[index], times[index],
+                    names.get(authors[index]), messages[index]);
+        }
+
+        /**
+         * @return The index of a commit, or -1
+         */
+        synchronized int indexOf(AnyObjectId id) {
+            if(idIndexes == null) {
+                idIndexes = new ObjectIdSubclassMap<IndexedId>();
+                for(int i = 0; i < count; i++) {
+                    idIndexes.add(new IndexedId(getId(i), i));
+                }
+            }
+
+            IndexedId indexedId = idIndexes.get(id);
+            return indexedId != null ? indexedId.index : -1;
+        }
+    }
+
+    private Repository fRepository;
+    private File fFolder;
+    private Snapshot fSnapshot;
+
+    /**
+     * @param repository The repository, which has to stay open while this cache is used
+     */
+    public GraficoHistoryCache(Repository repository) {
+        fRepository = repository;
+        fFolder = new File(repository.getDirectory(), CACHE_FOLDER);
+    }
+
+    /**
+     * Load the cache without updating it. The cache in memory is used if the saved cache hasn't changed since.
+     */
+    public void load() {
+        fSnapshot = getSnapshot();
+    }
+
+    /**
+     * Load the cache without updating it
+     * @return true if the cache has all the commits on master and origin/master
+     * @throws IOException
+     */
+    public boolean isUpToDate() throws IOException {
+        load();
+        return resolveTips().equals(fSnapshot.tips);
+    }
+
+    /**
+     * Load the cache and add any commits on master and origin/master that are not yet in it, saving the new commits if there are any
+     * @throws IOException
+     */
+    public void update() throws IOException {
+        synchronized(LOCK) {
+            Snapshot snapshot = getSnapshot();
+
+            List<ObjectId> tips = resolveTips();
+            if(tips.equals(snapshot.tips)) {
+                fSnapshot = snapshot;
+                return;
+            }
+
+            // A column was lost or cut so start again
+            if(!isComplete(snapshot)) {
+                snapshot = new Snapshot();
+            }
+
+            Snapshot newSnapshot = addCommits(snapshot, tips);
+            save(newSnapshot);
+
+            synchronized(SNAPSHOTS) {
+                SNAPSHOTS.put(fRepository.getDirectory(), newSnapshot);
+            }
+
+            fSnapshot = newSnapshot;
+        }
+    }
+
+    /**
+     * @return The commits on master and origin/master when the cache was last loaded or updated, newest first.
+     *         The details of each commit are made when they are got from the list.
+     */
+    public List<CommitInfo> getHistory() {
+        Snapshot snapshot = fSnapshot != null ? fSnapshot : new Snapshot();
+
+        // Commits that were reset may still be in the cache, so only take those that can be reached from the tips
+        boolean[] reachable = new boolean[snapshot.count];
+        int[] stack = new int[snapshot.count];
+        int top = 0;
+
+        for(ObjectId tip : snapshot.tips) {
+            int index = snapshot.indexOf(tip);
+            if(index != -1 && !reachable[index]) {
+                reachable[index] = true;
+                stack[top++] = index;
+            }
+        }
+
+        int reachableCount = top;
+
+        while(top > 0) {
+            int index = stack[--top];
+            for(int i = snapshot.parentStarts[index]; i < snapshot.parentStarts[index + 1]; i++) {
+                int parent = snapshot.parents[i];
+                if(!reachable[parent]) {
+                    reachable[parent] = true;
+                    stack[top++] = parent;
+                    reachableCount++;
+                }
+            }
+        }
+
+        // Newest first
+        int[] order = new int[reachableCount];
+        int n = 0;
+        for(int i = snapshot.count - 1; i >= 0; i--) {
+            if(reachable[i]) {
+                order[n++] = i;
+            }
+        }
+
+        return new AbstractList<CommitInfo>() {
+            @Override
+            public CommitInfo get(int index) {
+                return snapshot.getCommit(order[index]);
+            }
+
+            @Override
+            public int size() {
+                return order.length;
+            }
+        };
+    }
+
+    /**
+     * Walk the newest commits on master and origin/master without using the cache,
+     * to show the first page of the history while the cache is being made or brought up to date
+     * @param maxCount Most commits to walk
+     * @return The details of up to maxCount commits, newest first
+     * @throws IOException
+     */
+    public List<CommitInfo> walkNewest(int maxCount) throws IOException {
+        List<CommitInfo> commits = new ArrayList<CommitInfo>();
+
+        try(RevWalk revWalk = new RevWalk(fRepository)) {
+            revWalk.sort(RevSort.COMMIT_TIME_DESC);
+
+            for(ObjectId tip : resolveTips()) {
+                revWalk.markStart(revWalk.parseCommit(tip));
+            }
+
+            RevCommit commit;
+            while(commits.size() < maxCount && (commit = revWalk.next()) != null) {
+                commits.add(createCommitInfo(commit));
+            }
+        }
+
+        return commits;
+    }
+
+    /**
+     * Get the details of a commit from the cache as it was last loaded or saved, without updating it.
+     * This is quick enough for the UI thread when the cache is in memory.
+     * @param id A commit ID
+     * @return The cached details of the commit, or if it is not in the cache the details read from the commit
+     * @throws IOException
+     */
+    public CommitInfo lookup(AnyObjectId id) throws IOException {
+        if(fSnapshot == null) {
+            load();
+        }
+
+        CommitInfo info = get(id);
+        if(info != null) {
+            return info;
+        }
+
+        try(RevWalk revWalk = new RevWalk(fRepository)) {
+            return createCommitInfo(revWalk.parseCommit(id));
+        }
+    }
+
+    /**
+     * @param id A commit ID
+     * @return The cached details of the commit, or null if it is not in the cache
+     */
+    public CommitInfo get(AnyObjectId id) {
+        if(fSnapshot == null || id == null) {
+            return null;
+        }
+
+        int index = fSnapshot.indexOf(id);
+        return index == -1 ? null : fSnapshot.getCommit(index);
+    }
+
+    /**
+     * @return The number of commits in the cache
+     */
+    public int size() {
+        return fSnapshot != null ? fSnapshot.count : 0;
+    }
+
+    private List<ObjectId> resolveTips() throws IOException {
+        List<ObjectId> tips = new ArrayList<ObjectId>();
+        for(String ref : REFS) {
+            ObjectId id = fRepository.resolve(ref);
+            if(id != null && !tips.contains(id)) {
+                tips.add(id);
+            }
+        }
+        return tips;
+    }
+
+    /**
+     * @return The cache in memory if the state file hasn't changed since, else load it
+     */
+    private Snapshot getSnapshot() {
+        File stateFile = new File(fFolder, STATE_FILE);
+
+        synchronized(SNAPSHOTS) {
+            Snapshot snapshot = SNAPSHOTS.get(fRepository.getDirectory());
+
+            if(snapshot == null || snapshot.stateModified != stateFile.lastModified() || snapshot.stateSize != stateFile.length()) {
+                snapshot = load(stateFile);
+                SNAPSHOTS.put(fRepository.getDirectory(), snapshot);
+            }
+
+            return snapshot;
+        }
+    }
+
+    /**
+     * Read the state and column files. If they don't exist or can't be read the cache is empty and will be made again.
+     */
+    private Snapshot load(File stateFile) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.stateModified = stateFile.lastModified();
+        snapshot.stateSize = stateFile.length();
+
+        if(!stateFile.isFile()) {
+            return snapshot;
+        }
+
+        try {
+            int nameCount;
+
+            try(DataInputStream in = openColumn(STATE_FILE)) {
+                if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Unknown history cache format"); //$NON-NLS-1$
+                }
+
+                snapshot.count = in.readInt();
+                nameCount = in.readInt();
+
+                for(int i = 0; i < COLUMNS.length; i++) {
+                    snapshot.lengths[i] = in.readLong();
+                }
+
+                int tipCount = in.readInt();
+                byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+                for(int i = 0; i < tipCount; i++) {
+                    in.readFully(raw);
+                    snapshot.tips.add(ObjectId.fromRaw(raw));
+                }
+            }
+
+            int count = snapshot.count;
+
+            try(DataInputStream in = openColumn(IDS)) {
+                snapshot.ids = new byte[count * Constants.OBJECT_ID_LENGTH];
+                in.readFully(snapshot.ids);
+            }
+
+            try(DataInputStream in = openColumn(TIMES)) {
+                snapshot.times = readInts(in, count);
+            }
+
+            try(DataInputStream in = openColumn(AUTHORS)) {
+                snapshot.authors = readInts(in, count);
+            }
+
+            try(DataInputStream in = openColumn(NAMES)) {
+                for(int i = 0; i < nameCount; i++) {
+                    snapshot.names.add(in.readUTF());
+                }
+            }
+
+            try(DataInputStream in = openColumn(MESSAGES)) {
+                snapshot.messages = new String[count];
+                for(int i = 0; i < count; i++) {
+                    snapshot.messages[i] = in.readUTF();
+                }
+            }
+
+            try(DataInputStream in = openColumn(PARENTS)) {
+                snapshot.parentStarts = new int[count + 1];
+                int[] parents = new int[count];
+                int n = 0;
+
+                for(int i = 0; i < count; i++) {
+                    int parentCount = in.readInt();
+                    if(n + parentCount > parents.length) {
+                        parents = Arrays.copyOf(parents, Math.max(parents.length * 2, n + parentCount));
+                    }
+                    for(int j = 0; j < parentCount; j++) {
+                        parents[n++] = in.readInt();
+                    }
+                    snapshot.parentStarts[i + 1] = n;
+                }
+
+                snapshot.parents = Arrays.copyOf(parents, n);
+            }
+        }
+        catch(IOException | RuntimeException ex) {
+            ex.printStackTrace();
+
+            // Start again, keeping the state file's time and size so it is not read again until saved
+            Snapshot empty = new Snapshot();
+            empty.stateModified = snapshot.stateModified;
+            empty.stateSize = snapshot.stateSize;
+            return empty;
+        }
+
+        return snapshot;
+    }
+
+    private static CommitInfo createCommitInfo(RevCommit commit) {
+        return new CommitInfo(commit.copy(), commit.getParentCount(), commit.getCommitTime(),
+                commit.getAuthorIdent().getName(), getShortMessage(commit));
+    }
+
+    /**
+     * @return The first line of the commit's message, cut to MAX_MESSAGE_LENGTH
+     */
+    private static String getShortMessage(RevCommit commit) {
+        String message = commit.getShortMessage();
+        if(message.length() > MAX_MESSAGE_LENGTH) {
+            message = message.substring(0, MAX_MESSAGE_LENGTH);
+        }
+        return message;
+    }
+
+    private DataInputStream openColumn(String name) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(new File(fFolder, name))));
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        for(int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * @return true if each column file is at least as long as when the state was saved
+     */
+    private boolean isComplete(Snapshot snapshot) {
+        for(int i = 0; i < COLUMNS.length; i++) {
+            if(new File(fFolder, COLUMNS[i]).length() < snapshot.lengths[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Walk the commits that are not yet in the cache, oldest first, and append them to the column files
+     * @return A new snapshot with the old and new commits
+     */
+    private Snapshot addCommits(Snapshot snapshot, List<ObjectId> tips) throws IOException {
+        fFolder.mkdirs();
+
+        // Commit ID -> index, for finding parents
+        Map<ObjectId, Integer> indexes = new HashMap<ObjectId, Integer>();
+        for(int i = 0; i < snapshot.count; i++) {
+            indexes.put(snapshot.getId(i), i);
+        }
+
+        // Author name -> index
+        Map<String, Integer> nameIndexes = new HashMap<String, Integer>();
+        for(int i = 0; i < snapshot.names.size(); i++) {
+            nameIndexes.put(snapshot.names.get(i), i);
+        }
+
+        Snapshot newSnapshot = new Snapshot();
+        newSnapshot.tips = tips;
+        newSnapshot.names = new ArrayList<String>(snapshot.names);
+
+        // Details of the new commits
+        List<ObjectId> ids = new ArrayList<ObjectId>();
+        List<Integer> times = new ArrayList<Integer>();
+        List<Integer> authors = new ArrayList<Integer>();
+        List<String> messages = new ArrayList<String>();
+        List<int[]> parents = new ArrayList<int[]>();
+
+        // Truncate anything left from an update that didn't finish
+        for(int i = 0; i < COLUMNS.length; i++) {
+            File file = new File(fFolder, COLUMNS[i]);
+            try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.truncate(snapshot.lengths[i]);
+            }
+        }
+
+        DataOutputStream[] out = new DataOutputStream[COLUMNS.length];
+
+        try(RevWalk revWalk = new RevWalk(fRepository)) {
+            revWalk.sort(RevSort.COMMIT_TIME_DESC, true);
+            revWalk.sort(RevSort.TOPO, true);
+            revWalk.sort(RevSort.REVERSE, true);
+
+            for(ObjectId tip : tips) {
+                revWalk.markStart(revWalk.parseCommit(tip));
+            }
+
+            for(ObjectId tip : snapshot.tips) {
+                try {
+                    revWalk.markUninteresting(revWalk.parseCommit(tip));
+                }
+                // Commit is gone, commits already in the cache are skipped below
+                catch(MissingObjectException ex) {
+                }
+            }
+
+            for(int i = 0; i < COLUMNS.length; i++) {
+                out[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(fFolder, COLUMNS[i]), true)));
+            }
+
+            for(RevCommit commit : revWalk) {
+                if(indexes.containsKey(commit)) {
+                    continue;
+                }
+
+                ObjectId id = commit.copy();
+                id.copyRawTo(out[0]);
+                ids.add(id);
+
+                out[1].writeInt(commit.getCommitTime());
+                times.add(commit.getCommitTime());
+
+                String name = commit.getAuthorIdent().getName();
+                Integer nameIndex = nameIndexes.get(name);
+                if(nameIndex == null) {
+                    nameIndex = newSnapshot.names.size();
+                    nameIndexes.put(name, nameIndex);
+                    newSnapshot.names.add(name);
+                    out[3].writeUTF(name);
+                }
+                out[2].writeInt(nameIndex);
+                authors.add(nameIndex);
+
+                String message = getShortMessage(commit);
+                out[4].writeUTF(message);
+                messages.add(message);
+
+                // Parents always come first
+                int[] parentIndexes = new int[commit.getParentCount()];
+                int n = 0;
+                for(RevCommit parent : commit.getParents()) {
+                    Integer parentIndex = indexes.get(parent);
+                    if(parentIndex != null) {
+                        parentIndexes[n++] = parentIndex;
+                    }
+                }
+                parentIndexes = Arrays.copyOf(parentIndexes, n);
+
+                out[5].writeInt(parentIndexes.length);
+                for(int parentIndex : parentIndexes) {
+                    out[5].writeInt(parentIndex);
+                }
+                parents.add(parentIndexes);
+
+                indexes.put(id, snapshot.count + ids.size() - 1);
+
+                // Not needed any more
+                commit.disposeBody();
+            }
+        }
+        finally {
+            for(int i = 0; i < COLUMNS.length; i++) {
+                if(out[i] != null) {
+                    out[i].close();
+                    newSnapshot.lengths[i] = snapshot.lengths[i] + out[i].size();
+                }
+            }
+        }
+
+        // Old and new commits together
+        int oldCount = snapshot.count;
+        int count = oldCount + ids.size();
+        newSnapshot.count = count;
+
+        newSnapshot.ids = Arrays.copyOf(snapshot.ids, count * Constants.OBJECT_ID_LENGTH);
+        newSnapshot.times = Arrays.copyOf(snapshot.times, count);
+        newSnapshot.authors = Arrays.copyOf(snapshot.authors, count);
+        newSnapshot.messages = Arrays.copyOf(snapshot.messages, count);
+        newSnapshot.parentStarts = Arrays.copyOf(snapshot.parentStarts, count + 1);
+
+        int parentCount = snapshot.parents.length;
+        for(int[] parentIndexes : parents) {
+            parentCount += parentIndexes.length;
+        }
+        newSnapshot.parents = Arrays.copyOf(snapshot.parents, parentCount);
+
+        int p = snapshot.parents.length;
+
+        for(int i = 0; i < ids.size(); i++) {
+            int index = oldCount + i;
+
+            ids.get(i).copyRawTo(newSnapshot.ids, index * Constants.OBJECT_ID_LENGTH);
+            newSnapshot.times[index] = times.get(i);
+            newSnapshot.authors[index] = authors.get(i);
+            newSnapshot.messages[index] = messages.get(i);
+
+            for(int parentIndex : parents.get(i)) {
+                newSnapshot.parents[p++] = parentIndex;
+            }
+            newSnapshot.parentStarts[index + 1] = p;
+        }
+
+        return newSnapshot;
+    }
+
+    /**
+     * Write the state file to a temporary file and then replace the state file with it
+     */
+    private void save(Snapshot snapshot) throws IOException {
+        File stateFile = new File(fFolder, STATE_FILE);
+        File tmpFile = new File(fFolder, STATE_FILE + ".tmp"); //$NON-NLS-1$
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.count);
+            out.writeInt(snapshot.names.size());
+
+            for(long length : snapshot.lengths) {
+                out.writeLong(length);
+            }
+
+            out.writeInt(snapshot.tips.size());
+            for(ObjectId tip : snapshot.tips) {
+                tip.copyRawTo(out);
+            }
+        }
+
+        Files.move(tmpFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        snapshot.stateModified = stateFile.lastModified();
+        snapshot.stateSize = stateFile.length();
+    }
+}
@@ -5,14 +5,20 @@
  */
 package org.archicontribs.modelrepository.grafico;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
@@ -32,6 +38,9 @@ import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.emf.ecore.xmi.XMLResource;
 import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.swt.custom.BusyIndicator;
 import org.eclipse.swt.widgets.Display;
 
@@ -39,6 +48,7 @@ import com.archimatetool.editor.model.IArchiveManager;
 import com.archimatetool.editor.utils.FileUtils;
 import com.archimatetool.model.FolderType;
 import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimatePackage;
 import com.archimatetool.model.IDiagramModelImageProvider;
 import com.archimatetool.model.IFolder;
 import com.archimatetool.model.IFolderContainer;
@@ -81,6 +91,46 @@ public class GraficoModelExporter {
      */
     private File fLocalRepoFolder;
     
+    /**
+     * If true only new or changed files are written and only files of removed objects are deleted
+     */
+    private boolean fIncremental;
+    
+    /**
+     * If true files are written with a GraficoXMLWriter instead of EMF's XMLSave
+     */
+    private boolean fUseStreamingWriter;
+    
+    /**
+     * One GraficoXMLWriter per save thread as each one reuses its buffer
+     */
+    private static final ThreadLocal<GraficoXMLWriter> WRITER = new ThreadLocal<GraficoXMLWriter>() {
+        @Override
+        protected GraficoXMLWriter initialValue() {
+            return new GraficoXMLWriter();
+        }
+    };
+    
+    /**
+     * Resource -> target file
+     */
+    private Map<Resource, File> fResourceFiles;
+    
+    /**
+     * Files that were written and files that were deleted in the last export
+     */
+    private List<File> fWrittenFiles, fDeletedFiles;
+    
+    /**
+     * If set, files are inserted as blobs instead of being written to disk
+     */
+    private ObjectInserter fInserter;
+    
+    /**
+     * Path -> blob of the files inserted by the last export to Git objects
+     */
+    private Map<String, ObjectId> fBlobs;
+    
 	/**
 	 * @param model The model to export
 	 * @param folder The root folder in which to write the grafico XML files
@@ -97,37 +147,165 @@ public class GraficoModelExporter {
 	    fLocalRepoFolder = folder;
 	}
 	
+	/**
+	 * Set incremental mode.
+	 * If true, each file's serialized bytes are compared with the file already on disk and only new or changed files are written.
+	 * Files that belong to objects no longer in the model are deleted.
+	 * If false (the default) the model and images folders are deleted and every file is written.
+	 * @param incremental
+	 */
+	public void setIncremental(boolean incremental) {
+	    fIncremental = incremental;
+	}
+	
+	/**
+	 * Set whether to write files with the streaming GraficoXMLWriter.
+	 * Its output is the same as EMF's and it falls back to EMF for any object it doesn't handle.
+	 * @param useStreamingWriter
+	 */
+	public void setUseStreamingWriter(boolean useStreamingWriter) {
+	    fUseStreamingWriter = useStreamingWriter;
+	}
+	
+	/**
+	 * @return The files written in the last export
+	 */
+	public List<File> getWrittenFiles() {
+	    return fWrittenFiles;
+	}
+	
+	/**
+	 * @return The files deleted in the last export
+	 */
+	public List<File> getDeletedFiles() {
+	    return fDeletedFiles;
+	}
+	
     /**
      * Export the IArchimateModel as Grafico files
      * @throws IOException
      */
     public void exportModel() throws IOException {
+        fWrittenFiles = Collections.synchronizedList(new ArrayList<File>());
+        fDeletedFiles = new ArrayList<File>();
+        
         // Define target folders for model and images
-        // Delete them and re-create them (remark: FileUtils.deleteFolder() does sanity checks)
+        // If not incremental delete them and re-create them (remark: FileUtils.deleteFolder() does sanity checks)
         File modelFolder = new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER);
-        FileUtils.deleteFolder(modelFolder);
-        modelFolder.mkdirs();
-
         File imagesFolder = new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER);
-        FileUtils.deleteFolder(imagesFolder);
+        
+        if(!fIncremental) {
+            FileUtils.deleteFolder(modelFolder);
+            FileUtils.deleteFolder(imagesFolder);
+        }
+        
+        modelFolder.mkdirs();
         imagesFolder.mkdirs();
 
         // Save model images (if any): this has to be done on original model (not a copy)
-        saveImages();
+        saveImages(imagesFolder);
         
         // Create ResourceSet
-        fResourceSet = new ResourceSetImpl();
-        fResourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl()); //$NON-NLS-1$
-        // Add a URIConverter that will be used to map full filenames to logical names
-        fResourceSet.setURIConverter(new ExtensibleURIConverterImpl());
-        
-        // Now work on a copy
-        IArchimateModel copy = EcoreUtil.copy(fModel);
+        createResourceSet();
         
         // Create directory structure and prepare all Resources
-        createAndSaveResourceForFolder(copy, modelFolder);
+        // The Resources save the objects of the model itself so there is no need to copy it
+        createAndSaveResourceForFolder(fModel, modelFolder);
 
         // Now save all Resources
+        saveResources();
+        
+        // Delete files of objects that are no longer in the model
+        if(fIncremental) {
+            deleteUnusedFiles(modelFolder, new HashSet<File>(fResourceFiles.values()));
+        }
+    }
+    
+    /**
+     * Export the IArchimateModel as Git blobs without writing any files, for example to commit it to a bare repository.
+     * Nothing is read from or written to the folder, which is only used to resolve hrefs.
+     * 
+     * @param inserter The inserter for the blobs. The caller must flush it.
+     * @return Path of each file relative to the folder -> blob
+     * @throws IOException
+     */
+    public Map<String, ObjectId> exportModelToObjects(ObjectInserter inserter) throws IOException {
+        fWrittenFiles = Collections.synchronizedList(new ArrayList<File>());
+        fDeletedFiles = new ArrayList<File>();
+        fBlobs = Collections.synchronizedMap(new HashMap<String, ObjectId>());
+        fInserter = inserter;
+        
+        try {
+            saveImages(new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER));
+            createResourceSet();
+            createAndSaveResourceForFolder(fModel, new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER));
+            saveResources();
+        }
+        finally {
+            fInserter = null;
+        }
+        
+        return fBlobs;
+    }
+    
+    /**
+     * Export only the given objects and delete the files of removed objects.
+     * This assumes that the Grafico files on disk are otherwise in sync with the model, so it should only be used
+     * with the changes recorded by a {@link GraficoDirtyTracker} since the last full export.
+     * 
+     * @param objects Elements, folders or the model to export. Objects that are no longer in the model are ignored.
+     * @param removedPaths Paths of files or folders to delete, relative to the model folder
+     * @throws IOException
+     */
+    public void exportObjects(Collection<? extends EObject> objects, Collection<String> removedPaths) throws IOException {
+        fWrittenFiles = Collections.synchronizedList(new ArrayList<File>());
+        fDeletedFiles = new ArrayList<File>();
+        
+        File modelFolder = new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER);
+        modelFolder.mkdirs();
+        
+        File imagesFolder = new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER);
+        imagesFolder.mkdirs();
+        
+        // Delete first in case an object was removed and then added again
+        for(String path : removedPaths) {
+            deleteFileOrFolder(new File(modelFolder, path));
+        }
+        
+        createResourceSet();
+        
+        for(EObject object : objects) {
+            if(EcoreUtil.getRootContainer(object) != fModel) {
+                continue;
+            }
+            
+            File file = new File(modelFolder, getPathFor(object));
+            file.getParentFile().mkdirs();
+            createAndSaveResource(file, object);
+            
+            // New images can only come from the changed objects
+            saveImagesFor(object);
+        }
+        
+        saveResources();
+    }
+    
+    /**
+     * Create the ResourceSet used to save all Resources
+     */
+    private void createResourceSet() {
+        fResourceFiles = new HashMap<Resource, File>();
+        fResourceSet = new ResourceSetImpl();
+        fResourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl()); //$NON-NLS-1$
+        // Add a URIConverter that will be used to map full filenames to logical names
+        fResourceSet.setURIConverter(new ExtensibleURIConverterImpl());
+    }
+    
+    /**
+     * Save all Resources in the ResourceSet using a group of Jobs
+     * @throws IOException
+     */
+    private void saveResources() throws IOException {
         int maxThreads = ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getInt(IPreferenceConstants.PREFS_EXPORT_MAX_THREADS);
         JobGroup jobgroup = new JobGroup("GraficoModelExporter", maxThreads, 1); //$NON-NLS-1$
         
@@ -138,7 +316,7 @@ public class GraficoModelExporter {
                 @Override
                 protected IStatus run(IProgressMonitor monitor) {
                     try {
-                        resource.save(null);
+                        saveResource(resource);
                     }
                     catch(IOException ex) {
                         pm.catchException(ex);
@@ -168,6 +346,133 @@ public class GraficoModelExporter {
         }
     }
     
+    /**
+     * Delete a file, or a folder and all of its files
+     * @param file
+     * @throws IOException
+     */
+    private void deleteFileOrFolder(File file) throws IOException {
+        if(file.isDirectory()) {
+            File[] files = file.listFiles();
+            if(files != null) {
+                for(File child : files) {
+                    deleteFileOrFolder(child);
+                }
+            }
+            Files.delete(file.toPath());
+        }
+        else if(file.isFile()) {
+            Files.delete(file.toPath());
+            fDeletedFiles.add(file);
+        }
+    }
+    
+    /**
+     * Save a Resource to its file.
+     * In incremental mode the file is only written if its contents are different.
+     * 
+     * @param resource
+     * @throws IOException
+     */
+    private void saveResource(Resource resource) throws IOException {
+        File file = fResourceFiles.get(resource);
+        
+        if(fUseStreamingWriter) {
+            try {
+                writeFile(file, WRITER.get().write((GraficoResource)resource));
+                return;
+            }
+            catch(GraficoXMLWriter.UnsupportedContentException ex) {
+                // Not handled by the writer, so save it with EMF
+            }
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        resource.save(out, null);
+        writeFile(file, out.toByteArray());
+    }
+    
+    /**
+     * Write bytes to file.
+     * In incremental mode the file is only written if it does not exist or its contents are different.
+     * 
+     * @param file
+     * @param bytes
+     * @throws IOException
+     */
+    private void writeFile(File file, byte[] bytes) throws IOException {
+        if(fInserter != null) {
+            insertBlob(file, bytes);
+            return;
+        }
+        
+        if(fIncremental && isSameContents(file, bytes)) {
+            return;
+        }
+        
+        Files.write(file.toPath(), bytes);
+        fWrittenFiles.add(file);
+    }
+    
+    /**
+     * Insert bytes as the blob of file. Resources are saved in more than one thread so this is synchronized on the inserter.
+     * 
+     * @param file
+     * @param bytes
+     * @throws IOException
+     */
+    private void insertBlob(File file, byte[] bytes) throws IOException {
+        ObjectId blobId;
+        synchronized(fInserter) {
+            blobId = fInserter.insert(Constants.OBJ_BLOB, bytes);
+        }
+        
+        String path = fLocalRepoFolder.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+        fBlobs.put(path, blobId);
+    }
+    
+    /**
+     * @return true if file exists and has the same contents as bytes
+     */
+    private boolean isSameContents(File file, byte[] bytes) throws IOException {
+        // Compare length first as it is cheap
+        if(!file.isFile() || file.length() != bytes.length) {
+            return false;
+        }
+        
+        return Arrays.equals(bytes, Files.readAllBytes(file.toPath()));
+    }
+    
+    /**
+     * Recursively delete files in folder that are not in the set of files to keep, and then any folders left empty
+     * 
+     * @param folder
+     * @param filesToKeep
+     * @throws IOException
+     */
+    private void deleteUnusedFiles(File folder, Set<File> filesToKeep) throws IOException {
+        File[] files = folder.listFiles();
+        if(files == null) {
+            return;
+        }
+        
+        for(File file : files) {
+            if(file.isDirectory()) {
+                deleteUnusedFiles(file, filesToKeep);
+                
+                // Folder is now empty
+                String[] children = file.list();
+                if(children != null && children.length == 0) {
+                    Files.delete(file.toPath());
+                }
+            }
+            else if(!filesToKeep.contains(file)) {
+                Files.delete(file.toPath());
+                fDeletedFiles.add(file);
+            }
+        }
+    }
+    
     /**
      * For each folder inside model, create a directory and a Resource to save it.
      * For each element, create a Resource to save it
@@ -178,12 +483,11 @@ public class GraficoModelExporter {
      */
     private void createAndSaveResourceForFolder(IFolderContainer folderContainer, File folder) throws IOException {
         // Save each children folders
-        List<IFolder> allFolders = new ArrayList<IFolder>();
-        allFolders.addAll(folderContainer.getFolders());
-        
-        for(IFolder tmpFolder : allFolders) {
+        for(IFolder tmpFolder : folderContainer.getFolders()) {
             File tmpFolderFile = new File(folder, getNameFor(tmpFolder));
-            tmpFolderFile.mkdirs();
+            if(fInserter == null) {
+                tmpFolderFile.mkdirs();
+            }
             createAndSaveResource(new File(tmpFolderFile, IGraficoConstants.FOLDER_XML), tmpFolder);
             createAndSaveResourceForFolder(tmpFolder, tmpFolderFile);
         }
@@ -191,12 +495,8 @@ public class GraficoModelExporter {
         // Save each children elements
         if(folderContainer instanceof IFolder) {
             // Save each children element
-            List<EObject> allElements = new ArrayList<EObject>();
-            allElements.addAll(((IFolder)folderContainer).getElements());
-            for(EObject tmpElement : allElements) {
-                createAndSaveResource(
-                        new File(folder, tmpElement.getClass().getSimpleName() + "_" + ((IIdentifier)tmpElement).getId() + ".xml"), //$NON-NLS-1$ //$NON-NLS-2$
-                        tmpElement);
+            for(EObject tmpElement : ((IFolder)folderContainer).getElements()) {
+                createAndSaveResource(new File(folder, getFileNameFor(tmpElement)), tmpElement);
             }
         }
         if(folderContainer instanceof IArchimateModel) {
@@ -210,10 +510,61 @@ public class GraficoModelExporter {
      * @param folder
      * @return
      */
-    private String getNameFor(IFolder folder) {
+    static String getNameFor(IFolder folder) {
     	return folder.getType() == FolderType.USER ? folder.getId().toString() : folder.getType().toString();
     }
     
+    /**
+     * @param element
+     * @return The file name used to save an element
+     */
+    static String getFileNameFor(EObject element) {
+        return element.getClass().getSimpleName() + "_" + ((IIdentifier)element).getId() + ".xml"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    
+    /**
+     * @param folderContainer Model or folder
+     * @return The path of the directory for the model or folder, relative to the model folder
+     */
+    static String getFolderPathFor(IFolderContainer folderContainer) {
+        if(folderContainer instanceof IFolder) {
+            IFolder folder = (IFolder)folderContainer;
+            String parentPath = getFolderPathFor((IFolderContainer)folder.eContainer());
+            return parentPath.length() == 0 ? getNameFor(folder) : parentPath + "/" + getNameFor(folder); //$NON-NLS-1$
+        }
+        
+        return ""; //$NON-NLS-1$
+    }
+    
+    /**
+     * @param object Model, folder or element in a folder
+     * @return The path of the file used to save the object, relative to the model folder
+     */
+    static String getPathFor(EObject object) {
+        if(object instanceof IFolderContainer) {
+            String folderPath = getFolderPathFor((IFolderContainer)object);
+            return folderPath.length() == 0 ? IGraficoConstants.FOLDER_XML : folderPath + "/" + IGraficoConstants.FOLDER_XML; //$NON-NLS-1$
+        }
+        
+        String folderPath = getFolderPathFor((IFolderContainer)object.eContainer());
+        return folderPath.length() == 0 ? getFileNameFor(object) : folderPath + "/" + getFileNameFor(object); //$NON-NLS-1$
+    }
+    
+    /**
+     * @param eObject
+     * @return The model, folder or folder element that is saved in the Grafico file that contains eObject, or null
+     */
+    static EObject getFileOwner(EObject eObject) {
+        while(eObject != null) {
+            if(eObject instanceof IFolderContainer || eObject.eContainingFeature() == IArchimatePackage.Literals.FOLDER__ELEMENTS) {
+                return eObject;
+            }
+            eObject = eObject.eContainer();
+        }
+        
+        return null;
+    }
+    
     /**
      * Save the model to Resource
      * 
@@ -224,12 +575,13 @@ public class GraficoModelExporter {
     private void createAndSaveResource(File file, EObject object) throws IOException {
     	// Update the URIConverter
         // Map the logical name (filename) to the physical name (path+filename)
-        URI key = file.getName().equals(IGraficoConstants.FOLDER_XML) ? URI.createFileURI(file.getAbsolutePath()) : URI.createFileURI(file.getName());
+        URI key = GraficoResource.createURI(file);
         URI value = URI.createFileURI(file.getAbsolutePath());
         fResourceSet.getURIConverter().getURIMap().put(key, value);
 
-        // Create a new resource for selected file and add object to persist
-        XMLResource resource = (XMLResource)fResourceSet.createResource(key);
+        // Create a new resource for selected file that saves the object without it being added to the resource
+        XMLResource resource = new GraficoResource(key, object, new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER));
+        fResourceSet.getResources().add(resource);
         
         // Use UTF-8 and don't start with an XML declaration
         resource.getDefaultSaveOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
@@ -248,38 +600,69 @@ public class GraficoModelExporter {
         // Use UNIX line endings to avoid EOL diffs
         resource.getDefaultSaveOptions().put(Resource.OPTION_LINE_DELIMITER, "\n"); //$NON-NLS-1$
 
-        // Add the object to the resource
-        resource.getContents().add(object);
+        fResourceFiles.put(resource, file);
     }
     
     /**
      * Extract and save images used inside a model
      * 
-     * @param model
      * @param folder
      * @throws IOException
      */
-    private void saveImages() throws IOException {
-        List<String> added = new ArrayList<String>();
+    private void saveImages(File folder) throws IOException {
+        Set<File> added = new HashSet<File>();
 
-        IArchiveManager archiveManager = (IArchiveManager)fModel.getAdapter(IArchiveManager.class);
-        if(archiveManager == null) {
-            archiveManager = IArchiveManager.FACTORY.createArchiveManager(fModel);
-        }
+        IArchiveManager archiveManager = getArchiveManager();
         
-        byte[] bytes;
-
         for(Iterator<EObject> iter = fModel.eAllContents(); iter.hasNext();) {
-            EObject eObject = iter.next();
-            if(eObject instanceof IDiagramModelImageProvider) {
-                IDiagramModelImageProvider imageProvider = (IDiagramModelImageProvider)eObject;
-                String imagePath = imageProvider.getImagePath();
-                if(imagePath != null && !added.contains(imagePath)) {
-                    bytes = archiveManager.getBytesFromEntry(imagePath);
-                    Files.write(Paths.get(fLocalRepoFolder.getAbsolutePath() + File.separator + imagePath), bytes, StandardOpenOption.CREATE);
-                    added.add(imagePath);
+            saveImage(iter.next(), archiveManager, added);
+        }
+        
+        // Delete images that are no longer used
+        if(fIncremental && fInserter == null) {
+            deleteUnusedFiles(folder, added);
+        }
+    }
+    
+    /**
+     * Save images used by an object and its children
+     * 
+     * @param object
+     * @throws IOException
+     */
+    private void saveImagesFor(EObject object) throws IOException {
+        Set<File> added = new HashSet<File>();
+        
+        IArchiveManager archiveManager = getArchiveManager();
+        
+        saveImage(object, archiveManager, added);
+        for(Iterator<EObject> iter = object.eAllContents(); iter.hasNext();) {
+            saveImage(iter.next(), archiveManager, added);
+        }
+    }
+    
+    private void saveImage(EObject eObject, IArchiveManager archiveManager, Set<File> added) throws IOException {
+        if(eObject instanceof IDiagramModelImageProvider) {
+            IDiagramModelImageProvider imageProvider = (IDiagramModelImageProvider)eObject;
+            String imagePath = imageProvider.getImagePath();
+            if(imagePath != null) {
+                File file = new File(fLocalRepoFolder, imagePath);
+                if(!added.contains(file)) {
+                    byte[] bytes = archiveManager.getBytesFromEntry(imagePath);
+                    if(bytes != null) {
+                        writeFile(file, bytes);
+                        added.add(file);
+                    }
                 }
             }
         }
     }
+    
+    private IArchiveManager getArchiveManager() {
+        IArchiveManager archiveManager = (IArchiveManager)fModel.getAdapter(IArchiveManager.class);
+        if(archiveManager == null) {
+            archiveManager = IArchiveManager.FACTORY.createArchiveManager(fModel);
+        }
+        return archiveManager;
+    }
 }
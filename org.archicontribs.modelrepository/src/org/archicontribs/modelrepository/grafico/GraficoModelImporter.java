@@ -7,20 +7,22 @@ package org.archicontribs.modelrepository.grafico;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
-import org.eclipse.emf.ecore.resource.ResourceSet;
-import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
 import org.eclipse.emf.ecore.util.EcoreUtil;
-import org.eclipse.emf.ecore.xmi.XMLResource;
-import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Repository;
 
 import com.archimatetool.editor.model.IArchiveManager;
 import com.archimatetool.model.FolderType;
@@ -33,6 +35,7 @@ import com.archimatetool.model.IDiagramModelArchimateConnection;
 import com.archimatetool.model.IDiagramModelArchimateObject;
 import com.archimatetool.model.IDiagramModelReference;
 import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
 import com.archimatetool.model.IIdentifier;
 
 
@@ -42,12 +45,72 @@ import com.archimatetool.model.IIdentifier;
  * GRAFICO (Git fRiendly Archi FIle COllection) is a way to persist an ArchiMate
  * model in a bunch of XML files (one file per ArchiMate element or view).
  * 
+ * Folders and element files are loaded in parallel on a fork/join pool. Each file is read straight into model objects
+ * with a GraficoXMLReader, without an EMF Resource, and the loaded objects are added to their parent folders in file name order so that the result doesn't depend on
+ * the order of the tasks or of the file system.
+ * 
  * @author Jean-Baptiste Sarrodie
  * @author Quentin Varquet
  * @author Phillip Beauvoir
  */
 public class GraficoModelImporter {
     
+    /**
+     * Element files in one folder are split into tasks of at most this size
+     */
+    static final int ELEMENTS_PER_TASK = 64;
+    
+    /**
+     * Load a folder with its sub-folders and elements
+     */
+    @SuppressWarnings("serial")
+    class LoadFolderTask extends RecursiveTask<IFolder> {
+        private String folder;
+        
+        LoadFolderTask(String folder) {
+            this.folder = folder;
+        }
+        
+        @Override
+        protected IFolder compute() {
+            try {
+                return loadFolder(folder);
+            }
+            catch(IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+    
+    /**
+     * Load a range of element files
+     */
+    @SuppressWarnings("serial")
+    class LoadElementsTask extends RecursiveTask<List<EObject>> {
+        private List<String> files;
+        
+        LoadElementsTask(List<String> files) {
+            this.files = files;
+        }
+        
+        @Override
+        protected List<EObject> compute() {
+            if(files.size() <= ELEMENTS_PER_TASK) {
+                return loadElements(files);
+            }
+            
+            int middle = files.size() / 2;
+            LoadElementsTask first = new LoadElementsTask(files.subList(0, middle));
+            LoadElementsTask second = new LoadElementsTask(files.subList(middle, files.size()));
+            invokeAll(first, second);
+            
+            List<EObject> elements = new ArrayList<EObject>(files.size());
+            elements.addAll(first.join());
+            elements.addAll(second.join());
+            return elements;
+        }
+    }
+    
     /**
      * Unresolved missing object class
      * 
@@ -63,7 +126,7 @@ public class GraficoModelImporter {
         }
     }
     
-	// ID -> Object lookup table
+	// ID -> Object lookup table. Written to by all loading tasks
     private Map<String, IIdentifier> fIDLookup;
     
     /**
@@ -71,20 +134,15 @@ public class GraficoModelImporter {
      */
     private List<UnresolvedObject> fUnresolvedObjects;
     
-    /**
-     * Resource Set
-     */
-    private ResourceSet fResourceSet;
-    
     /**
      * Model
      */
     private IArchimateModel fModel;
     
     /**
-     * Local repo folder
+     * Where the files are read from
      */
-    private File fLocalRepoFolder;
+    private GraficoSource fSource;
     
     /**
      * @param folder The folder containing the grafico XML files
@@ -94,7 +152,23 @@ public class GraficoModelImporter {
             throw new IllegalArgumentException("Folder cannot be null"); //$NON-NLS-1$
         }
         
-        fLocalRepoFolder = folder;
+        fSource = new GraficoSource.FolderSource(folder);
+    }
+    
+    /**
+     * Import the grafico XML files from a tree in a Git repository without checking them out
+     * @param repository The repository. This has to stay open until the model is imported.
+     * @param treeId The tree, or the commit, containing the grafico XML files
+     */
+    public GraficoModelImporter(Repository repository, AnyObjectId treeId) {
+        if(repository == null) {
+            throw new IllegalArgumentException("Repository cannot be null"); //$NON-NLS-1$
+        }
+        if(treeId == null) {
+            throw new IllegalArgumentException("Tree cannot be null"); //$NON-NLS-1$
+        }
+        
+        fSource = new GraficoSource.TreeSource(repository, treeId);
     }
 	
     /**
@@ -102,37 +176,25 @@ public class GraficoModelImporter {
      * @throws IOException
      */
     public IArchimateModel importAsModel() throws IOException {
-    	// Create folders for model and images
-    	File modelFolder = new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER);
-        modelFolder.mkdirs();
-
-        File imagesFolder = new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER);
-    	imagesFolder.mkdirs();
-    	
+        fSource.open();
+        
     	// If the top folder.xml does not exist then there is nothing to import, so return null
-    	if(!(new File(modelFolder, IGraficoConstants.FOLDER_XML)).isFile()) {
+    	if(!fSource.isFile(IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML)) { //$NON-NLS-1$
     	    return null;
     	}
     	
-    	// Create ResourceSet
-    	fResourceSet = new ResourceSetImpl();
-    	fResourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl()); //$NON-NLS-1$
-    	
     	// Reset the ID -> Object lookup table
-    	fIDLookup = new HashMap<String, IIdentifier>();
+    	fIDLookup = new ConcurrentHashMap<String, IIdentifier>();
     	
         // Load the Model from files (it will contain unresolved proxies)
-    	fModel = loadModel(modelFolder);
-    	
-    	// Remove model from its resource (needed to save it back to a .archimate file)
-    	fResourceSet.getResource(URI.createFileURI((new File(modelFolder, IGraficoConstants.FOLDER_XML)).getAbsolutePath()), true).getContents().remove(fModel);
+    	fModel = loadModel(IGraficoConstants.MODEL_FOLDER);
     	
     	// Resolve proxies
     	fUnresolvedObjects = null;
     	resolveProxies();
 
     	// Load images
-    	loadImages(imagesFolder);
+    	loadImages(IGraficoConstants.IMAGES_FOLDER);
 
     	return fModel;
     }
@@ -144,6 +206,47 @@ public class GraficoModelImporter {
         return fUnresolvedObjects;
     }
     
+    /**
+     * Add objects that were restored from the history to the imported model and resolve proxies again.
+     * Each object is added to the folder of its file's path, or to the default folder for the object
+     * if that folder is not in the model.
+     * 
+     * @param objects The path of each object's file, relative to the repository folder, and the object
+     */
+    void addRestoredObjects(Map<String, IIdentifier> objects) {
+        for(Map.Entry<String, IIdentifier> entry : objects.entrySet()) {
+            IIdentifier object = entry.getValue();
+            fIDLookup.put(object.getId(), object);
+            getFolderForPath(entry.getKey(), object).getElements().add(object);
+        }
+        
+        // Only objects that are still proxies are resolved
+        fUnresolvedObjects = null;
+        resolveProxies();
+    }
+    
+    /**
+     * @return The folder in the model for the path of an element's file
+     */
+    private IFolder getFolderForPath(String path, EObject object) {
+        String[] segments = path.split("/"); //$NON-NLS-1$
+        IFolderContainer container = fModel;
+        
+        // The first segment is the model folder and the last one is the file name
+        for(int i = 1; i < segments.length - 1 && container != null; i++) {
+            IFolderContainer child = null;
+            for(IFolder folder : container.getFolders()) {
+                if(GraficoModelExporter.getNameFor(folder).equals(segments[i])) {
+                    child = folder;
+                    break;
+                }
+            }
+            container = child;
+        }
+        
+        return container instanceof IFolder ? (IFolder)container : fModel.getDefaultFolderForObject(object);
+    }
+    
     /**
      * Read images from images subfolder and load them into the model
      * 
@@ -151,17 +254,18 @@ public class GraficoModelImporter {
      * @param folder
      * @throws IOException
      */
-    private void loadImages(File folder) throws IOException {
+    private void loadImages(String folder) throws IOException {
         IArchiveManager archiveManager = IArchiveManager.FACTORY.createArchiveManager(fModel);
         byte[] bytes;
 
         // Add all images files
-        for(File imageFile : folder.listFiles()) {
-            if(imageFile.isFile()) {
-                bytes = Files.readAllBytes(imageFile.toPath());
+        for(String name : fSource.list(folder)) {
+            String path = folder + "/" + name; //$NON-NLS-1$
+            if(fSource.isFile(path)) {
+                bytes = fSource.readBytes(path);
                 // /!\ This must match the prefix used in
                 // ArchiveManager.createArchiveImagePathname
-                archiveManager.addByteContentEntry("images/" + imageFile.getName(), bytes); //$NON-NLS-1$
+                archiveManager.addByteContentEntry("images/" + name, bytes); //$NON-NLS-1$
             }
         }
     }    
@@ -182,16 +286,22 @@ public class GraficoModelImporter {
             else if(eObject instanceof IDiagramModelArchimateObject) {
                 // Resolve proxies for Elements
                 IDiagramModelArchimateObject element = (IDiagramModelArchimateObject)eObject;
-                element.setArchimateElement((IArchimateElement)resolve(element.getArchimateElement(), element));
-                // Update cross-references
-                element.getArchimateElement().getReferencingDiagramObjects().add(element);
+                IArchimateElement archimateElement = (IArchimateElement)resolve(element.getArchimateElement(), element);
+                if(archimateElement != element.getArchimateElement()) {
+                    element.setArchimateElement(archimateElement);
+                    // Update cross-references
+                    archimateElement.getReferencingDiagramObjects().add(element);
+                }
             }
             else if(eObject instanceof IDiagramModelArchimateConnection) {
                 // Resolve proxies for Connections
                 IDiagramModelArchimateConnection archiConnection = (IDiagramModelArchimateConnection)eObject;
-                archiConnection.setArchimateRelationship((IArchimateRelationship)resolve(archiConnection.getArchimateRelationship(), archiConnection));
-                // Update cross-reference
-                archiConnection.getArchimateRelationship().getReferencingDiagramConnections().add(archiConnection);
+                IArchimateRelationship relationship = (IArchimateRelationship)resolve(archiConnection.getArchimateRelationship(), archiConnection);
+                if(relationship != archiConnection.getArchimateRelationship()) {
+                    archiConnection.setArchimateRelationship(relationship);
+                    // Update cross-reference
+                    relationship.getReferencingDiagramConnections().add(archiConnection);
+                }
             }
             else if(eObject instanceof IDiagramModelReference) {
                 // Resolve proxies for Model References
@@ -228,9 +338,15 @@ public class GraficoModelImporter {
         }
     }
     
-	private IArchimateModel loadModel(File folder) throws IOException {
-		IArchimateModel model = (IArchimateModel)loadElement(new File(folder, IGraficoConstants.FOLDER_XML));
-		IFolder tmpFolder;
+	private IArchimateModel loadModel(String folder) throws IOException {
+	    // Load the model on this thread first so that the EPackage is registered before loading in parallel
+	    IArchimateModel model;
+	    try {
+	        model = (IArchimateModel)loadElements(Collections.singletonList(folder + "/" + IGraficoConstants.FOLDER_XML)).get(0); //$NON-NLS-1$
+	    }
+	    catch(UncheckedIOException ex) {
+	        throw ex.getCause();
+	    }
 		
 		List<FolderType> folderList = new ArrayList<FolderType>();
 		folderList.add(FolderType.STRATEGY);
@@ -243,11 +359,34 @@ public class GraficoModelImporter {
 		folderList.add(FolderType.RELATIONS);
 		folderList.add(FolderType.DIAGRAMS);
 
-		// Loop based on FolderType enumeration
+		// Load top folders in parallel, then add them in FolderType order
+		final List<LoadFolderTask> tasks = new ArrayList<LoadFolderTask>();
 		for(FolderType folderType : folderList) {
-		    if((tmpFolder = loadFolder(new File(folder, folderType.toString()))) != null) {
-		        model.getFolders().add(tmpFolder);
-		    }
+		    tasks.add(new LoadFolderTask(folder + "/" + folderType.toString())); //$NON-NLS-1$
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		
+		try {
+		    pool.invoke(new RecursiveTask<Void>() {
+		        private static final long serialVersionUID = 1L;
+
+		        @Override
+		        protected Void compute() {
+		            invokeAll(tasks);
+		            return null;
+		        }
+		    });
+		}
+		catch(UncheckedIOException ex) {
+		    throw ex.getCause();
+		}
+		finally {
+		    pool.shutdown();
+		}
+		
+		for(LoadFolderTask task : tasks) {
+		    model.getFolders().add(task.join());
 		}
 		
 		return model;
@@ -260,45 +399,70 @@ public class GraficoModelImporter {
 	 * @return Model folder
 	 * @throws IOException 
 	 */
-    private IFolder loadFolder(File folder) throws IOException {
-        if(!folder.isDirectory() || !(new File(folder, IGraficoConstants.FOLDER_XML)).isFile()) {
+    private IFolder loadFolder(String folder) throws IOException {
+        String folderXML = folder + "/" + IGraficoConstants.FOLDER_XML; //$NON-NLS-1$
+        
+        if(!fSource.isFolder(folder) || !fSource.isFile(folderXML)) {
             throw new IOException("File is not directory or folder.xml does not exist."); //$NON-NLS-1$
         }
 
         // Load folder object itself
-        IFolder currentFolder = (IFolder)loadElement(new File(folder, IGraficoConstants.FOLDER_XML));
-
-        // Load each elements (except folder.xml) and add them to folder
-        for(File fileOrFolder : folder.listFiles()) {
-            if(!fileOrFolder.getName().equals(IGraficoConstants.FOLDER_XML)) {
-                if(fileOrFolder.isFile()) {
-                    currentFolder.getElements().add(loadElement(fileOrFolder));
+        IFolder currentFolder = (IFolder)loadElements(Collections.singletonList(folderXML)).get(0);
+        
+        // Split into element files (except folder.xml) and sub-folders, sorted by name
+        List<String> elementFiles = new ArrayList<String>();
+        List<LoadFolderTask> folderTasks = new ArrayList<LoadFolderTask>();
+        
+        for(String name : fSource.list(folder)) {
+            if(!name.equals(IGraficoConstants.FOLDER_XML)) {
+                String path = folder + "/" + name; //$NON-NLS-1$
+                if(fSource.isFile(path)) {
+                    elementFiles.add(path);
                 }
                 else {
-                    currentFolder.getFolders().add(loadFolder(fileOrFolder));
+                    folderTasks.add(new LoadFolderTask(path));
                 }
             }
         }
+        
+        // Load them all in parallel
+        LoadElementsTask elementsTask = new LoadElementsTask(elementFiles);
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(folderTasks);
+        tasks.add(elementsTask);
+        ForkJoinTask.invokeAll(tasks);
+
+        // And add them to the folder in file name order
+        currentFolder.getElements().addAll(elementsTask.join());
+        
+        for(LoadFolderTask task : folderTasks) {
+            currentFolder.getFolders().add(task.join());
+        }
 
         return currentFolder;
     }
 
     /**
-     * Create an eObject from an XML file. Basically load a resource.
+     * Create eObjects from XML files
      * 
-     * @param file
+     * @param paths
      * @return
      */
-    private EObject loadElement(File file) {
-        // Create a new resource for selected file and add object to persist
-        XMLResource resource = (XMLResource)fResourceSet.getResource(URI.createFileURI(file.getAbsolutePath()), true);
-        resource.getDefaultLoadOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
+    private List<EObject> loadElements(List<String> paths) {
+        // Read the files into new objects, not contained in a Resource
+        List<EObject> elements;
         
-        IIdentifier element = (IIdentifier)resource.getContents().get(0);
+        try {
+            elements = fSource.read(paths);
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
 
         // Update an ID -> Object mapping table (used as a cache to resolve proxies)
-        fIDLookup.put(element.getId(), element);
+        for(EObject element : elements) {
+            fIDLookup.put(((IIdentifier)element).getId(), (IIdentifier)element);
+        }
 
-        return element;
+        return elements;
     }
 }
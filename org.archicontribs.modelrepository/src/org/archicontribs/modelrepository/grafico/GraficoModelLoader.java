@@ -6,22 +6,30 @@
 package org.archicontribs.modelrepository.grafico;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import org.archicontribs.modelrepository.grafico.GraficoModelImporter.UnresolvedObject;
+import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.util.EcoreUtil;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.IEditorReference;
 import org.eclipse.ui.PartInitException;
@@ -58,6 +66,12 @@ public class GraficoModelLoader {
      * @throws IOException
      */
     public IArchimateModel loadModel() throws IOException {
+        try(RepositoryMetrics.Timer timer = RepositoryMetrics.INSTANCE.start(fRepository, RepositoryMetrics.IMPORT)) {
+            return doLoadModel();
+        }
+    }
+    
+    private IArchimateModel doLoadModel() throws IOException {
         fRestoredObjects = null;
         
         GraficoModelImporter importer = new GraficoModelImporter(fRepository.getLocalRepositoryFolder());
@@ -83,7 +97,7 @@ public class GraficoModelLoader {
         // Resolve missing objects
         List<UnresolvedObject> unresolvedObjects = importer.getUnresolvedObjects();
         if(unresolvedObjects != null) {
-            graficoModel = restoreProblemObjects(unresolvedObjects);
+            restoreProblemObjects(importer);
         }
         
         // Open it with the new grafico model, this will do the necessary checks and add a command stack and an archive manager
@@ -120,90 +134,151 @@ public class GraficoModelLoader {
     }
     
     /**
-     * Find the problem object xml files from the commit history and restore them
-     * @param unresolvedObjects 
-     * @return
+     * Find the problem objects in the commit history and add them to the imported model.
+     * Restored objects can refer to other missing objects so this is repeated until nothing more can be found.
+     * @param importer The importer that loaded the model
      * @throws IOException
      */
-    private IArchimateModel restoreProblemObjects(List<UnresolvedObject> unresolvedObjects) throws IOException {
+    void restoreProblemObjects(GraficoModelImporter importer) throws IOException {
         fRestoredObjects = new ArrayList<IIdentifier>();
         
-        List<String> restoredIdentifiers = new ArrayList<String>();
+        // IDs that have been looked for
+        Set<String> triedIdentifiers = new HashSet<String>();
         
-        try(Repository repository = Git.open(fRepository.getLocalRepositoryFolder()).getRepository()) {
-            try(RevWalk revWalk = new RevWalk(repository)) {
+        try(Repository repository = fRepository.openRepository()) {
+            GraficoObjectIndex index = new GraficoObjectIndex(repository);
+            index.update();
+            
+            List<UnresolvedObject> unresolvedObjects = importer.getUnresolvedObjects();
+            
+            while(unresolvedObjects != null) {
+                // Missing object ID -> file name
+                Map<String, String> missingObjects = new HashMap<String, String>();
                 for(UnresolvedObject unresolved : unresolvedObjects) {
-                    String missingFileName = unresolved.missingObjectURI.lastSegment();
                     String missingObjectID = unresolved.missingObjectURI.fragment();
-                    
-                    // Already got this one
-                    if(restoredIdentifiers.contains(missingObjectID)) {
-                        continue;
-                    }
-                    
-                    boolean found = false;
-                    
-                    // Reset RevWalk
-                    revWalk.reset();
-                    ObjectId id = repository.resolve(IGraficoConstants.REFS_HEADS_MASTER);
-                    if(id != null) {
-                        revWalk.markStart(revWalk.parseCommit(id)); 
-                    }
-                    
-                    // Iterate all commits
-                    for(RevCommit commit : revWalk ) {
-                        try(TreeWalk treeWalk = new TreeWalk(repository)) {
-                            treeWalk.addTree(commit.getTree());
-                            treeWalk.setRecursive(true);
-                            
-                            // Iterate through all files
-                            // We can't use a PathFilter for the file name as its path is not correct
-                            while(!found && treeWalk.next()) {
-                                // File is found
-                                if(treeWalk.getPathString().endsWith(missingFileName)) {
-                                    // Save file
-                                    ObjectId objectId = treeWalk.getObjectId(0);
-                                    ObjectLoader loader = repository.open(objectId);
-
-                                    File file = new File(fRepository.getLocalRepositoryFolder(), treeWalk.getPathString());
-                                    file.getParentFile().mkdirs();
-                                    
-                                    try(FileOutputStream out = new FileOutputStream(file)) {
-                                        loader.copyTo(out);
-                                    }
-                                    
-                                    restoredIdentifiers.add(missingObjectID);
-                                    found = true;
-                                }
-                            }
-                        }
-                        
-                        if(found) {
-                            break;
-                        }
+                    if(triedIdentifiers.add(missingObjectID)) {
+                        missingObjects.put(missingObjectID, unresolved.missingObjectURI.lastSegment());
                     }
                 }
                 
-                revWalk.dispose();
+                if(missingObjects.isEmpty()) {
+                    break;
+                }
+                
+                Map<String, IIdentifier> restoredObjects = findObjects(repository, index, missingObjects);
+                if(restoredObjects.isEmpty()) {
+                    break;
+                }
+                
+                // Add them to the model and resolve again
+                importer.addRestoredObjects(restoredObjects);
+                fRestoredObjects.addAll(restoredObjects.values());
+                
+                unresolvedObjects = importer.getUnresolvedObjects();
             }
         }
+    }
+    
+    /**
+     * Find the files of missing objects, first in the object index and then in one walk of the history of master
+     * for any that are not in the index, stopping as soon as all of them are found
+     * @param missingObjects Missing object ID -> file name
+     * @return The path of each found object's file -> object read from that file
+     */
+    private Map<String, IIdentifier> findObjects(Repository repository, GraficoObjectIndex index, Map<String, String> missingObjects) throws IOException {
+        // File path -> blob
+        Map<String, ObjectId> foundFiles = new HashMap<String, ObjectId>();
         
-        // Then re-import
-        GraficoModelImporter importer = new GraficoModelImporter(fRepository.getLocalRepositoryFolder());
-        IArchimateModel graficoModel = importer.importAsModel();
-        graficoModel.setFile(fRepository.getTempModelFile()); // do this again
+        // File names not in the index
+        Set<String> missingFileNames = new HashSet<String>();
         
-        // Collect restored objects
-        for(Iterator<EObject> iter = graficoModel.eAllContents(); iter.hasNext();) {
-            EObject element = iter.next();
-            for(String id : restoredIdentifiers) {
-                if(element instanceof IIdentifier && id.equals(((IIdentifier)element).getId())) {
-                    fRestoredObjects.add((IIdentifier)element);
+        for(Entry<String, String> missing : missingObjects.entrySet()) {
+            GraficoObjectIndex.Entry entry = index.get(missing.getKey());
+            if(entry != null && repository.hasObject(entry.getBlobId())) {
+                foundFiles.put(entry.getPath(), entry.getBlobId());
+            }
+            else {
+                missingFileNames.add(missing.getValue());
+            }
+        }
+        
+        if(!missingFileNames.isEmpty()) {
+            findFilesInHistory(repository, missingFileNames, foundFiles);
+        }
+        
+        // Read the objects
+        Map<String, IIdentifier> objects = new LinkedHashMap<String, IIdentifier>();
+        
+        for(Entry<String, ObjectId> file : foundFiles.entrySet()) {
+            URI uri = URI.createFileURI(new File(fRepository.getLocalRepositoryFolder(), file.getKey()).getAbsolutePath());
+            try(InputStream in = repository.open(file.getValue()).openStream()) {
+                objects.put(file.getKey(), (IIdentifier)new GraficoXMLReader().read(in, uri));
+            }
+        }
+        
+        return objects;
+    }
+    
+    /**
+     * Walk the commits of master, newest first, for the latest version of each file name
+     * @param fileNames File names to look for. Found names are removed.
+     * @param foundFiles Found file paths and blobs are added to this
+     */
+    private void findFilesInHistory(Repository repository, Set<String> fileNames, Map<String, ObjectId> foundFiles) throws IOException {
+        ObjectId id = repository.resolve(IGraficoConstants.REFS_HEADS_MASTER);
+        if(id == null) {
+            return;
+        }
+        
+        try(RevWalk revWalk = new RevWalk(repository)) {
+            revWalk.markStart(revWalk.parseCommit(id));
+            
+            try(TreeWalk treeWalk = new TreeWalk(repository)) {
+                treeWalk.setRecursive(true);
+                
+                // We can't use a PathFilter for the file name as its path is not correct
+                treeWalk.setFilter(AndTreeFilter.create(PathFilter.create(IGraficoConstants.MODEL_FOLDER), new FileNameFilter(fileNames)));
+                
+                // Iterate commits until all files are found
+                for(Iterator<RevCommit> iter = revWalk.iterator(); iter.hasNext() && !fileNames.isEmpty();) {
+                    treeWalk.reset(iter.next().getTree());
+                    
+                    while(treeWalk.next()) {
+                        if(fileNames.remove(treeWalk.getNameString())) {
+                            foundFiles.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+                        }
+                    }
                 }
             }
+            
+            revWalk.dispose();
         }
+    }
+    
+    /**
+     * Includes files with one of a set of names, and all folders so that they are walked
+     */
+    static class FileNameFilter extends TreeFilter {
+        private Set<String> fileNames;
         
-        return graficoModel;
+        FileNameFilter(Set<String> fileNames) {
+            this.fileNames = fileNames;
+        }
+        
+        @Override
+        public boolean include(TreeWalk walker) {
+            return walker.isSubtree() || fileNames.contains(walker.getNameString());
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            return true;
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return this;
+        }
     }
 
     @SuppressWarnings("unused")
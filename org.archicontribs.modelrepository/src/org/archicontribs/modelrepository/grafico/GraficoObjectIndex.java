@@ -0,0 +1,293 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+
+/**
+ * Index of element IDs to the path of their Grafico file and the last commit that added or changed it,
+ * so that a missing object can be found without scanning the history.
+ *
+ * The index is kept in a file in the .git folder together with the commits it has indexed up to.
+ * {@link #update()} only looks at commits made or fetched since then.
+ */
+public class GraficoObjectIndex {
+
+    /**
+     * Name of the index file in the .git folder
+     */
+    static final String INDEX_FILE = "grafico-index"; //$NON-NLS-1$
+
+    private static final String HEADER = "grafico-index 1"; //$NON-NLS-1$
+    private static final String TIP = "tip "; //$NON-NLS-1$
+
+    /**
+     * The branches that are indexed
+     */
+    private static final String[] REFS = {
+            IGraficoConstants.REFS_HEADS_MASTER,
+            IGraficoConstants.REFS_REMOTES_ORIGIN_MASTER
+    };
+
+    /**
+     * Updating and saving the index file is done one at a time
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * Where an element's file was last seen
+     */
+    public static class Entry {
+        private String path;
+        private ObjectId commitId;
+        private ObjectId blobId;
+
+        Entry(String path, ObjectId commitId, ObjectId blobId) {
+            this.path = path;
+            this.commitId = commitId;
+            this.blobId = blobId;
+        }
+
+        /**
+         * @return The path of the file relative to the repository folder
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return The last commit that added or changed the file
+         */
+        public ObjectId getCommitId() {
+            return commitId;
+        }
+
+        /**
+         * @return The contents of the file in that commit
+         */
+        public ObjectId getBlobId() {
+            return blobId;
+        }
+    }
+
+    private Repository fRepository;
+    private File fIndexFile;
+
+    private Map<String, Entry> fEntries = new HashMap<String, Entry>();
+    private List<ObjectId> fTips = new ArrayList<ObjectId>();
+
+    /**
+     * @param repository The repository, which has to stay open while this index is used
+     */
+    public GraficoObjectIndex(Repository repository) {
+        fRepository = repository;
+        fIndexFile = new File(repository.getDirectory(), INDEX_FILE);
+    }
+
+    /**
+     * Load the index file and add any commits on master and origin/master that are not yet indexed, saving the file if it changed
+     * @throws IOException
+     */
+    public void update() throws IOException {
+        synchronized(LOCK) {
+            load();
+
+            List<ObjectId> tips = new ArrayList<ObjectId>();
+            for(String ref : REFS) {
+                ObjectId id = fRepository.resolve(ref);
+                if(id != null && !tips.contains(id)) {
+                    tips.add(id);
+                }
+            }
+
+            if(tips.equals(fTips)) {
+                return;
+            }
+
+            indexCommits(tips);
+            fTips = tips;
+            save();
+        }
+    }
+
+    /**
+     * @param id The ID of an element
+     * @return Where the element's file was last seen, or null if it is not in the index
+     */
+    public Entry get(String id) {
+        return fEntries.get(id);
+    }
+
+    /**
+     * @return The number of elements in the index
+     */
+    public int size() {
+        return fEntries.size();
+    }
+
+    /**
+     * @param fileName The name of a Grafico file
+     * @return The element ID from a file name such as "BusinessActor_id-1234.xml", or null if it is not an element file
+     */
+    static String getIDFromFileName(String fileName) {
+        int start = fileName.indexOf('_');
+        if(start == -1 || !fileName.endsWith(".xml")) { //$NON-NLS-1$
+            return null;
+        }
+        return fileName.substring(start + 1, fileName.length() - 4);
+    }
+
+    /**
+     * Add the changes in each new commit, oldest first so that newer commits replace older entries
+     */
+    private void indexCommits(List<ObjectId> tips) throws IOException {
+        try(RevWalk revWalk = new RevWalk(fRepository)) {
+            revWalk.sort(RevSort.TOPO, true);
+            revWalk.sort(RevSort.REVERSE, true);
+
+            for(ObjectId tip : tips) {
+                revWalk.markStart(revWalk.parseCommit(tip));
+            }
+
+            for(ObjectId tip : fTips) {
+                try {
+                    revWalk.markUninteresting(revWalk.parseCommit(tip));
+                }
+                // Commit is gone, so index again from the start of the history
+                catch(MissingObjectException ex) {
+                }
+            }
+
+            for(RevCommit commit : revWalk) {
+                indexCommit(revWalk, commit);
+            }
+        }
+    }
+
+    /**
+     * Add the element files that were added or changed in commit compared to its first parent
+     */
+    private void indexCommit(RevWalk revWalk, RevCommit commit) throws IOException {
+        try(TreeWalk treeWalk = new TreeWalk(fRepository)) {
+            if(commit.getParentCount() > 0) {
+                treeWalk.addTree(revWalk.parseCommit(commit.getParent(0)).getTree());
+            }
+            else {
+                treeWalk.addTree(new EmptyTreeIterator());
+            }
+            treeWalk.addTree(commit.getTree());
+
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(AndTreeFilter.create(PathFilter.create(IGraficoConstants.MODEL_FOLDER), TreeFilter.ANY_DIFF));
+
+            while(treeWalk.next()) {
+                // Deleted, keep the last entry
+                if(treeWalk.getFileMode(1) == FileMode.MISSING) {
+                    continue;
+                }
+
+                String id = getIDFromFileName(treeWalk.getNameString());
+                if(id != null) {
+                    fEntries.put(id, new Entry(treeWalk.getPathString(), commit.copy(), treeWalk.getObjectId(1)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the index file. If it doesn't exist or can't be read the index is empty and will be built again.
+     */
+    private void load() {
+        fEntries.clear();
+        fTips.clear();
+
+        if(!fIndexFile.isFile()) {
+            return;
+        }
+
+        try(BufferedReader reader = Files.newBufferedReader(fIndexFile.toPath(), StandardCharsets.UTF_8)) {
+            if(!HEADER.equals(reader.readLine())) {
+                throw new IOException("Unknown index format"); //$NON-NLS-1$
+            }
+
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith(TIP)) {
+                    fTips.add(ObjectId.fromString(line.substring(TIP.length())));
+                    continue;
+                }
+
+                // id TAB commit TAB blob TAB path
+                String[] fields = line.split("\t", 4); //$NON-NLS-1$
+                if(fields.length != 4) {
+                    throw new IOException("Bad line in index: " + line); //$NON-NLS-1$
+                }
+                fEntries.put(fields[0], new Entry(fields[3], ObjectId.fromString(fields[1]), ObjectId.fromString(fields[2])));
+            }
+        }
+        catch(IOException | IllegalArgumentException ex) {
+            ex.printStackTrace();
+            fEntries.clear();
+            fTips.clear();
+        }
+    }
+
+    /**
+     * Write the index to a temporary file and then replace the index file with it
+     */
+    private void save() throws IOException {
+        File tmpFile = new File(fIndexFile.getPath() + ".tmp"); //$NON-NLS-1$
+
+        try(BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.write('\n');
+
+            for(ObjectId tip : fTips) {
+                writer.write(TIP);
+                writer.write(tip.name());
+                writer.write('\n');
+            }
+
+            for(Map.Entry<String, Entry> e : fEntries.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(e.getKey());
+                writer.write('\t');
+                writer.write(entry.commitId.name());
+                writer.write('\t');
+                writer.write(entry.blobId.name());
+                writer.write('\t');
+                writer.write(entry.path);
+                writer.write('\n');
+            }
+        }
+
+        Files.move(tmpFile.toPath(), fIndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
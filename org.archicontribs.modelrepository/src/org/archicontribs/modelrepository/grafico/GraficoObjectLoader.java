@@ -0,0 +1,322 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.archicontribs.modelrepository.grafico.GraficoModelLoader.FileNameFilter;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+
+import com.archimatetool.model.IArchimateConcept;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModel;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelReference;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IIdentifier;
+
+/**
+ * Loads some of the objects in a commit's tree without importing the whole model.
+ *
+ * The given files are read, then the files of the objects that they refer to, and for relations the files of their
+ * source and target, until all references are resolved. Each round of referenced files is found with one walk of the tree.
+ * Loaded objects are indexed by ID and added to a model that is only used to hold them, so that diagrams can be drawn.
+ */
+public class GraficoObjectLoader {
+
+    private Repository fRepository;
+    private AnyObjectId fTreeId;
+
+    // ID -> loaded object
+    private Map<String, IIdentifier> fObjects = new HashMap<String, IIdentifier>();
+
+    // File names that have been read or looked for
+    private Set<String> fLoadedFileNames = new HashSet<String>();
+
+    private IArchimateModel fModel;
+    private IFolder fFolder;
+
+    /**
+     * @param repository The repository
+     * @param treeId The tree to load objects from
+     */
+    public GraficoObjectLoader(Repository repository, AnyObjectId treeId) {
+        fRepository = repository;
+        fTreeId = treeId;
+
+        fModel = IArchimateFactory.eINSTANCE.createArchimateModel();
+        fFolder = IArchimateFactory.eINSTANCE.createFolder();
+        fModel.getFolders().add(fFolder);
+    }
+
+    /**
+     * Load the objects in some files of the tree, and the objects that they refer to
+     * @param files File path -> blob of the files to load
+     * @return File path -> the object read from that file
+     * @throws IOException
+     */
+    public Map<String, EObject> load(Map<String, ObjectId> files) throws IOException {
+        Map<String, EObject> roots = new LinkedHashMap<String, EObject>();
+        List<EObject> toResolve = new ArrayList<EObject>();
+
+        try(ObjectReader reader = fRepository.newObjectReader()) {
+            for(Entry<String, ObjectId> file : files.entrySet()) {
+                EObject root = read(reader, file.getKey(), file.getValue());
+                roots.put(file.getKey(), root);
+                toResolve.add(root);
+            }
+
+            while(!toResolve.isEmpty()) {
+                List<EObject> next = new ArrayList<EObject>();
+
+                Set<String> fileNames = getMissingFileNames(toResolve);
+                if(!fileNames.isEmpty()) {
+                    for(Entry<String, ObjectId> file : findFiles(fileNames).entrySet()) {
+                        EObject eObject = read(reader, file.getKey(), file.getValue());
+
+                        // A relation needs its source and target as well
+                        if(eObject instanceof IArchimateRelationship) {
+                            next.add(eObject);
+                        }
+                    }
+                }
+
+                for(EObject eObject : toResolve) {
+                    resolveProxies(eObject);
+                }
+
+                toResolve = next;
+            }
+        }
+
+        return roots;
+    }
+
+    /**
+     * @param id The ID of an object
+     * @return The loaded object with that ID, or null
+     */
+    public IIdentifier getObject(String id) {
+        return fObjects.get(id);
+    }
+
+    /**
+     * @param path The path of a file in the tree
+     * @param blobId The file's blob
+     * @return The ID of the object in the file, from its name or else by reading it
+     * @throws IOException
+     */
+    public String getID(String path, ObjectId blobId) throws IOException {
+        String id = GraficoObjectIndex.getIDFromFileName(path.substring(path.lastIndexOf('/') + 1));
+        if(id != null) {
+            return id;
+        }
+
+        try(InputStream in = fRepository.open(blobId, Constants.OBJ_BLOB).openStream()) {
+            EObject eObject = new GraficoXMLReader().read(in, getURI(path));
+            return eObject instanceof IIdentifier ? ((IIdentifier)eObject).getId() : null;
+        }
+    }
+
+    /**
+     * Read the object in a file of the tree without loading the objects that it refers to
+     * @param path The path of the file
+     * @param blobId The file's blob
+     * @return The object read from the file. References to objects in other files are left as proxies.
+     * @throws IOException
+     */
+    public EObject read(String path, ObjectId blobId) throws IOException {
+        try(ObjectReader reader = fRepository.newObjectReader()) {
+            return read(reader, path, blobId);
+        }
+    }
+
+    private EObject read(ObjectReader reader, String path, ObjectId blobId) throws IOException {
+        EObject root;
+
+        try(InputStream in = reader.open(blobId, Constants.OBJ_BLOB).openStream()) {
+            root = new GraficoXMLReader().read(in, getURI(path));
+        }
+
+        fLoadedFileNames.add(path.substring(path.lastIndexOf('/') + 1));
+
+        if(root instanceof IIdentifier) {
+            fObjects.put(((IIdentifier)root).getId(), (IIdentifier)root);
+        }
+        for(Iterator<EObject> iter = root.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IIdentifier) {
+                fObjects.put(((IIdentifier)eObject).getId(), (IIdentifier)eObject);
+            }
+        }
+
+        // The model holding the objects
+        if(root instanceof IFolder) {
+            fModel.getFolders().add((IFolder)root);
+        }
+        else if(!(root instanceof IArchimateModel)) {
+            fFolder.getElements().add(root);
+        }
+
+        return root;
+    }
+
+    /**
+     * @return The file names of objects referred to by these objects that have not been loaded
+     */
+    private Set<String> getMissingFileNames(List<EObject> eObjects) {
+        Set<String> fileNames = new HashSet<String>();
+
+        for(EObject root : eObjects) {
+            for(EObject proxy : getProxies(root)) {
+                URI uri = EcoreUtil.getURI(proxy);
+                String fileName = uri.trimFragment().lastSegment();
+                if(!fObjects.containsKey(uri.fragment()) && fileName != null && !fLoadedFileNames.contains(fileName)) {
+                    fileNames.add(fileName);
+                }
+            }
+        }
+
+        // Looked for once only, even if not found
+        fLoadedFileNames.addAll(fileNames);
+
+        return fileNames;
+    }
+
+    /**
+     * @return The proxies of the references that the importer resolves, in root and its contents
+     */
+    private List<EObject> getProxies(EObject root) {
+        List<EObject> proxies = new ArrayList<EObject>();
+
+        for(EObject eObject : getAllContents(root)) {
+            if(eObject instanceof IArchimateRelationship) {
+                addIfProxy(proxies, ((IArchimateRelationship)eObject).getSource());
+                addIfProxy(proxies, ((IArchimateRelationship)eObject).getTarget());
+            }
+            else if(eObject instanceof IDiagramModelArchimateObject) {
+                addIfProxy(proxies, ((IDiagramModelArchimateObject)eObject).getArchimateElement());
+            }
+            else if(eObject instanceof IDiagramModelArchimateConnection) {
+                addIfProxy(proxies, ((IDiagramModelArchimateConnection)eObject).getArchimateRelationship());
+            }
+            else if(eObject instanceof IDiagramModelReference) {
+                addIfProxy(proxies, ((IDiagramModelReference)eObject).getReferencedModel());
+            }
+        }
+
+        return proxies;
+    }
+
+    private void addIfProxy(List<EObject> proxies, EObject eObject) {
+        if(eObject != null && eObject.eIsProxy()) {
+            proxies.add(eObject);
+        }
+    }
+
+    /**
+     * Resolve proxies in the same way as the importer. Proxies of objects that were not found are left as they are.
+     */
+    private void resolveProxies(EObject root) {
+        for(EObject eObject : getAllContents(root)) {
+            if(eObject instanceof IArchimateRelationship) {
+                IArchimateRelationship relation = (IArchimateRelationship)eObject;
+                relation.setSource((IArchimateConcept)resolve(relation.getSource()));
+                relation.setTarget((IArchimateConcept)resolve(relation.getTarget()));
+            }
+            else if(eObject instanceof IDiagramModelArchimateObject) {
+                IDiagramModelArchimateObject element = (IDiagramModelArchimateObject)eObject;
+                IArchimateElement archimateElement = (IArchimateElement)resolve(element.getArchimateElement());
+                if(archimateElement != element.getArchimateElement()) {
+                    element.setArchimateElement(archimateElement);
+                    archimateElement.getReferencingDiagramObjects().add(element);
+                }
+            }
+            else if(eObject instanceof IDiagramModelArchimateConnection) {
+                IDiagramModelArchimateConnection connection = (IDiagramModelArchimateConnection)eObject;
+                IArchimateRelationship relationship = (IArchimateRelationship)resolve(connection.getArchimateRelationship());
+                if(relationship != connection.getArchimateRelationship()) {
+                    connection.setArchimateRelationship(relationship);
+                    relationship.getReferencingDiagramConnections().add(connection);
+                }
+            }
+            else if(eObject instanceof IDiagramModelReference) {
+                IDiagramModelReference reference = (IDiagramModelReference)eObject;
+                reference.setReferencedModel((IDiagramModel)resolve(reference.getReferencedModel()));
+            }
+        }
+    }
+
+    private EObject resolve(EObject eObject) {
+        if(eObject != null && eObject.eIsProxy()) {
+            IIdentifier object = fObjects.get(EcoreUtil.getURI(eObject).fragment());
+            return object != null ? object : eObject;
+        }
+        return eObject;
+    }
+
+    private List<EObject> getAllContents(EObject root) {
+        List<EObject> eObjects = new ArrayList<EObject>();
+        eObjects.add(root);
+        for(Iterator<EObject> iter = root.eAllContents(); iter.hasNext();) {
+            eObjects.add(iter.next());
+        }
+        return eObjects;
+    }
+
+    /**
+     * Find files by name in the model folder of the tree.
+     * The path in an href is not always where the file is so the name is used, as when loading missing objects.
+     */
+    private Map<String, ObjectId> findFiles(Set<String> fileNames) throws IOException {
+        Map<String, ObjectId> files = new LinkedHashMap<String, ObjectId>();
+
+        try(TreeWalk treeWalk = new TreeWalk(fRepository)) {
+            treeWalk.addTree(fTreeId);
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(AndTreeFilter.create(PathFilter.create(IGraficoConstants.MODEL_FOLDER), new FileNameFilter(fileNames)));
+
+            while(treeWalk.next()) {
+                files.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * @return A file URI for path as if the tree was checked out, so that hrefs are resolved the same way
+     */
+    private URI getURI(String path) {
+        File root = fRepository.isBare() ? fRepository.getDirectory() : fRepository.getWorkTree();
+        return URI.createFileURI(new File(root, path).getAbsolutePath());
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.InternalEList;
+import org.eclipse.emf.ecore.xmi.XMLHelper;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.eclipse.emf.ecore.xmi.XMLSave;
+import org.eclipse.emf.ecore.xmi.impl.XMLHelperImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMLSaveImpl;
+
+import com.archimatetool.model.IArchimatePackage;
+
+
+/**
+ * Resource used to save one object of the live model to its Grafico file without copying or detaching it.
+ *
+ * The object is not added to the Resource's contents but saved as a root object.
+ * Child folders and elements are not saved as they have their own files, and references to objects in other files
+ * are saved as hrefs to that file, the same as if each object had been copied into its own Resource.
+ */
+class GraficoResource extends XMLResourceImpl {
+
+    /**
+     * Elements are keyed by file name so that references to them are saved as "file#id".
+     * folder.xml files are keyed by their full path as there are many of them.
+     * 
+     * @param file The file that an object is saved in
+     * @return The URI used for the Resource of the object
+     */
+    static URI createURI(File file) {
+        return file.getName().equals(IGraficoConstants.FOLDER_XML) ? URI.createFileURI(file.getAbsolutePath()) : URI.createFileURI(file.getName());
+    }
+
+    /**
+     * Saves references to objects in other files as hrefs to those files
+     */
+    private class GraficoXMLHelper extends XMLHelperImpl {
+        GraficoXMLHelper() {
+            super(GraficoResource.this);
+        }
+
+        @Override
+        public String getHREF(EObject obj) {
+            EObject owner = obj.eIsProxy() ? null : GraficoModelExporter.getFileOwner(obj);
+            if(owner == null) {
+                return super.getHREF(obj);
+            }
+
+            URI uri = createURI(new File(fModelFolder, GraficoModelExporter.getPathFor(owner))).appendFragment(getIDREF(obj));
+            return deresolve(uri).toString();
+        }
+
+        @Override
+        public String getIDREF(EObject obj) {
+            String id = EcoreUtil.getID(obj);
+            return id != null ? id : super.getIDREF(obj);
+        }
+    }
+
+    /**
+     * Skips child folders and elements, and decides what is in the same document by file rather than by Resource
+     */
+    private class GraficoXMLSave extends XMLSaveImpl {
+        GraficoXMLSave(XMLHelper helper) {
+            super(helper);
+        }
+
+        @Override
+        protected boolean shouldSaveFeature(EObject o, EStructuralFeature f) {
+            return isSavedFeature(f) && super.shouldSaveFeature(o, f);
+        }
+
+        @Override
+        protected int sameDocSingle(EObject o, EStructuralFeature f) {
+            InternalEObject value = (InternalEObject)helper.getValue(o, f);
+            if(value == null) {
+                return SKIP;
+            }
+            return isInThisFile(value) ? SAME_DOC : CROSS_DOC;
+        }
+
+        @Override
+        protected int sameDocMany(EObject o, EStructuralFeature f) {
+            @SuppressWarnings("unchecked")
+            InternalEList<? extends InternalEObject> values = (InternalEList<? extends InternalEObject>)helper.getValue(o, f);
+            if(values.isEmpty()) {
+                return SKIP;
+            }
+
+            for(Iterator<? extends InternalEObject> iter = values.basicIterator(); iter.hasNext();) {
+                if(!isInThisFile(iter.next())) {
+                    return CROSS_DOC;
+                }
+            }
+
+            return SAME_DOC;
+        }
+
+    }
+
+    private EObject fObject;
+    private File fModelFolder;
+
+    /**
+     * @param uri The URI, created with {@link #createURI(File)}
+     * @param object The model, folder or element to save
+     * @param modelFolder The model folder, used to work out the files of referenced objects
+     */
+    GraficoResource(URI uri, EObject object, File modelFolder) {
+        super(uri);
+        fObject = object;
+        fModelFolder = modelFolder;
+        getDefaultSaveOptions().put(XMLResource.OPTION_ROOT_OBJECTS, Collections.singletonList(object));
+    }
+
+    /**
+     * @return The object saved by this Resource
+     */
+    EObject getObject() {
+        return fObject;
+    }
+
+    /**
+     * @param value
+     * @return true if value is saved in the same file as this Resource's object
+     */
+    boolean isInThisFile(EObject value) {
+        return !value.eIsProxy() && GraficoModelExporter.getFileOwner(value) == fObject;
+    }
+
+    /**
+     * @param f
+     * @return true if the feature is saved in this file, false for child folders and elements which have their own files
+     */
+    static boolean isSavedFeature(EStructuralFeature f) {
+        return f != IArchimatePackage.Literals.FOLDER_CONTAINER__FOLDERS && f != IArchimatePackage.Literals.FOLDER__ELEMENTS;
+    }
+
+    @Override
+    protected XMLHelper createXMLHelper() {
+        return new GraficoXMLHelper();
+    }
+
+    @Override
+    protected XMLSave createXMLSave() {
+        return new GraficoXMLSave(createXMLHelper());
+    }
+}
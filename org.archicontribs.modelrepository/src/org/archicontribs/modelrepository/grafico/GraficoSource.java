@@ -0,0 +1,252 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+
+/**
+ * Where the Grafico files are imported from, either a folder or a tree in a Git repository.
+ *
+ * Paths are relative to the root and separated by "/".
+ * Files can be read on more than one thread at the same time.
+ */
+abstract class GraficoSource {
+
+    /**
+     * Grafico files in a folder on disk
+     */
+    static class FolderSource extends GraficoSource {
+        private File fRootFolder;
+
+        FolderSource(File rootFolder) {
+            fRootFolder = rootFolder;
+        }
+
+        @Override
+        void open() throws IOException {
+            // Create folders for model and images
+            new File(fRootFolder, IGraficoConstants.MODEL_FOLDER).mkdirs();
+            new File(fRootFolder, IGraficoConstants.IMAGES_FOLDER).mkdirs();
+        }
+
+        @Override
+        boolean isFile(String path) {
+            return new File(fRootFolder, path).isFile();
+        }
+
+        @Override
+        boolean isFolder(String path) {
+            return new File(fRootFolder, path).isDirectory();
+        }
+
+        @Override
+        List<String> list(String path) throws IOException {
+            String[] names = new File(fRootFolder, path).list();
+            if(names == null) {
+                return Collections.emptyList();
+            }
+            Arrays.sort(names);
+            return Arrays.asList(names);
+        }
+
+        @Override
+        List<EObject> read(List<String> paths) throws IOException {
+            GraficoXMLReader reader = new GraficoXMLReader();
+            List<EObject> objects = new ArrayList<EObject>(paths.size());
+
+            for(String path : paths) {
+                objects.add(reader.read(new File(fRootFolder, path)));
+            }
+
+            return objects;
+        }
+
+        @Override
+        byte[] readBytes(String path) throws IOException {
+            return Files.readAllBytes(new File(fRootFolder, path).toPath());
+        }
+    }
+
+    /**
+     * Grafico files in a tree of a Git repository, read from the object database without checking them out
+     */
+    static class TreeSource extends GraficoSource {
+        private Repository fRepository;
+        private AnyObjectId fTreeId;
+
+        // File path -> blob
+        private Map<String, ObjectId> fFiles = new HashMap<String, ObjectId>();
+
+        // Folder path -> names of files and sub-folders
+        private Map<String, Set<String>> fFolders = new HashMap<String, Set<String>>();
+
+        /**
+         * @param repository The repository. It has to stay open while importing.
+         * @param treeId A tree or a commit
+         */
+        TreeSource(Repository repository, AnyObjectId treeId) {
+            fRepository = repository;
+            fTreeId = treeId;
+        }
+
+        @Override
+        void open() throws IOException {
+            fFiles.clear();
+            fFolders.clear();
+
+            try(RevWalk revWalk = new RevWalk(fRepository)) {
+                RevTree tree = revWalk.parseTree(fTreeId);
+
+                try(TreeWalk treeWalk = new TreeWalk(fRepository)) {
+                    treeWalk.addTree(tree);
+                    treeWalk.setRecursive(true);
+                    treeWalk.setFilter(PathFilterGroup.createFromStrings(IGraficoConstants.MODEL_FOLDER, IGraficoConstants.IMAGES_FOLDER));
+
+                    while(treeWalk.next()) {
+                        String path = treeWalk.getPathString();
+                        fFiles.put(path, treeWalk.getObjectId(0));
+                        addToFolder(path);
+                    }
+                }
+            }
+        }
+
+        private void addToFolder(String path) {
+            int index = path.lastIndexOf('/');
+            String folder = index == -1 ? "" : path.substring(0, index); //$NON-NLS-1$
+
+            Set<String> names = fFolders.get(folder);
+            if(names == null) {
+                names = new TreeSet<String>();
+                fFolders.put(folder, names);
+
+                // New folder so add it to its parent folder
+                if(folder.length() > 0) {
+                    addToFolder(folder);
+                }
+            }
+
+            names.add(path.substring(index + 1));
+        }
+
+        @Override
+        boolean isFile(String path) {
+            return fFiles.containsKey(path);
+        }
+
+        @Override
+        boolean isFolder(String path) {
+            return fFolders.containsKey(path);
+        }
+
+        @Override
+        List<String> list(String path) {
+            Set<String> names = fFolders.get(path);
+            return names == null ? Collections.<String>emptyList() : new ArrayList<String>(names);
+        }
+
+        @Override
+        List<EObject> read(List<String> paths) throws IOException {
+            GraficoXMLReader xmlReader = new GraficoXMLReader();
+            List<EObject> objects = new ArrayList<EObject>(paths.size());
+
+            // ObjectReader is not thread safe so each call has its own
+            try(ObjectReader objectReader = fRepository.newObjectReader()) {
+                for(String path : paths) {
+                    try(InputStream in = objectReader.open(getObjectId(path), Constants.OBJ_BLOB).openStream()) {
+                        objects.add(xmlReader.read(in, getURI(path)));
+                    }
+                }
+            }
+
+            return objects;
+        }
+
+        @Override
+        byte[] readBytes(String path) throws IOException {
+            try(ObjectReader objectReader = fRepository.newObjectReader()) {
+                return objectReader.open(getObjectId(path), Constants.OBJ_BLOB).getBytes(Integer.MAX_VALUE);
+            }
+        }
+
+        private ObjectId getObjectId(String path) throws IOException {
+            ObjectId objectId = fFiles.get(path);
+            if(objectId == null) {
+                throw new FileNotFoundException(path);
+            }
+            return objectId;
+        }
+
+        /**
+         * @return A file URI for path as if the tree was checked out, so that hrefs are resolved the same way
+         */
+        private URI getURI(String path) {
+            File root = fRepository.isBare() ? fRepository.getDirectory() : fRepository.getWorkTree();
+            return URI.createFileURI(new File(root, path).getAbsolutePath());
+        }
+    }
+
+    /**
+     * Prepare to read files. This is called before any other method.
+     * @throws IOException
+     */
+    abstract void open() throws IOException;
+
+    /**
+     * @return true if path is a file
+     */
+    abstract boolean isFile(String path);
+
+    /**
+     * @return true if path is a folder
+     */
+    abstract boolean isFolder(String path);
+
+    /**
+     * @return The names of the files and sub-folders in a folder, sorted by name
+     * @throws IOException
+     */
+    abstract List<String> list(String path) throws IOException;
+
+    /**
+     * Read Grafico XML files
+     * @param paths
+     * @return The root object of each file
+     * @throws IOException
+     */
+    abstract List<EObject> read(List<String> paths) throws IOException;
+
+    /**
+     * @return The contents of a file
+     * @throws IOException
+     */
+    abstract byte[] readBytes(String path) throws IOException;
+}
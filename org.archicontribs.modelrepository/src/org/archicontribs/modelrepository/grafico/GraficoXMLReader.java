@@ -0,0 +1,272 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.InternalEList;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+
+
+/**
+ * Reads a Grafico file straight into model objects without creating an EMF Resource.
+ *
+ * References to objects in the same file are resolved when the file has been read.
+ * References to objects in other files are set as proxies with the href resolved against the file's URI,
+ * the same as EMF would, so that they can be resolved later by their ID.
+ *
+ * Each thread has its own StAX input factory.
+ */
+class GraficoXMLReader {
+
+    private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            return factory;
+        }
+    };
+
+    /**
+     * A reference to objects in the same file, set when the file has been read
+     */
+    private static class IDRef {
+        EObject eObject;
+        EReference reference;
+        String ids;
+
+        IDRef(EObject eObject, EReference reference, String ids) {
+            this.eObject = eObject;
+            this.reference = reference;
+            this.ids = ids;
+        }
+    }
+
+    private URI fURI;
+    private XMLStreamReader fReader;
+    private Map<String, EObject> fIDs;
+    private List<IDRef> fIDRefs;
+
+    /**
+     * @param file The file to read
+     * @return The root object
+     * @throws IOException
+     */
+    EObject read(File file) throws IOException {
+        try(InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return read(in, URI.createFileURI(file.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * @param in The input stream to read. This is not closed.
+     * @param uri The URI of the file, used to resolve hrefs
+     * @return The root object
+     * @throws IOException
+     */
+    EObject read(InputStream in, URI uri) throws IOException {
+        fURI = uri;
+        fIDs = new HashMap<String, EObject>();
+        fIDRefs = new ArrayList<IDRef>();
+
+        try {
+            fReader = INPUT_FACTORY.get().createXMLStreamReader(in);
+
+            try {
+                fReader.nextTag();
+
+                EObject root = EcoreUtil.create(getEClass(fReader.getNamespaceURI(), fReader.getLocalName()));
+                readObject(root);
+
+                resolveIDRefs();
+
+                return root;
+            }
+            finally {
+                fReader.close();
+            }
+        }
+        catch(XMLStreamException | RuntimeException ex) {
+            throw new IOException("Could not read: " + uri, ex); //$NON-NLS-1$
+        }
+        finally {
+            fReader = null;
+            fIDs = null;
+            fIDRefs = null;
+        }
+    }
+
+    /**
+     * Read the attributes and child elements of the current element into eObject
+     */
+    private void readObject(EObject eObject) throws XMLStreamException, IOException {
+        EClass eClass = eObject.eClass();
+
+        for(int i = 0; i < fReader.getAttributeCount(); i++) {
+            if(XMLResource.XSI_URI.equals(fReader.getAttributeNamespace(i))) {
+                continue;
+            }
+
+            EStructuralFeature feature = getFeature(eClass, fReader.getAttributeLocalName(i));
+            String value = fReader.getAttributeValue(i);
+
+            if(feature instanceof EAttribute) {
+                setAttribute(eObject, (EAttribute)feature, value);
+            }
+            else {
+                fIDRefs.add(new IDRef(eObject, (EReference)feature, value));
+            }
+        }
+
+        String id = EcoreUtil.getID(eObject);
+        if(id != null) {
+            fIDs.put(id, eObject);
+        }
+
+        while(fReader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            EStructuralFeature feature = getFeature(eClass, fReader.getLocalName());
+
+            if(feature instanceof EAttribute) {
+                setAttribute(eObject, (EAttribute)feature, fReader.getElementText());
+                continue;
+            }
+
+            EReference reference = (EReference)feature;
+            EObject value = EcoreUtil.create(getType(reference));
+            String href = fReader.getAttributeValue(null, XMLResource.HREF);
+
+            if(reference.isContainment()) {
+                if(href != null) {
+                    throw new IOException("Containment proxies are not supported: " + href); //$NON-NLS-1$
+                }
+                addValue(eObject, reference, value);
+                readObject(value);
+            }
+            else {
+                if(href == null) {
+                    throw new IOException("Missing href for " + reference.getName()); //$NON-NLS-1$
+                }
+
+                URI proxyURI = URI.createURI(href);
+                if(proxyURI.isRelative() && proxyURI.hasRelativePath()) {
+                    proxyURI = proxyURI.resolve(fURI);
+                }
+
+                // A reference to this file
+                if(fURI.equals(proxyURI.trimFragment())) {
+                    fIDRefs.add(new IDRef(eObject, reference, proxyURI.fragment()));
+                }
+                else {
+                    ((InternalEObject)value).eSetProxyURI(proxyURI);
+                    addValue(eObject, reference, value);
+                }
+
+                // Empty element
+                fReader.nextTag();
+            }
+        }
+    }
+
+    /**
+     * Set references to objects in this file
+     */
+    private void resolveIDRefs() throws IOException {
+        for(IDRef ref : fIDRefs) {
+            for(String id : ref.ids.trim().split("\\s+")) { //$NON-NLS-1$
+                EObject value = fIDs.get(id);
+                if(value == null) {
+                    throw new IOException("Unresolved reference '" + id + "' in " + fURI); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                addValue(ref.eObject, ref.reference, value);
+            }
+        }
+    }
+
+    private void setAttribute(EObject eObject, EAttribute attribute, String value) {
+        EDataType dataType = attribute.getEAttributeType();
+        Object object = EcoreUtil.createFromString(dataType, value);
+
+        if(attribute.isMany()) {
+            addValue(eObject, attribute, object);
+        }
+        else {
+            eObject.eSet(attribute, object);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addValue(EObject eObject, EStructuralFeature feature, Object value) {
+        if(feature.isMany()) {
+            ((InternalEList<Object>)eObject.eGet(feature, false)).addUnique(value);
+        }
+        else {
+            eObject.eSet(feature, value);
+        }
+    }
+
+    /**
+     * @return The type of the current element, from its xsi:type or else the reference's type
+     */
+    private EClass getType(EReference reference) throws IOException {
+        String type = fReader.getAttributeValue(XMLResource.XSI_URI, XMLResource.TYPE);
+
+        if(type == null) {
+            return reference.getEReferenceType();
+        }
+
+        int index = type.indexOf(':');
+        String prefix = index == -1 ? "" : type.substring(0, index); //$NON-NLS-1$
+        return getEClass(fReader.getNamespaceURI(prefix), type.substring(index + 1));
+    }
+
+    private EClass getEClass(String nsURI, String name) throws IOException {
+        EPackage ePackage = EPackage.Registry.INSTANCE.getEPackage(nsURI);
+        EClassifier eClassifier = ePackage == null ? null : ePackage.getEClassifier(name);
+
+        if(!(eClassifier instanceof EClass)) {
+            throw new IOException("Class not found: " + nsURI + " " + name); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        return (EClass)eClassifier;
+    }
+
+    private EStructuralFeature getFeature(EClass eClass, String name) throws IOException {
+        EStructuralFeature feature = eClass.getEStructuralFeature(name);
+
+        if(feature == null) {
+            throw new IOException("Feature '" + name + "' not found in " + eClass.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        return feature;
+    }
+}
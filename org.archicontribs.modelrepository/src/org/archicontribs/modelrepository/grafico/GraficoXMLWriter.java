@@ -0,0 +1,423 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.FeatureMap;
+import org.eclipse.emf.ecore.xmi.XMLHelper;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+
+
+/**
+ * Writes the Grafico file of a {@link GraficoResource} without going through EMF's XMLSave.
+ *
+ * The output is the same as XMLResource.save() with the options set in GraficoModelExporter:
+ * UTF-8, no XML declaration, formatted with a line width of 5 so each attribute is on its own line,
+ * "\n" line endings, no encoded attribute style.
+ *
+ * Only the features used by the ArchiMate model are handled. If anything else is found, or a value
+ * has characters that EMF may escape differently, an UnsupportedContentException is thrown and the
+ * caller should save the Resource with EMF instead.
+ *
+ * A writer reuses its buffer so each thread should have its own writer.
+ */
+class GraficoXMLWriter {
+
+    /**
+     * Thrown when a Resource has content that the writer can't write the same as EMF would
+     */
+    static class UnsupportedContentException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedContentException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int LINE_WIDTH = 5;
+    private static final String LINE_SEPARATOR = "\n"; //$NON-NLS-1$
+
+    private static final String XSI_TYPE = "xsi:type"; //$NON-NLS-1$
+    private static final String XSI_XMLNS = "xmlns:xsi"; //$NON-NLS-1$
+    private static final String XMLNS = "xmlns"; //$NON-NLS-1$
+
+    private StringBuilder fBuffer = new StringBuilder(8192);
+    private List<String> fIndents = new ArrayList<String>();
+
+    private int fLineWidth;
+    private int fDepth;
+    private boolean fStartTagOpen;
+    private boolean fDeclareXSI;
+
+    private GraficoResource fResource;
+    private XMLHelper fHelper;
+
+    GraficoXMLWriter() {
+        fIndents.add(""); //$NON-NLS-1$
+    }
+
+    /**
+     * @param resource The Resource to write
+     * @return The UTF-8 bytes of the file
+     * @throws UnsupportedContentException if the object can't be written the same as EMF would write it
+     */
+    byte[] write(GraficoResource resource) throws UnsupportedContentException {
+        fBuffer.setLength(0);
+        fLineWidth = 0;
+        fDepth = 0;
+        fStartTagOpen = false;
+        fDeclareXSI = false;
+
+        fResource = resource;
+        fHelper = resource.createXMLHelper();
+
+        try {
+            EObject root = resource.getObject();
+            String name = fHelper.getQName(root.eClass());
+
+            startElement(name);
+
+            // Namespaces are declared after the root element's name, but we only know if xsi is needed at the end
+            int namespacesPosition = fBuffer.length();
+
+            writeFeatures(root);
+            endElement(name);
+
+            fBuffer.insert(namespacesPosition, getNamespaceDeclarations());
+
+            return fBuffer.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        finally {
+            fResource = null;
+            fHelper = null;
+        }
+    }
+
+    private String getNamespaceDeclarations() throws UnsupportedContentException {
+        EPackage[] packages = fHelper.packages();
+        if(packages.length != 1) {
+            throw new UnsupportedContentException("Only one package is supported"); //$NON-NLS-1$
+        }
+
+        // The root element's name is always longer than the line width, so each declaration is on its own line
+        StringBuilder sb = new StringBuilder();
+        String indent = LINE_SEPARATOR + getIndent(2);
+
+        if(fDeclareXSI) {
+            sb.append(indent).append(XSI_XMLNS).append("=\"").append(XMLResource.XSI_URI).append('"'); //$NON-NLS-1$
+        }
+
+        sb.append(indent).append(XMLNS).append(':').append(fHelper.getPrefix(packages[0])).append("=\"").append(packages[0].getNsURI()).append('"'); //$NON-NLS-1$
+
+        return sb.toString();
+    }
+
+    /**
+     * Write the attributes of an object and then its child elements, in feature order
+     */
+    private void writeFeatures(EObject eObject) throws UnsupportedContentException {
+        List<EStructuralFeature> elementFeatures = null;
+
+        for(EStructuralFeature f : eObject.eClass().getEAllStructuralFeatures()) {
+            if(f.isTransient() || !GraficoResource.isSavedFeature(f) || !eObject.eIsSet(f)) {
+                continue;
+            }
+
+            if(f.isUnsettable()) {
+                throw new UnsupportedContentException("Unsettable feature: " + f.getName()); //$NON-NLS-1$
+            }
+
+            if(f instanceof EAttribute) {
+                EDataType dataType = (EDataType)f.getEType();
+                if(!dataType.isSerializable()) {
+                    continue;
+                }
+                if(f.isMany() || dataType.getInstanceClass() == FeatureMap.Entry.class) {
+                    throw new UnsupportedContentException("Unsupported attribute: " + f.getName()); //$NON-NLS-1$
+                }
+
+                String value = fHelper.convertToString(dataType.getEPackage().getEFactoryInstance(), dataType, eObject.eGet(f));
+                if(value != null) {
+                    addAttribute(fHelper.getQName(f), escape(value));
+                }
+            }
+            else {
+                EReference r = (EReference)f;
+
+                // The reference to the container is not saved
+                if(r.getEOpposite() != null && r.getEOpposite().isContainment()) {
+                    continue;
+                }
+
+                if(r.isContainment() || !isInThisFile(eObject, r)) {
+                    if(elementFeatures == null) {
+                        elementFeatures = new ArrayList<EStructuralFeature>();
+                    }
+                    elementFeatures.add(r);
+                }
+                else {
+                    writeIDRefs(eObject, r);
+                }
+            }
+        }
+
+        if(elementFeatures != null) {
+            for(EStructuralFeature f : elementFeatures) {
+                EReference r = (EReference)f;
+                for(EObject value : getValues(eObject, r)) {
+                    if(r.isContainment()) {
+                        writeContainedObject(value, r);
+                    }
+                    else {
+                        writeHref(value, r);
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeContainedObject(EObject eObject, EReference r) throws UnsupportedContentException {
+        if(eObject.eIsProxy()) {
+            throw new UnsupportedContentException("Containment proxy"); //$NON-NLS-1$
+        }
+
+        String name = fHelper.getQName(r);
+        startElement(name);
+
+        if(eObject.eClass() != r.getEType()) {
+            addTypeAttribute(eObject.eClass());
+        }
+
+        writeFeatures(eObject);
+        endElement(name);
+    }
+
+    private void writeHref(EObject eObject, EReference r) throws UnsupportedContentException {
+        String href = fHelper.getHREF(eObject);
+        if(href == null) {
+            return;
+        }
+
+        String name = fHelper.getQName(r);
+        startElement(name);
+
+        EClass eClass = eObject.eClass();
+        EClass expectedType = (EClass)r.getEType();
+        if(eClass != expectedType && (expectedType.isAbstract() || r.getEGenericType().getETypeParameter() != null)) {
+            addTypeAttribute(eClass);
+        }
+
+        addAttribute(XMLResource.HREF, checkUnescaped(href));
+        endElement(name);
+    }
+
+    private void writeIDRefs(EObject eObject, EReference r) throws UnsupportedContentException {
+        StringBuilder ids = new StringBuilder();
+
+        for(EObject value : getValues(eObject, r)) {
+            String id = fHelper.getIDREF(value);
+            if(id != null) {
+                if(ids.length() > 0) {
+                    ids.append(' ');
+                }
+                ids.append(checkUnescaped(id));
+            }
+        }
+
+        if(ids.length() > 0) {
+            addAttribute(fHelper.getQName(r), ids.toString());
+        }
+    }
+
+    private void addTypeAttribute(EClass eClass) {
+        fDeclareXSI = true;
+        addAttribute(XSI_TYPE, fHelper.getQName(eClass));
+    }
+
+    /**
+     * @return true if all values of the reference are saved in the same file as eObject
+     */
+    private boolean isInThisFile(EObject eObject, EReference r) {
+        for(EObject value : getValues(eObject, r)) {
+            if(!fResource.isInThisFile(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<EObject> getValues(EObject eObject, EReference r) {
+        Object value = eObject.eGet(r, false);
+
+        if(r.isMany()) {
+            return (List<EObject>)value;
+        }
+
+        List<EObject> list = new ArrayList<EObject>(1);
+        if(value != null) {
+            list.add((EObject)value);
+        }
+        return list;
+    }
+
+    // ===================================================================================================
+    // Formatting, as done by EMF's XMLString
+    // ===================================================================================================
+
+    private void startElement(String name) {
+        if(fStartTagOpen) {
+            add(">"); //$NON-NLS-1$
+            addLine();
+        }
+
+        fDepth++;
+        add(getIndent(fDepth - 1));
+        add("<"); //$NON-NLS-1$
+        add(name);
+        fStartTagOpen = true;
+    }
+
+    private void addAttribute(String name, String value) {
+        if(fLineWidth > LINE_WIDTH) {
+            addLine();
+            add(getIndent(fDepth + 1));
+        }
+        else {
+            add(" "); //$NON-NLS-1$
+        }
+
+        add(name);
+        add("=\""); //$NON-NLS-1$
+        add(value);
+        add("\""); //$NON-NLS-1$
+    }
+
+    private void endElement(String name) {
+        if(fStartTagOpen) {
+            add("/>"); //$NON-NLS-1$
+            fStartTagOpen = false;
+        }
+        else {
+            add(getIndent(fDepth - 1));
+            add("</"); //$NON-NLS-1$
+            add(name);
+            add(">"); //$NON-NLS-1$
+        }
+
+        addLine();
+        fDepth--;
+    }
+
+    private String getIndent(int nesting) {
+        for(int i = fIndents.size() - 1; i < nesting; i++) {
+            fIndents.add(fIndents.get(i) + "  "); //$NON-NLS-1$
+        }
+        return fIndents.get(nesting);
+    }
+
+    private void add(String s) {
+        fBuffer.append(s);
+        fLineWidth += s.length();
+    }
+
+    private void addLine() {
+        fBuffer.append(LINE_SEPARATOR);
+        fLineWidth = 0;
+    }
+
+    // ===================================================================================================
+    // Escaping, as done by EMF's XMLSaveImpl.Escape
+    // ===================================================================================================
+
+    /**
+     * Escape an attribute value
+     * @throws UnsupportedContentException if the value has control or invalid characters
+     */
+    static String escape(String value) throws UnsupportedContentException {
+        StringBuilder sb = null;
+
+        for(int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            String replacement = null;
+
+            switch(ch) {
+                case '&':
+                    replacement = "&amp;"; //$NON-NLS-1$
+                    break;
+                case '<':
+                    replacement = "&lt;"; //$NON-NLS-1$
+                    break;
+                case '"':
+                    replacement = "&quot;"; //$NON-NLS-1$
+                    break;
+                case '>':
+                    // Only the end of a CDATA section marker
+                    if(i >= 2 && value.charAt(i - 1) == ']' && value.charAt(i - 2) == ']') {
+                        replacement = "&gt;"; //$NON-NLS-1$
+                    }
+                    break;
+                case '\n':
+                    replacement = "&#xA;"; //$NON-NLS-1$
+                    break;
+                case '\r':
+                    replacement = "&#xD;"; //$NON-NLS-1$
+                    break;
+                case '\t':
+                    replacement = "&#x9;"; //$NON-NLS-1$
+                    break;
+                default:
+                    if(!isPlainChar(value, i)) {
+                        throw new UnsupportedContentException("Character needs EMF escaping: " + (int)ch); //$NON-NLS-1$
+                    }
+                    break;
+            }
+
+            if(replacement != null) {
+                if(sb == null) {
+                    sb = new StringBuilder(value.length() + 16);
+                    sb.append(value, 0, i);
+                }
+                sb.append(replacement);
+            }
+            else if(sb != null) {
+                sb.append(ch);
+            }
+        }
+
+        return sb == null ? value : sb.toString();
+    }
+
+    /**
+     * @return value if it has no characters that would be escaped
+     * @throws UnsupportedContentException otherwise
+     */
+    private static String checkUnescaped(String value) throws UnsupportedContentException {
+        if(escape(value) != value) {
+            throw new UnsupportedContentException("Reference needs escaping: " + value); //$NON-NLS-1$
+        }
+        return value;
+    }
+
+    /**
+     * @return true if the character at index is a valid XML character that is written as it is.
+     * Surrogate pairs are left to EMF.
+     */
+    private static boolean isPlainChar(String value, int index) {
+        char ch = value.charAt(index);
+        return ch >= 0x20 && !Character.isSurrogate(ch) && ch != 0xFFFE && ch != 0xFFFF;
+    }
+}
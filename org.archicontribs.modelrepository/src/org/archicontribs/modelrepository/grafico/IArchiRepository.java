@@ -9,6 +9,7 @@ import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.transport.PushResult;
@@ -27,6 +28,30 @@ public interface IArchiRepository extends IGraficoConstants {
      */
     File getLocalGitFolder();
 
+    /**
+     * Open the JGit Repository from a cache that is shared by all operations on this repository, so that its
+     * config, refs and pack indexes are not read again each time.
+     * The caller must close it when done. This returns it to the cache, and it is closed for real
+     * when it has not been used for a while.
+     * @return The Repository
+     * @throws IOException
+     */
+    Repository openRepository() throws IOException;
+    
+    /**
+     * Open a session that keeps the Repository, an ObjectReader, an ObjectInserter and the index open for a
+     * workflow such as export, commit and push. Changes to the index are written once when the session is closed.
+     * The caller must close it when done.
+     * @return The session
+     * @throws IOException
+     */
+    RepositorySession openSession() throws IOException;
+    
+    /**
+     * Remove the Repository and its history cache from memory and close it, for example before deleting the local repository folder
+     */
+    void evictRepository();
+
     /**
      * @return The repository name - the file name
      */
@@ -115,6 +140,16 @@ public interface IArchiRepository extends IGraficoConstants {
      */
     FetchResult fetchFromRemote(String userName, String userPassword, ProgressMonitor monitor, boolean isDryrun) throws IOException, GitAPIException;
 
+    /**
+     * Ask the remote for its master branch without fetching anything
+     * @param userName
+     * @param userPassword
+     * @return true if the remote master branch is not the same as the local origin/master, so that a fetch would bring something new
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    boolean hasRemoteChanged(String userName, String userPassword) throws IOException, GitAPIException;
+
     /**
      * Create a new, local Git repository with name set to "origin"
      * @param URL online URL
@@ -185,6 +220,14 @@ public interface IArchiRepository extends IGraficoConstants {
      */
     void exportModelToGraficoFiles() throws IOException, GitAPIException;
 
+    /**
+     * Export the model to Grafico files and stage them in the session's index
+     * @param session
+     * @throws IOException
+     * @throws GitAPIException 
+     */
+    void exportModelToGraficoFiles(RepositorySession session) throws IOException, GitAPIException;
+
     /**
      * Save a checksum
      * @return true if saved
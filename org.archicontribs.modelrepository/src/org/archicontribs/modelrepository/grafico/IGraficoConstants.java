@@ -67,4 +67,9 @@ public interface IGraficoConstants {
      * Local master
      */
     String REFS_HEADS_MASTER = "refs/heads/master"; //$NON-NLS-1$
+    
+    /**
+     * Remote master
+     */
+    String REFS_REMOTES_ORIGIN_MASTER = "refs/remotes/origin/master"; //$NON-NLS-1$
 }
@@ -14,6 +14,7 @@ package org.archicontribs.modelrepository.grafico;
 public interface IRepositoryListener {
     
     String REPOSITORY_ADDED = "repository_added"; //$NON-NLS-1$
+    String REPOSITORY_DELETING = "repository_deleting"; //$NON-NLS-1$
     String REPOSITORY_DELETED = "repository_deleted"; //$NON-NLS-1$
     String REPOSITORY_CHANGED = "repository_changed"; //$NON-NLS-1$
     String HISTORY_CHANGED = "history_changed"; //$NON-NLS-1$
@@ -0,0 +1,215 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+
+/**
+ * Checksum of the local model file, used to tell if it has changed since the last Grafico export.
+ *
+ * The checksum is saved in the "checksum" file in the .git folder. Next to it a fingerprint of the model file's
+ * size and modified time is saved, so that if these are the same the file is not read at all.
+ * If they differ the file is hashed with CRC32, reading it into a direct buffer. The file is not memory mapped
+ * as a mapping keeps the file open until it is garbage collected, which on Windows stops it being replaced or deleted.
+ *
+ * As with Git's index, a fingerprint taken too soon after the file was modified is not trusted because
+ * another change in the same clock tick would not change the modified time.
+ *
+ * Checksums saved by earlier versions are MD5 hex strings. These are still checked, and replaced when they match.
+ */
+class ModelChecksum {
+
+    static final String CHECKSUM_FILE = "checksum"; //$NON-NLS-1$
+    static final String FINGERPRINT_FILE = "checksum.fingerprint"; //$NON-NLS-1$
+
+    /**
+     * A fingerprint taken less than this many ms after the file's modified time can't be trusted
+     */
+    static final long RACY_INTERVAL = 3000;
+
+    private static final String CRC32_PREFIX = "crc32:"; //$NON-NLS-1$
+
+    /**
+     * Size of the buffer the file is read into
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private File fFile;
+    private File fChecksumFile;
+    private File fFingerprintFile;
+
+    /**
+     * @param file The model file
+     * @param gitFolder The .git folder where the checksum is saved
+     */
+    ModelChecksum(File file, File gitFolder) {
+        fFile = file;
+        fChecksumFile = new File(gitFolder, CHECKSUM_FILE);
+        fFingerprintFile = new File(gitFolder, FINGERPRINT_FILE);
+    }
+
+    /**
+     * Save the checksum and fingerprint of the model file
+     * @throws IOException
+     */
+    void save() throws IOException {
+        // Take the fingerprint before reading the file so that a change while hashing is seen next time
+        String fingerprint = createFingerprint();
+        String checksum = createChecksum(fFile);
+
+        Files.write(fChecksumFile.toPath(), checksum.getBytes());
+        saveFingerprint(fingerprint);
+    }
+
+    /**
+     * @return true if the model file is different to when the checksum was saved, false if it is the same or there is no checksum
+     * @throws IOException
+     */
+    boolean hasChanged() throws IOException {
+        // Same size and modified time as a trusted fingerprint, no need to read the file
+        String savedFingerprint = readFile(fFingerprintFile);
+        if(savedFingerprint != null && savedFingerprint.equals(stripTime(createFingerprint()))) {
+            return false;
+        }
+
+        String savedChecksum = readFile(fChecksumFile);
+        if(savedChecksum == null) {
+            return false;
+        }
+        
+        String fingerprint = createFingerprint();
+
+        // Checksum saved by an earlier version
+        if(!savedChecksum.startsWith(CRC32_PREFIX)) {
+            if(!savedChecksum.equals(createMD5Checksum(fFile))) {
+                return true;
+            }
+
+            // Same, so replace it
+            save();
+            return false;
+        }
+
+        if(!savedChecksum.equals(createChecksum(fFile))) {
+            return true;
+        }
+
+        // Only the modified time changed, so save the fingerprint for next time
+        saveFingerprint(fingerprint);
+        return false;
+    }
+
+    /**
+     * @return The size and modified time of the model file, and when they were read
+     */
+    private String createFingerprint() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(fFile.toPath(), BasicFileAttributes.class);
+        return attributes.size() + " " + attributes.lastModifiedTime().toMillis() + " " + System.currentTimeMillis(); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Save the fingerprint unless it was taken too soon after the file was modified
+     */
+    private void saveFingerprint(String fingerprint) throws IOException {
+        if(isTrusted(fingerprint)) {
+            Files.write(fFingerprintFile.toPath(), stripTime(fingerprint).getBytes());
+        }
+        else {
+            Files.deleteIfExists(fFingerprintFile.toPath());
+        }
+    }
+
+    /**
+     * @return true if the fingerprint was taken long enough after the file was modified
+     */
+    private static boolean isTrusted(String fingerprint) {
+        String[] parts = fingerprint.split(" "); //$NON-NLS-1$
+        return Long.parseLong(parts[2]) - Long.parseLong(parts[1]) >= RACY_INTERVAL;
+    }
+
+    /**
+     * @return The fingerprint without the time it was taken, as saved
+     */
+    private static String stripTime(String fingerprint) {
+        return fingerprint.substring(0, fingerprint.lastIndexOf(' '));
+    }
+
+    private String readFile(File file) throws IOException {
+        if(!file.exists()) {
+            return null;
+        }
+        return new String(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * @param file
+     * @return A CRC32 checksum of the file and its size
+     * @throws IOException
+     */
+    static String createChecksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            int count;
+
+            while((count = channel.read(buffer)) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+                size += count;
+            }
+        }
+
+        return CRC32_PREFIX + Long.toHexString(crc.getValue()) + ":" + size; //$NON-NLS-1$
+    }
+
+    /**
+     * @param file
+     * @return The MD5 checksum of the file as saved by earlier versions
+     * @throws IOException
+     */
+    static String createMD5Checksum(File file) throws IOException {
+        MessageDigest digest = null;
+        try {
+            digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+        }
+        catch(NoSuchAlgorithmException ex) {
+            throw new IOException("NoSuchAlgorithm Exception", ex); //$NON-NLS-1$
+        }
+
+        try(FileInputStream fis = new FileInputStream(file)) {
+            byte[] byteArray = new byte[65536];
+            int bytesCount = 0;
+
+            while((bytesCount = fis.read(byteArray)) != -1) {
+                digest.update(byteArray, 0, bytesCount);
+            }
+        }
+
+        byte[] bytes = digest.digest();
+
+        // Convert to hexadecimal format
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < bytes.length; i++) {
+            sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,318 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records how long repository operations take, how many times they are run, and how many items and bytes they handle,
+ * for each repository. Each operation can also be written as a line to a CSV or JSON log file.
+ *
+ * Times of an operation include the times of any operations run inside it, so "status" includes "stage".
+ */
+public class RepositoryMetrics {
+
+    public static final RepositoryMetrics INSTANCE = new RepositoryMetrics();
+
+    public static final String EXPORT = "export"; //$NON-NLS-1$
+    public static final String IMPORT = "import"; //$NON-NLS-1$
+    public static final String STAGE = "stage"; //$NON-NLS-1$
+    public static final String STATUS = "status"; //$NON-NLS-1$
+    public static final String COMMIT = "commit"; //$NON-NLS-1$
+    public static final String CLONE = "clone"; //$NON-NLS-1$
+    public static final String FETCH = "fetch"; //$NON-NLS-1$
+    public static final String PULL = "pull"; //$NON-NLS-1$
+    public static final String PUSH = "push"; //$NON-NLS-1$
+    public static final String MERGE_PREPARATION = "mergePreparation"; //$NON-NLS-1$
+    public static final String PROXY_CHECK = "proxyCheck"; //$NON-NLS-1$
+
+    public static final String LOG_FORMAT_CSV = "csv"; //$NON-NLS-1$
+    public static final String LOG_FORMAT_JSON = "json"; //$NON-NLS-1$
+
+    /**
+     * Totals of an operation
+     */
+    public static class OperationStats {
+        private long calls;
+        private long totalMillis;
+        private long maxMillis;
+        private long items;
+        private long bytes;
+
+        private OperationStats() {
+        }
+
+        private OperationStats(OperationStats stats) {
+            calls = stats.calls;
+            totalMillis = stats.totalMillis;
+            maxMillis = stats.maxMillis;
+            items = stats.items;
+            bytes = stats.bytes;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public long getAverageMillis() {
+            return calls == 0 ? 0 : totalMillis / calls;
+        }
+
+        /**
+         * @return Number of things handled, such as files staged or objects merged
+         */
+        public long getItems() {
+            return items;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * The timing of one run of an operation, which is recorded when it is closed
+     */
+    public class Timer implements AutoCloseable {
+        private File fRepoFolder;
+        private String fOperation;
+        private long fStart = System.nanoTime();
+        private long fItems;
+        private long fBytes;
+        private boolean fClosed;
+
+        private Timer(File repoFolder, String operation) {
+            fRepoFolder = repoFolder;
+            fOperation = operation;
+        }
+
+        public void addItems(long items) {
+            fItems += items;
+        }
+
+        public void addBytes(long bytes) {
+            fBytes += bytes;
+        }
+
+        @Override
+        public void close() {
+            if(!fClosed) {
+                fClosed = true;
+                record(fRepoFolder, fOperation, (System.nanoTime() - fStart) / 1000000, fItems, fBytes);
+            }
+        }
+    }
+
+    // Repository folder -> operation -> totals
+    private Map<File, Map<String, OperationStats>> fMetrics = new HashMap<File, Map<String, OperationStats>>();
+
+    private File fLogFile;
+    private String fLogFormat;
+
+    // Kept open while logging, opened on the first record
+    private Writer fLogWriter;
+
+    /**
+     * Start timing an operation
+     * @param repo The repository
+     * @param operation The name of the operation
+     * @return The timer, which records the operation when it is closed
+     */
+    public Timer start(IArchiRepository repo, String operation) {
+        return start(repo.getLocalRepositoryFolder(), operation);
+    }
+
+    /**
+     * Start timing an operation
+     * @param repoFolder The folder of the repository
+     * @param operation The name of the operation
+     * @return The timer, which records the operation when it is closed
+     */
+    public Timer start(File repoFolder, String operation) {
+        return new Timer(repoFolder.getAbsoluteFile(), operation);
+    }
+
+    /**
+     * Record a run of an operation
+     * @param repoFolder The folder of the repository
+     * @param operation The name of the operation
+     * @param millis How long it took
+     * @param items Number of things handled
+     * @param bytes Number of bytes handled
+     */
+    public synchronized void record(File repoFolder, String operation, long millis, long items, long bytes) {
+        repoFolder = repoFolder.getAbsoluteFile();
+
+        Map<String, OperationStats> operations = fMetrics.get(repoFolder);
+        if(operations == null) {
+            operations = new TreeMap<String, OperationStats>();
+            fMetrics.put(repoFolder, operations);
+        }
+
+        OperationStats stats = operations.get(operation);
+        if(stats == null) {
+            stats = new OperationStats();
+            operations.put(operation, stats);
+        }
+
+        stats.calls++;
+        stats.totalMillis += millis;
+        stats.maxMillis = Math.max(stats.maxMillis, millis);
+        stats.items += items;
+        stats.bytes += bytes;
+
+        if(fLogFile != null) {
+            log(repoFolder, operation, millis, items, bytes);
+        }
+    }
+
+    /**
+     * @param repoFolder The folder of the repository
+     * @return A copy of the totals of each operation of a repository, sorted by operation name
+     */
+    public synchronized Map<String, OperationStats> getMetrics(File repoFolder) {
+        Map<String, OperationStats> copy = new TreeMap<String, OperationStats>();
+
+        Map<String, OperationStats> operations = fMetrics.get(repoFolder.getAbsoluteFile());
+        if(operations != null) {
+            for(Map.Entry<String, OperationStats> entry : operations.entrySet()) {
+                copy.put(entry.getKey(), new OperationStats(entry.getValue()));
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Clear the totals of a repository
+     * @param repoFolder The folder of the repository
+     */
+    public synchronized void reset(File repoFolder) {
+        fMetrics.remove(repoFolder.getAbsoluteFile());
+    }
+
+    /**
+     * Write each operation to a log file, which is appended to in UTF-8
+     * @param logFile The log file, or null to stop logging
+     * @param format LOG_FORMAT_CSV or LOG_FORMAT_JSON, for one JSON object on each line
+     */
+    public synchronized void setLogFile(File logFile, String format) {
+        closeLogWriter();
+        fLogFile = logFile;
+        fLogFormat = format;
+    }
+
+    private void log(File repoFolder, String operation, long millis, long items, long bytes) {
+        String time = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date()); //$NON-NLS-1$
+        String line;
+
+        if(LOG_FORMAT_JSON.equals(fLogFormat)) {
+            line = "{\"time\":\"" + time + "\",\"repository\":\"" + escapeJSON(repoFolder.getPath()) + "\",\"operation\":\"" + escapeJSON(operation) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    + "\",\"millis\":" + millis + ",\"items\":" + items + ",\"bytes\":" + bytes + "}"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        }
+        else {
+            line = time + "," + escapeCSV(repoFolder.getPath()) + "," + escapeCSV(operation) + "," + millis + "," + items + "," + bytes; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        }
+
+        try {
+            if(fLogWriter == null) {
+                boolean isNew = !fLogFile.exists();
+
+                // UTF-8 whatever the platform encoding, as repository paths can have any characters
+                fLogWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fLogFile, true), StandardCharsets.UTF_8));
+
+                if(isNew && !LOG_FORMAT_JSON.equals(fLogFormat)) {
+                    fLogWriter.write("time,repository,operation,millis,items,bytes\n"); //$NON-NLS-1$
+                }
+            }
+
+            fLogWriter.write(line + "\n"); //$NON-NLS-1$
+            fLogWriter.flush();
+        }
+        catch(IOException ex) {
+            ex.printStackTrace();
+            // Don't keep failing
+            closeLogWriter();
+            fLogFile = null;
+        }
+    }
+
+    private void closeLogWriter() {
+        if(fLogWriter != null) {
+            try {
+                fLogWriter.close();
+            }
+            catch(IOException ex) {
+                ex.printStackTrace();
+            }
+            fLogWriter = null;
+        }
+    }
+
+    private String escapeCSV(String s) {
+        if(s.contains(",") || s.contains("\"") || s.contains("\n")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            return "\"" + s.replace("\"", "\"\"") + "\""; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        }
+        return s;
+    }
+
+    /**
+     * Escape quotes, backslashes and control characters, which JSON strings can't contain
+     */
+    private String escapeJSON(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch(c) {
+                case '"':
+                    sb.append("\\\""); //$NON-NLS-1$
+                    break;
+                case '\\':
+                    sb.append("\\\\"); //$NON-NLS-1$
+                    break;
+                case '\n':
+                    sb.append("\\n"); //$NON-NLS-1$
+                    break;
+                case '\r':
+                    sb.append("\\r"); //$NON-NLS-1$
+                    break;
+                case '\t':
+                    sb.append("\\t"); //$NON-NLS-1$
+                    break;
+                default:
+                    if(c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int)c)); //$NON-NLS-1$
+                    }
+                    else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,569 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.jgit.api.CommitCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.PullCommand;
+import org.eclipse.jgit.api.PullResult;
+import org.eclipse.jgit.api.PushCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.attributes.Attributes;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuildIterator;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEditor.DeletePath;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig.EolStreamType;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RefUpdate.Result;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryState;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.TreeWalk.OperationType;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.io.EolStreamTypeUtil;
+
+import com.archimatetool.model.IArchimateModel;
+
+/**
+ * A unit of work on a repository, such as export, commit, pull and push, that keeps one Repository,
+ * ObjectReader and ObjectInserter open for all of its steps.
+ *
+ * The index is locked and read the first time it is needed, and changes to it are kept in memory and written once
+ * when the session is flushed or closed. Files that have not changed since they were staged are not read again.
+ * Git commands read and write the index themselves, so {@link #getGit()} flushes it first.
+ *
+ * A session is not thread safe, but can be handed from one thread to another.
+ */
+public class RepositorySession implements AutoCloseable {
+
+    private IArchiRepository fArchiRepo;
+    private Repository fRepository;
+    private Git fGit;
+    private ObjectReader fReader;
+    private ObjectInserter fInserter;
+
+    // Locked index, or null if it has not been read since the last flush
+    private DirCache fDirCache;
+    private boolean fDirCacheChanged;
+
+    // True if the working tree has been staged by this session since the last Git command
+    private boolean fStaged;
+
+    RepositorySession(IArchiRepository archiRepo) throws IOException {
+        this(archiRepo.openRepository(), archiRepo);
+    }
+
+    /**
+     * Open a session on a Repository that is not an IArchiRepository, such as a bare repository.
+     * The Repository is closed when the session is closed, so the caller's own reference stays open.
+     * @param repository
+     */
+    public RepositorySession(Repository repository) {
+        this(repository, null);
+        repository.incrementOpen();
+    }
+
+    private RepositorySession(Repository repository, IArchiRepository archiRepo) {
+        fArchiRepo = archiRepo;
+        fRepository = repository;
+        fGit = Git.wrap(fRepository);
+        fReader = fRepository.newObjectReader();
+        fInserter = fRepository.newObjectInserter();
+    }
+
+    /**
+     * @return The IArchiRepository, or null if the session was opened on a Repository
+     */
+    public IArchiRepository getArchiRepository() {
+        return fArchiRepo;
+    }
+
+    public Repository getRepository() {
+        return fRepository;
+    }
+
+    public ObjectReader getObjectReader() {
+        return fReader;
+    }
+
+    public ObjectInserter getObjectInserter() {
+        return fInserter;
+    }
+
+    /**
+     * @return Git for running commands. Changes to the index are written first and the index is unlocked.
+     * @throws IOException
+     */
+    public Git getGit() throws IOException {
+        flush();
+
+        // The command might change the working tree
+        fStaged = false;
+
+        return fGit;
+    }
+
+    /**
+     * @return The index, locked. Call {@link #setDirCacheChanged()} after changing it so that it is written.
+     * @throws IOException
+     */
+    public DirCache getDirCache() throws IOException {
+        if(fDirCache == null) {
+            fDirCache = fRepository.lockDirCache();
+            fDirCacheChanged = false;
+        }
+        return fDirCache;
+    }
+
+    /**
+     * Write the index when the session is flushed
+     */
+    public void setDirCacheChanged() {
+        fDirCacheChanged = true;
+    }
+
+    /**
+     * Stage all changes in the working tree, the same as "git add ." and "git rm" of missing files.
+     * Files with the same size and modified time as their index entry are not read.
+     * @throws IOException
+     */
+    public void stageAll() throws IOException {
+        DirCache dirCache = getDirCache();
+        DirCacheBuilder builder = dirCache.builder();
+        boolean changed = false;
+        String lastPath = null;
+
+        try(RepositoryMetrics.Timer timer = startTimer(RepositoryMetrics.STAGE); TreeWalk treeWalk = new TreeWalk(fRepository, fReader)) {
+            treeWalk.setOperationType(OperationType.CHECKIN_OP);
+            treeWalk.addTree(new DirCacheBuildIterator(builder));
+            FileTreeIterator fileTreeIterator = new FileTreeIterator(fRepository);
+            fileTreeIterator.setDirCacheIterator(treeWalk, 0);
+            treeWalk.addTree(fileTreeIterator);
+            treeWalk.setRecursive(true);
+
+            while(treeWalk.next()) {
+                DirCacheIterator dirCacheIterator = treeWalk.getTree(0, DirCacheIterator.class);
+                WorkingTreeIterator workingTreeIterator = treeWalk.getTree(1, WorkingTreeIterator.class);
+                DirCacheEntry entry = dirCacheIterator != null ? dirCacheIterator.getDirCacheEntry() : null;
+                String path = treeWalk.getPathString();
+
+                // A conflicting file has an entry for each stage, which are replaced by one
+                if(entry != null && entry.getStage() > 0 && path.equals(lastPath)) {
+                    continue;
+                }
+
+                // Missing so remove it
+                if(workingTreeIterator == null) {
+                    changed |= entry != null;
+                    continue;
+                }
+
+                // Not tracked and ignored
+                if(entry == null && workingTreeIterator.isEntryIgnored()) {
+                    continue;
+                }
+
+                FileMode mode = workingTreeIterator.getIndexFileMode(dirCacheIterator);
+
+                // Not changed
+                if(mode == FileMode.GITLINK || (entry != null && entry.getStage() == 0 && !workingTreeIterator.isModified(entry, true, fReader))) {
+                    if(entry != null) {
+                        builder.add(entry);
+                    }
+                    continue;
+                }
+
+                DirCacheEntry newEntry = new DirCacheEntry(treeWalk.getRawPath());
+                newEntry.setFileMode(mode);
+                newEntry.setLength(workingTreeIterator.getEntryLength());
+                newEntry.setLastModified(workingTreeIterator.getEntryLastModified());
+
+                long length = workingTreeIterator.getEntryContentLength();
+                try(InputStream in = workingTreeIterator.openEntryStream()) {
+                    newEntry.setObjectId(fInserter.insert(Constants.OBJ_BLOB, length, in));
+                }
+                timer.addItems(1);
+                timer.addBytes(length);
+
+                builder.add(newEntry);
+                changed = true;
+                lastPath = path;
+            }
+        }
+
+        if(changed) {
+            builder.finish();
+            setDirCacheChanged();
+        }
+
+        fStaged = true;
+    }
+
+    /**
+     * Stage files that are known to have been written or deleted, such as by an incremental export,
+     * without scanning the rest of the working tree, which is taken to be staged already.
+     * Line endings are converted as "git add" does, using the core.autocrlf setting (.gitattributes files are not used).
+     * If the index has conflicts all changes are staged instead.
+     * @param writtenFiles Files that were written
+     * @param deletedFiles Files that were deleted
+     * @throws IOException
+     */
+    public void stageFiles(Collection<File> writtenFiles, Collection<File> deletedFiles) throws IOException {
+        DirCache dirCache = getDirCache();
+
+        // An edit would be applied to each stage of a conflicting file
+        if(dirCache.hasUnmergedPaths()) {
+            stageAll();
+            return;
+        }
+
+        if(writtenFiles.isEmpty() && deletedFiles.isEmpty()) {
+            fStaged = true;
+            return;
+        }
+
+        try(RepositoryMetrics.Timer timer = startTimer(RepositoryMetrics.STAGE)) {
+            timer.addItems(writtenFiles.size() + deletedFiles.size());
+
+            EolStreamType eolStreamType = EolStreamTypeUtil.detectStreamType(OperationType.CHECKIN_OP,
+                    fRepository.getConfig().get(WorkingTreeOptions.KEY), new Attributes());
+
+            DirCacheEditor editor = dirCache.editor();
+
+            for(File file : deletedFiles) {
+                editor.add(new DeletePath(getPath(file)));
+            }
+
+            for(File file : writtenFiles) {
+                ByteBuffer buffer;
+                try(InputStream in = EolStreamTypeUtil.wrapInputStream(new FileInputStream(file), eolStreamType)) {
+                    buffer = IO.readWholeStream(in, (int)file.length());
+                }
+
+                ObjectId blobId = fInserter.insert(Constants.OBJ_BLOB, buffer.array(), 0, buffer.limit());
+                timer.addBytes(buffer.limit());
+                long length = file.length();
+                long lastModified = file.lastModified();
+
+                editor.add(new PathEdit(getPath(file)) {
+                    @Override
+                    public void apply(DirCacheEntry entry) {
+                        entry.setFileMode(FileMode.REGULAR_FILE);
+                        entry.setObjectId(blobId);
+                        entry.setLength(length);
+                        entry.setLastModified(lastModified);
+                    }
+                });
+            }
+
+            editor.finish();
+            setDirCacheChanged();
+        }
+
+        fStaged = true;
+    }
+
+    /**
+     * Stage all changes, unless this session has already staged them, and compare the index with HEAD.
+     * The session is then flushed so that the index is not kept locked while the user is asked what to do.
+     * @return true if there are changes to commit, or a merge to conclude
+     * @throws IOException
+     */
+    public boolean hasChangesToCommit() throws IOException {
+        try(RepositoryMetrics.Timer timer = startTimer(RepositoryMetrics.STATUS)) {
+            if(!fStaged) {
+                stageAll();
+            }
+            
+            if(fRepository.getRepositoryState() == RepositoryState.MERGING_RESOLVED) {
+                return true;
+            }
+            
+            DirCache dirCache = getDirCache();
+            if(dirCache.hasUnmergedPaths()) {
+                return true;
+            }
+            
+            try(TreeWalk treeWalk = new TreeWalk(fRepository, fReader)) {
+                ObjectId headId = fRepository.resolve(Constants.HEAD + "^{tree}"); //$NON-NLS-1$
+                if(headId != null) {
+                    treeWalk.addTree(headId);
+                }
+                else {
+                    treeWalk.addTree(new EmptyTreeIterator());
+                }
+                treeWalk.addTree(new DirCacheIterator(dirCache));
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(TreeFilter.ANY_DIFF);
+                return treeWalk.next();
+            }
+        }
+        finally {
+            flush();
+        }
+    }
+
+    /**
+     * Stage all changes and commit them
+     * @param commitMessage
+     * @param amend If true, previous commit is amended
+     * @return The commit, or null if there was nothing to commit
+     * @throws GitAPIException
+     * @throws IOException
+     */
+    public RevCommit commitChanges(String commitMessage, boolean amend) throws GitAPIException, IOException {
+        if(!hasChangesToCommit()) {
+            return null;
+        }
+
+        try(RepositoryMetrics.Timer timer = startTimer(RepositoryMetrics.COMMIT)) {
+            CommitCommand commitCommand = getGit().commit();
+            commitCommand.setAuthor(ArchiRepository.getUserDetails(fRepository));
+            commitCommand.setMessage(commitMessage);
+            commitCommand.setAmend(amend);
+            RevCommit commit = commitCommand.call();
+
+            ArchiRepository.updateIndexes(fRepository);
+
+            return commit;
+        }
+    }
+
+    /**
+     * Commit a model to the current branch without writing any files or changing the index.
+     * The model is exported as blobs and the commit's tree is built in memory. Files in HEAD that are not
+     * in the model or images folders are kept. This works with a bare repository. In a repository with a working tree
+     * the working tree and index are left as they were, so they will show the commit's changes as reverted.
+     *
+     * This is API for tools and scripts that commit a model without a working tree. The plug-in doesn't call it:
+     * the UI commits the Grafico files so that the working tree and index stay in step with the model, and the
+     * command line provider only clones and loads models.
+     * @param model The model
+     * @param commitMessage
+     * @return The commit, or null if the model is the same as in HEAD
+     * @throws IOException
+     */
+    public RevCommit commitModel(IArchimateModel model, String commitMessage) throws IOException {
+        try(RepositoryMetrics.Timer timer = startTimer(RepositoryMetrics.COMMIT)) {
+            File folder = fRepository.isBare() ? fRepository.getDirectory() : fRepository.getWorkTree();
+            Map<String, ObjectId> blobs = new GraficoModelExporter(model, folder).exportModelToObjects(fInserter);
+            timer.addItems(blobs.size());
+
+            RevCommit head = parseCommit(Constants.HEAD);
+
+            DirCache dirCache = DirCache.newInCore();
+            DirCacheBuilder builder = dirCache.builder();
+
+            // Keep other files
+            if(head != null) {
+                try(TreeWalk treeWalk = new TreeWalk(fRepository, fReader)) {
+                    treeWalk.addTree(head.getTree());
+                    treeWalk.setRecursive(true);
+                    while(treeWalk.next()) {
+                        String path = treeWalk.getPathString();
+                        if(!path.startsWith(IGraficoConstants.MODEL_FOLDER + "/") && !path.startsWith(IGraficoConstants.IMAGES_FOLDER + "/")) { //$NON-NLS-1$ //$NON-NLS-2$
+                            DirCacheEntry entry = new DirCacheEntry(treeWalk.getRawPath());
+                            entry.setFileMode(treeWalk.getFileMode(0));
+                            entry.setObjectId(treeWalk.getObjectId(0));
+                            builder.add(entry);
+                        }
+                    }
+                }
+            }
+
+            for(Entry<String, ObjectId> blob : blobs.entrySet()) {
+                DirCacheEntry entry = new DirCacheEntry(blob.getKey());
+                entry.setFileMode(FileMode.REGULAR_FILE);
+                entry.setObjectId(blob.getValue());
+                builder.add(entry);
+            }
+
+            builder.finish();
+            ObjectId treeId = dirCache.writeTree(fInserter);
+
+            // Nothing changed
+            if(head != null && treeId.equals(head.getTree())) {
+                return null;
+            }
+
+            // The same as the commit command
+            CommitBuilder commitBuilder = new CommitBuilder();
+            commitBuilder.setTreeId(treeId);
+            if(head != null) {
+                commitBuilder.setParentId(head);
+            }
+            commitBuilder.setAuthor(ArchiRepository.getUserDetails(fRepository));
+            commitBuilder.setCommitter(new PersonIdent(fRepository));
+            commitBuilder.setMessage(commitMessage);
+
+            ObjectId commitId = fInserter.insert(commitBuilder);
+            fInserter.flush();
+
+            RevCommit commit;
+            try(RevWalk revWalk = new RevWalk(fReader)) {
+                commit = revWalk.parseCommit(commitId);
+            }
+
+            RefUpdate refUpdate = fRepository.updateRef(Constants.HEAD);
+            refUpdate.setNewObjectId(commit);
+            refUpdate.setExpectedOldObjectId(head != null ? head : ObjectId.zeroId());
+            refUpdate.setRefLogMessage("commit: " + commit.getShortMessage(), false); //$NON-NLS-1$
+
+            Result result = refUpdate.update();
+            if(result != Result.NEW && result != Result.FAST_FORWARD) {
+                throw new IOException("Could not update HEAD: " + result); //$NON-NLS-1$
+            }
+
+            ArchiRepository.updateIndexes(fRepository);
+
+            return commit;
+        }
+    }
+
+    /**
+     * Pull from Remote
+     * @param userName
+     * @param userPassword
+     * @param monitor
+     * @return The result
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    public PullResult pullFromRemote(String userName, String userPassword, ProgressMonitor monitor) throws IOException, GitAPIException {
+        try(RepositoryMetrics.Timer timer = startTimer(RepositoryMetrics.PULL)) {
+            PullCommand pullCommand = getGit().pull();
+            pullCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
+            pullCommand.setRebase(false); // Merge, not rebase
+            pullCommand.setProgressMonitor(monitor);
+            PullResult pullResult = pullCommand.call();
+
+            ArchiRepository.updateIndexes(fRepository);
+
+            return pullResult;
+        }
+    }
+
+    /**
+     * Push to Remote
+     * @param userName
+     * @param userPassword
+     * @param monitor
+     * @return The results
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    public Iterable<PushResult> pushToRemote(String userName, String userPassword, ProgressMonitor monitor) throws IOException, GitAPIException {
+        try(RepositoryMetrics.Timer timer = startTimer(RepositoryMetrics.PUSH)) {
+            PushCommand pushCommand = getGit().push();
+            pushCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
+            pushCommand.setProgressMonitor(monitor);
+            return pushCommand.call();
+        }
+    }
+
+    /**
+     * Start timing an operation on this session's repository
+     */
+    private RepositoryMetrics.Timer startTimer(String operation) {
+        File folder = fArchiRepo != null ? fArchiRepo.getLocalRepositoryFolder()
+                : fRepository.isBare() ? fRepository.getDirectory() : fRepository.getWorkTree();
+        return RepositoryMetrics.INSTANCE.start(folder, operation);
+    }
+
+    /**
+     * @return The path of file in the working tree as used in the index
+     */
+    private String getPath(File file) {
+        String path = fRepository.getWorkTree().getAbsoluteFile().toPath().relativize(file.getAbsoluteFile().toPath()).toString();
+        return path.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @param ref A ref such as HEAD
+     * @return The commit of the ref, or null if there isn't one
+     * @throws IOException
+     */
+    public RevCommit parseCommit(String ref) throws IOException {
+        ObjectId id = fRepository.resolve(ref);
+        if(id == null) {
+            return null;
+        }
+        try(RevWalk revWalk = new RevWalk(fReader)) {
+            return revWalk.parseCommit(id);
+        }
+    }
+
+    /**
+     * Write inserted objects and any changes to the index, and unlock the index
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        fInserter.flush();
+
+        if(fDirCache != null) {
+            try {
+                if(fDirCacheChanged) {
+                    fDirCache.write();
+                    if(!fDirCache.commit()) {
+                        throw new IOException("Could not write index: " + fRepository.getIndexFile()); //$NON-NLS-1$
+                    }
+                }
+            }
+            finally {
+                fDirCache.unlock();
+                fDirCache = null;
+                fDirCacheChanged = false;
+            }
+        }
+    }
+
+    /**
+     * Flush and close
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        }
+        finally {
+            fInserter.close();
+            fReader.close();
+            fGit.close();
+            fRepository.close();
+        }
+    }
+}
@@ -5,42 +5,54 @@
  */
 package org.archicontribs.modelrepository.merge;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
-import org.archicontribs.modelrepository.grafico.GraficoModelImporter;
+import org.archicontribs.modelrepository.grafico.GraficoModelExporter;
+import org.archicontribs.modelrepository.grafico.GraficoObjectLoader;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.RepositoryMetrics;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.emf.ecore.EObject;
 import org.eclipse.jface.dialogs.Dialog;
 import org.eclipse.jface.window.Window;
-import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.CheckoutCommand;
 import org.eclipse.jgit.api.CheckoutCommand.Stage;
-import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.errors.CanceledException;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
-import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.swt.widgets.Shell;
 
-import com.archimatetool.editor.utils.FileUtils;
 import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IIdentifier;
 
 /**
  * Handle Merge Conflicts on a MergeResult
  * 
+ * Only the conflicting objects are loaded. Our objects are taken from the loaded model. Their objects are read from
+ * their commit with the objects they refer to, rather than extracting their whole model.
+ * 
+ * An object changed on both sides is merged feature by feature with the base object. Only objects with features
+ * changed differently on both sides, or deleted on one side, are shown to the user.
+ * 
  * @author Phillip Beauvoir
  */
 public class MergeConflictHandler {
@@ -51,7 +63,10 @@ public class MergeConflictHandler {
     
     private List<MergeObjectInfo> fMergeObjectInfos;
     
-    private IArchimateModel fOurModel, fTheirModel;
+    // Conflicting files that were merged feature by feature
+    private List<ObjectMerger> fObjectMergers = new ArrayList<ObjectMerger>();
+    
+    private IArchimateModel fOurModel;
     
     private IProgressMonitor fProgressMonitor;
 
@@ -75,16 +90,21 @@ public class MergeConflictHandler {
             throw new IOException(Messages.MergeConflictHandler_0);
         }
         
-        // Their model needs to be extracted
-        fTheirModel = extractModel(MergeObjectInfo.REF_THEIRS);
-        
         // Create Merge Infos
-        fMergeObjectInfos = new ArrayList<MergeObjectInfo>();
-        for(String xmlPath : fMergeResult.getConflicts().keySet()) {
-            fMergeObjectInfos.add(new MergeObjectInfo(xmlPath, this));
+        try(RepositoryMetrics.Timer timer = RepositoryMetrics.INSTANCE.start(fArchiRepo, RepositoryMetrics.MERGE_PREPARATION)) {
+            fObjectMergers.clear();
+            fMergeObjectInfos = createMergeObjectInfos();
+            timer.addItems(fObjectMergers.size() + fMergeObjectInfos.size());
         }
     }
     
+    /**
+     * @return true if there are conflicts that the user has to choose ours or theirs for
+     */
+    public boolean hasConflicts() {
+        return !fMergeObjectInfos.isEmpty();
+    }
+    
     public boolean openConflictsDialog() {
         Dialog dialog = new ConflictsDialog(fShell, this);
         return dialog.open() == Window.OK ? true : false;
@@ -96,6 +116,18 @@ public class MergeConflictHandler {
      * @throws GitAPIException
      */
     public void merge() throws IOException, GitAPIException {
+        // Merge objects into our model and write their files
+        if(!fObjectMergers.isEmpty()) {
+            List<EObject> objects = new ArrayList<EObject>();
+            for(ObjectMerger merger : fObjectMergers) {
+                merger.apply();
+                objects.add(merger.getObject());
+            }
+            
+            GraficoModelExporter exporter = new GraficoModelExporter(fOurModel, fArchiRepo.getLocalRepositoryFolder());
+            exporter.exportObjects(objects, Collections.<String>emptyList());
+        }
+        
         List<String> ours = new ArrayList<>();
         List<String> theirs = new ArrayList<>();
         
@@ -110,7 +142,7 @@ public class MergeConflictHandler {
             }
         }
         
-        try(Git git = Git.open(fArchiRepo.getLocalRepositoryFolder())) {
+        try(Repository repository = fArchiRepo.openRepository(); Git git = Git.wrap(repository)) {
             if(!ours.isEmpty()) {
                 checkout(git, Stage.OURS, ours);
             }
@@ -120,34 +152,6 @@ public class MergeConflictHandler {
         }
     }
     
-    /**
-     * Do a merge followed by a commit
-     * @param commitMessage
-     * @param amend
-     * @throws IOException
-     * @throws GitAPIException
-     */
-    public void mergeAndCommit(String commitMessage, boolean amend) throws IOException, GitAPIException {
-        merge();
-        
-        // Commit
-        try(Git git = Git.open(fArchiRepo.getLocalRepositoryFolder())) {
-            // Add to index all files
-            AddCommand addCommand = git.add();
-            addCommand.addFilepattern("."); //$NON-NLS-1$
-            addCommand.setUpdate(false);
-            addCommand.call();
-            
-            // Commit
-            CommitCommand commitCommand = git.commit();
-            PersonIdent userDetails = fArchiRepo.getUserDetails();
-            commitCommand.setAuthor(userDetails);
-            commitCommand.setMessage(commitMessage);
-            commitCommand.setAmend(amend);
-            commitCommand.call();
-        }
-    }
-    
     public void resetToLocalState() throws IOException, GitAPIException {
         resetToState(MergeObjectInfo.REF_OURS);
     }
@@ -166,7 +170,7 @@ public class MergeConflictHandler {
     
     private void resetToState(String ref) throws IOException, GitAPIException {
         // Reset HARD  which will lose all changes
-        try(Git git = Git.open(fArchiRepo.getLocalRepositoryFolder())) {
+        try(Repository repository = fArchiRepo.openRepository(); Git git = Git.wrap(repository)) {
             ResetCommand resetCommand = git.reset();
             resetCommand.setRef(ref);
             resetCommand.setMode(ResetType.HARD);
@@ -185,68 +189,124 @@ public class MergeConflictHandler {
     IArchimateModel getOurModel() {
         return fOurModel;
     }
-    
-    IArchimateModel getTheirModel() {
-        return fTheirModel;
-    }
 
-    /**
-     * Extract a model from either our latest commit or their latest online commit
-     * ref = "refs/head/master" or "origin/master"
-     * @throws CanceledException 
-     */
-    private IArchimateModel extractModel(String ref) throws IOException, CanceledException {
-        File tmpFolder = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.tmp"); //$NON-NLS-1$ //$NON-NLS-2$
-        FileUtils.deleteFolder(tmpFolder);
-        tmpFolder.mkdirs();
+    private List<MergeObjectInfo> createMergeObjectInfos() throws IOException, CanceledException {
+        List<MergeObjectInfo> infos = new ArrayList<MergeObjectInfo>();
         
-        try(Repository repository = Git.open(fArchiRepo.getLocalRepositoryFolder()).getRepository()) {
-            RevCommit commit = null;
+        List<String> paths = new ArrayList<String>(fMergeResult.getConflicts().keySet());
+        if(paths.isEmpty()) {
+            return infos;
+        }
+        
+        try(Repository repository = fArchiRepo.openRepository(); RevWalk revWalk = new RevWalk(repository)) {
+            RevCommit ourCommit = parseCommit(repository, revWalk, MergeObjectInfo.REF_OURS);
+            RevCommit theirCommit = parseCommit(repository, revWalk, MergeObjectInfo.REF_THEIRS);
+            ObjectId baseId = fMergeResult.getBase();
             
-            // Get the commit
-            // A RevWalk walks over commits based on some filtering that is defined
-            try(RevWalk revWalk = new RevWalk(repository)) {
-                // We are interested in the origin master branch
-                ObjectId objectID = repository.resolve(ref);
-                if(objectID != null) {
-                    commit = revWalk.parseCommit(objectID);
+            // The blobs of the conflicting files in ours, theirs and the merge base, from one walk of the three trees
+            Map<String, ObjectId[]> blobs = new HashMap<String, ObjectId[]>();
+            
+            try(TreeWalk treeWalk = new TreeWalk(repository)) {
+                treeWalk.addTree(ourCommit.getTree());
+                treeWalk.addTree(theirCommit.getTree());
+                if(baseId != null) {
+                    treeWalk.addTree(revWalk.parseCommit(baseId).getTree());
                 }
+                else {
+                    treeWalk.addTree(new EmptyTreeIterator());
+                }
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
                 
-                revWalk.dispose();
+                while(treeWalk.next()) {
+                    ObjectId[] ids = new ObjectId[3];
+                    for(int i = 0; i < ids.length; i++) {
+                        if(treeWalk.getFileMode(i) != FileMode.MISSING) {
+                            ids[i] = treeWalk.getObjectId(i);
+                        }
+                    }
+                    blobs.put(treeWalk.getPathString(), ids);
+                }
             }
             
-            if(commit == null) {
-                throw new IOException(Messages.MergeConflictHandler_1);
+            checkCanceled();
+            
+            // Their objects and the objects they refer to
+            Map<String, ObjectId> theirFiles = new LinkedHashMap<String, ObjectId>();
+            for(Entry<String, ObjectId[]> entry : blobs.entrySet()) {
+                if(entry.getValue()[MergeObjectInfo.THEIRS] != null) {
+                    theirFiles.put(entry.getKey(), entry.getValue()[MergeObjectInfo.THEIRS]);
+                }
             }
+            Map<String, EObject> theirObjects = new GraficoObjectLoader(repository, theirCommit.getTree()).load(theirFiles);
             
-            // Walk the tree and get the contents of the commit
-            try(TreeWalk treeWalk = new TreeWalk(repository)) {
-                treeWalk.addTree(commit.getTree());
-                treeWalk.setRecursive(true);
-
-                while(treeWalk.next()) {
-                    if(fProgressMonitor != null && fProgressMonitor.isCanceled()) {
-                        throw new CanceledException(Messages.MergeConflictHandler_2);
-                    }
-                    
-                    ObjectId objectId = treeWalk.getObjectId(0);
-                    ObjectLoader loader = repository.open(objectId);
-                    
-                    File file = new File(tmpFolder, treeWalk.getPathString());
-                    file.getParentFile().mkdirs();
+            checkCanceled();
+            
+            // Our objects are in the loaded model
+            Map<String, EObject> ourObjects = getObjectsByID(fOurModel);
+            GraficoObjectLoader ourLoader = new GraficoObjectLoader(repository, ourCommit.getTree());
+            
+            GraficoObjectLoader baseLoader = baseId != null ? new GraficoObjectLoader(repository, revWalk.parseCommit(baseId).getTree()) : null;
+            
+            for(String path : paths) {
+                ObjectId[] ids = blobs.get(path);
+                if(ids == null) {
+                    ids = new ObjectId[3];
+                }
+                
+                EObject ourObject = null;
+                if(ids[MergeObjectInfo.OURS] != null) {
+                    ourObject = ourObjects.get(ourLoader.getID(path, ids[MergeObjectInfo.OURS]));
+                }
+                
+                EObject theirObject = theirObjects.get(path);
+                List<String> conflicts = Collections.emptyList();
+                
+                // Changed on both sides so merge the features. The third tree is the merge base.
+                if(ourObject != null && theirObject != null && ids[2] != null && baseLoader != null) {
+                    ObjectMerger merger = new ObjectMerger(ourObjects);
                     
-                    try(FileOutputStream out = new FileOutputStream(file)) {
-                        loader.copyTo(out);
+                    // No conflicts so it doesn't need to be shown
+                    if(merger.merge(baseLoader.read(path, ids[2]), ourObject, theirObject)) {
+                        fObjectMergers.add(merger);
+                        continue;
                     }
+                    
+                    conflicts = merger.getConflicts();
                 }
+                
+                infos.add(new MergeObjectInfo(path, ourObject, theirObject, conflicts));
             }
         }
-
-        // Load it
-        GraficoModelImporter importer = new GraficoModelImporter(tmpFolder);
-        IArchimateModel model = importer.importAsModel();
-        FileUtils.deleteFolder(tmpFolder);
-        return model;
+        
+        return infos;
+    }
+    
+    private RevCommit parseCommit(Repository repository, RevWalk revWalk, String ref) throws IOException {
+        ObjectId objectID = repository.resolve(ref);
+        if(objectID == null) {
+            throw new IOException(Messages.MergeConflictHandler_1);
+        }
+        return revWalk.parseCommit(objectID);
     }
     
+    private Map<String, EObject> getObjectsByID(IArchimateModel model) {
+        Map<String, EObject> objects = new HashMap<String, EObject>();
+        objects.put(model.getId(), model);
+        
+        for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IIdentifier) {
+                objects.put(((IIdentifier)eObject).getId(), eObject);
+            }
+        }
+        
+        return objects;
+    }
+    
+    private void checkCanceled() throws CanceledException {
+        if(fProgressMonitor != null && fProgressMonitor.isCanceled()) {
+            throw new CanceledException(Messages.MergeConflictHandler_2);
+        }
+    }
 }
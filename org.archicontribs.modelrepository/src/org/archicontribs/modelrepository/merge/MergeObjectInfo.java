@@ -5,20 +5,10 @@
  */
 package org.archicontribs.modelrepository.merge;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+import java.util.List;
 
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
-import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
-import org.eclipse.emf.ecore.resource.ResourceSet;
-import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
-import org.eclipse.emf.ecore.xmi.XMLResource;
-import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
-
-import com.archimatetool.model.IArchimateModel;
-import com.archimatetool.model.IIdentifier;
-import com.archimatetool.model.util.ArchimateModelUtils;
 
 /**
  * Information about a merge conflict object
@@ -27,13 +17,14 @@ import com.archimatetool.model.util.ArchimateModelUtils;
  */
 class MergeObjectInfo {
 
-    private MergeConflictHandler handler;
-
     private String xmlPath;
     
     // Referenced EObjects - ours and theirs
     private EObject[] objects = new EObject[2];
     
+    // Features changed on both sides, or empty if not known
+    private List<String> conflicts;
+    
     public static int OURS = 0;
     public static int THEIRS = 1;
     
@@ -43,12 +34,18 @@ class MergeObjectInfo {
     // User's choice
     private int userChoice = OURS;
 
-    MergeObjectInfo(String xmlPath, MergeConflictHandler handler) throws IOException {
-        this.handler = handler;
+    /**
+     * @param xmlPath The conflicting file
+     * @param ourObject Our object, or null if we deleted it
+     * @param theirObject Their object, or null if they deleted it
+     * @param conflicts Features changed on both sides, or empty if not known
+     */
+    MergeObjectInfo(String xmlPath, EObject ourObject, EObject theirObject, List<String> conflicts) {
         this.xmlPath = xmlPath;
+        this.conflicts = conflicts;
         
-        objects[OURS] = loadEObject(REF_OURS);
-        objects[THEIRS] = loadEObject(REF_THEIRS);
+        objects[OURS] = ourObject;
+        objects[THEIRS] = theirObject;
     }
     
     String getXMLPath() {
@@ -72,6 +69,10 @@ class MergeObjectInfo {
             return Messages.MergeObjectInfo_1;
         }
         
+        if(!conflicts.isEmpty()) {
+            return Messages.MergeObjectInfo_3 + " " + String.join(", ", conflicts); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        
         return Messages.MergeObjectInfo_2;
     }
     
@@ -82,48 +83,4 @@ class MergeObjectInfo {
     int getUserChoice() {
         return userChoice;
     }
-
-    /**
-     * Load the EObject from the ours or theirs XML file so we can get its ID
-     * Once we have its ID we can load the real EObject from either "theirs" or "ours" full model.
-     * We do this because some EObjects have proxy references to other EObjects that would need resolving
-     * Returns null if the file contents does not exist (either we or they deleted the object)
-     * ref is either ours or theirs
-     */
-    private EObject loadEObject(String ref) throws IOException {
-        // Load the contents of the ref not the actual file because "theirs" is not an actual file
-        String contents = handler.getArchiRepository().getFileContents(xmlPath, ref);
-        // Not found so was deleted by us or them
-        if(contents == null) {
-            return null;
-        }
-        
-        ResourceSet resourceSet = new ResourceSetImpl();
-        resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl()); //$NON-NLS-1$
-
-        XMLResource resource = (XMLResource)resourceSet.createResource(URI.createFileURI(handler.getArchiRepository().getLocalGitFolder().toString()));
-        resource.getDefaultLoadOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
-
-        resource.load(new ByteArrayInputStream(contents.getBytes()), null);
-        EObject eObject = resource.getContents().get(0);
-        
-        if(!(eObject instanceof IIdentifier)) {
-            throw new IOException("EObject has no ID"); //$NON-NLS-1$
-        }
-        
-        // Get the ID
-        String id = ((IIdentifier)eObject).getId();
-        
-        // Now get the full object from the appropriate model
-        IArchimateModel model = null;
-        
-        if(ref == REF_OURS) { // Ours
-            model = handler.getOurModel();
-        }
-        else {
-            model = handler.getTheirModel();
-        }
-
-        return ArchimateModelUtils.getObjectByID(model, id);
-    }
 }
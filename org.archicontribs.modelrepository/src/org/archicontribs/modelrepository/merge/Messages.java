@@ -71,6 +71,8 @@ public class Messages extends NLS {
     public static String MergeObjectInfo_1;
 
     public static String MergeObjectInfo_2;
+
+    public static String MergeObjectInfo_3;
     static {
         // initialize resource bundle
         NLS.initializeMessages(BUNDLE_NAME, Messages.class);
@@ -0,0 +1,502 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.merge;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.eclipse.emf.common.util.ECollections;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+import com.archimatetool.editor.utils.StringUtils;
+import com.archimatetool.model.IArchimatePackage;
+import com.archimatetool.model.IIdentifier;
+import com.archimatetool.model.INameable;
+import com.archimatetool.model.IProperty;
+
+/**
+ * Three-way merge of the object in a conflicting file, feature by feature.
+ *
+ * A feature changed on only one side takes that side's value, so changes to different features of the same object,
+ * such as the name on one side and the documentation on the other, merge without a conflict.
+ * Child objects with IDs, such as diagram objects and connections, and properties by key, are matched and merged in
+ * the same way so that changes to different children merge as well.
+ *
+ * The base and their objects are read from files so refer to objects in other files as proxies. References are
+ * compared by the ID of the referenced object, and their values are set to our objects with the same IDs.
+ *
+ * Nothing in our model is changed until {@link #apply()} is called.
+ */
+class ObjectMerger {
+
+    // ID -> object in our model
+    private Map<String, EObject> fOurObjects;
+
+    // ID -> copy of an object they added
+    private Map<String, EObject> fNewObjects = new HashMap<String, EObject>();
+
+    // Copies of objects they added, to be added to our model
+    private List<EObject> fCopies = new ArrayList<EObject>();
+
+    // IDs of objects that their reference values refer to -> label of the reference
+    private Map<String, String> fReferencedIDs = new HashMap<String, String>();
+
+    private List<Runnable> fChanges = new ArrayList<Runnable>();
+
+    private Set<String> fConflicts = new LinkedHashSet<String>();
+
+    private EObject fObject;
+
+    /**
+     * @param ourObjects ID -> object in our model
+     */
+    ObjectMerger(Map<String, EObject> ourObjects) {
+        fOurObjects = ourObjects;
+    }
+
+    /**
+     * Work out the changes to make to our object
+     * @param base The base object
+     * @param ours Our object in our model
+     * @param theirs Their object
+     * @return true if there are no conflicts
+     */
+    boolean merge(EObject base, EObject ours, EObject theirs) {
+        fObject = ours;
+
+        mergeObject(base, ours, theirs);
+
+        // Everything that their values refer to has to be in our model or added with this merge
+        for(Map.Entry<String, String> entry : fReferencedIDs.entrySet()) {
+            if(findObject(entry.getKey()) == null) {
+                fConflicts.add(entry.getValue());
+            }
+        }
+        for(EObject copy : fCopies) {
+            for(EObject eObject : getAllContents(copy)) {
+                for(EReference reference : eObject.eClass().getEAllReferences()) {
+                    if(isMerged(reference) && !reference.isContainment()) {
+                        for(EObject value : getValues(eObject, reference)) {
+                            if(!EcoreUtil.isAncestor(copy, value) && findObject(getID(value)) == null) {
+                                fConflicts.add(getLabel(eObject, reference));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return fConflicts.isEmpty();
+    }
+
+    /**
+     * @return Labels of the features changed on both sides
+     */
+    List<String> getConflicts() {
+        return new ArrayList<String>(fConflicts);
+    }
+
+    /**
+     * @return Our object
+     */
+    EObject getObject() {
+        return fObject;
+    }
+
+    /**
+     * Make the changes to our object
+     */
+    void apply() {
+        for(Runnable change : fChanges) {
+            change.run();
+        }
+
+        // Copies still refer to their objects, and our objects might refer to our children that were replaced
+        EObject root = EcoreUtil.getRootContainer(fObject);
+        Map<String, EObject> objects = new HashMap<String, EObject>();
+        for(EObject eObject : getAllContents(fObject)) {
+            String id = getID(eObject);
+            if(id != null) {
+                objects.put(id, eObject);
+            }
+        }
+
+        for(EObject eObject : getAllContents(fObject)) {
+            for(EReference reference : eObject.eClass().getEAllReferences()) {
+                if(!isMerged(reference) || reference.isContainment()) {
+                    continue;
+                }
+
+                List<EObject> values = getValues(eObject, reference);
+                List<EObject> newValues = new ArrayList<EObject>(values.size());
+                boolean changed = false;
+
+                for(EObject value : values) {
+                    if(value.eIsProxy() || EcoreUtil.getRootContainer(value) != root) {
+                        EObject newValue = objects.get(getID(value));
+                        if(newValue == null) {
+                            newValue = findObject(getID(value));
+                        }
+                        if(newValue != null) {
+                            value = newValue;
+                            changed = true;
+                        }
+                    }
+                    newValues.add(value);
+                }
+
+                if(changed) {
+                    setValues(eObject, reference, newValues);
+                }
+            }
+        }
+    }
+
+    private void mergeObject(EObject base, EObject ours, EObject theirs) {
+        if(ours.eClass() != theirs.eClass() || base.eClass() != ours.eClass()) {
+            fConflicts.add(getLabel(ours, null));
+            return;
+        }
+
+        for(EStructuralFeature feature : ours.eClass().getEAllStructuralFeatures()) {
+            if(!isMerged(feature)) {
+                continue;
+            }
+
+            Object baseValue = base.eGet(feature, false);
+            Object ourValue = ours.eGet(feature, false);
+            Object theirValue = theirs.eGet(feature, false);
+
+            // Same on both sides, or only we changed it
+            if(isEqual(feature, ourValue, theirValue) || isEqual(feature, baseValue, theirValue)) {
+                continue;
+            }
+
+            // Only they changed it
+            if(isEqual(feature, baseValue, ourValue)) {
+                takeTheirs(ours, feature, theirValue);
+                continue;
+            }
+
+            // Both changed it, so merge the children
+            if(feature instanceof EReference && ((EReference)feature).isContainment()) {
+                if(feature.isMany()) {
+                    List<EObject> baseChildren = getValues(base, (EReference)feature);
+                    List<EObject> ourChildren = getValues(ours, (EReference)feature);
+                    List<EObject> theirChildren = getValues(theirs, (EReference)feature);
+
+                    if(hasKeys(baseChildren) && hasKeys(ourChildren) && hasKeys(theirChildren)) {
+                        mergeChildren(ours, (EReference)feature, baseChildren, ourChildren, theirChildren);
+                        continue;
+                    }
+                }
+                else if(baseValue != null && ourValue != null && theirValue != null) {
+                    mergeObject((EObject)baseValue, (EObject)ourValue, (EObject)theirValue);
+                    continue;
+                }
+            }
+
+            fConflicts.add(getLabel(ours, feature));
+        }
+    }
+
+    /**
+     * Merge children matched by their keys. Our order is kept and children they added are put after the child before them in their list.
+     */
+    private void mergeChildren(EObject ours, EReference reference, List<EObject> baseChildren, List<EObject> ourChildren, List<EObject> theirChildren) {
+        Map<String, EObject> baseMap = getKeyMap(baseChildren);
+        Map<String, EObject> ourMap = getKeyMap(ourChildren);
+        Map<String, EObject> theirMap = getKeyMap(theirChildren);
+
+        List<EObject> children = new ArrayList<EObject>();
+        List<String> keys = new ArrayList<String>();
+        boolean changed = false;
+
+        for(EObject ourChild : ourChildren) {
+            String key = getKey(ourChild);
+            EObject baseChild = baseMap.get(key);
+            EObject theirChild = theirMap.get(key);
+
+            if(theirChild != null) {
+                // Added on both sides
+                if(baseChild == null) {
+                    if(!isEqual(ourChild, theirChild)) {
+                        fConflicts.add(getLabel(ourChild, null));
+                    }
+                }
+                else {
+                    mergeObject(baseChild, ourChild, theirChild);
+                }
+            }
+            // Deleted by them and not changed by us
+            else if(baseChild != null && isEqual(baseChild, ourChild)) {
+                changed = true;
+                continue;
+            }
+            // Deleted by them and changed by us
+            else if(baseChild != null) {
+                fConflicts.add(getLabel(ourChild, null));
+            }
+
+            children.add(ourChild);
+            keys.add(key);
+        }
+
+        int index = 0;
+
+        for(EObject theirChild : theirChildren) {
+            String key = getKey(theirChild);
+
+            if(ourMap.containsKey(key)) {
+                int ourIndex = keys.indexOf(key);
+                if(ourIndex != -1) {
+                    index = ourIndex + 1;
+                }
+                continue;
+            }
+
+            EObject baseChild = baseMap.get(key);
+
+            // Added by them
+            if(baseChild == null) {
+                children.add(index, copy(theirChild));
+                keys.add(index++, key);
+                changed = true;
+            }
+            // Deleted by us and changed by them
+            else if(!isEqual(baseChild, theirChild)) {
+                fConflicts.add(getLabel(theirChild, null));
+            }
+        }
+
+        if(changed) {
+            fChanges.add(() -> setValues(ours, reference, children));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void takeTheirs(EObject ours, EStructuralFeature feature, Object theirValue) {
+        if(feature instanceof EAttribute) {
+            Object value = feature.isMany() ? new ArrayList<Object>((List<Object>)theirValue) : theirValue;
+            fChanges.add(() -> setValue(ours, feature, value));
+            return;
+        }
+
+        EReference reference = (EReference)feature;
+        List<EObject> theirValues = getValues(theirValue);
+
+        if(reference.isContainment()) {
+            List<EObject> copies = new ArrayList<EObject>();
+            for(EObject value : theirValues) {
+                copies.add(copy(value));
+            }
+            fChanges.add(() -> setValues(ours, reference, copies));
+        }
+        else {
+            // Our objects are found when applied, as some may be copies of their objects
+            List<String> ids = new ArrayList<String>();
+            for(EObject value : theirValues) {
+                ids.add(getID(value));
+                fReferencedIDs.put(getID(value), getLabel(ours, reference));
+            }
+            fChanges.add(() -> {
+                List<EObject> values = new ArrayList<EObject>();
+                for(String id : ids) {
+                    values.add(findObject(id));
+                }
+                setValues(ours, reference, values);
+            });
+        }
+    }
+
+    private EObject copy(EObject eObject) {
+        EObject copy = EcoreUtil.copy(eObject);
+
+        for(EObject child : getAllContents(copy)) {
+            String id = getID(child);
+            if(id != null) {
+                fNewObjects.put(id, child);
+            }
+        }
+
+        fCopies.add(copy);
+        return copy;
+    }
+
+    private EObject findObject(String id) {
+        EObject eObject = fNewObjects.get(id);
+        return eObject != null ? eObject : fOurObjects.get(id);
+    }
+
+    /**
+     * @return true if the feature is saved in the object's file and can be merged.
+     * Child folders and elements have their own files.
+     */
+    private boolean isMerged(EStructuralFeature feature) {
+        return feature.isChangeable() && !feature.isTransient() && !feature.isDerived() && !feature.isVolatile()
+                && !(feature instanceof EReference && ((EReference)feature).isContainer())
+                && feature != IArchimatePackage.Literals.FOLDER_CONTAINER__FOLDERS
+                && feature != IArchimatePackage.Literals.FOLDER__ELEMENTS;
+    }
+
+    /**
+     * @return true if the values are the same, comparing contained objects by their features and other objects by their IDs
+     */
+    private boolean isEqual(EStructuralFeature feature, Object value1, Object value2) {
+        if(feature instanceof EAttribute) {
+            return Objects.equals(value1, value2);
+        }
+
+        EReference reference = (EReference)feature;
+        List<EObject> values1 = getValues(value1);
+        List<EObject> values2 = getValues(value2);
+
+        if(values1.size() != values2.size()) {
+            return false;
+        }
+
+        for(int i = 0; i < values1.size(); i++) {
+            if(reference.isContainment() ? !isEqual(values1.get(i), values2.get(i)) : !Objects.equals(getID(values1.get(i)), getID(values2.get(i)))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isEqual(EObject eObject1, EObject eObject2) {
+        if(eObject1.eClass() != eObject2.eClass()) {
+            return false;
+        }
+
+        for(EStructuralFeature feature : eObject1.eClass().getEAllStructuralFeatures()) {
+            if(isMerged(feature) && !isEqual(feature, eObject1.eGet(feature, false), eObject2.eGet(feature, false))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The key that children are matched by, the ID or a property's key
+     */
+    private String getKey(EObject eObject) {
+        if(eObject instanceof IIdentifier) {
+            return ((IIdentifier)eObject).getId();
+        }
+        if(eObject instanceof IProperty) {
+            return ((IProperty)eObject).getKey();
+        }
+        return null;
+    }
+
+    /**
+     * @return true if all children have a key and no two have the same one
+     */
+    private boolean hasKeys(List<EObject> children) {
+        Set<String> keys = new HashSet<String>();
+        for(EObject child : children) {
+            String key = getKey(child);
+            if(key == null || !keys.add(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<String, EObject> getKeyMap(List<EObject> children) {
+        Map<String, EObject> map = new HashMap<String, EObject>();
+        for(EObject child : children) {
+            map.put(getKey(child), child);
+        }
+        return map;
+    }
+
+    /**
+     * @return The ID of an object, or of the object a proxy stands for
+     */
+    private String getID(EObject eObject) {
+        if(eObject.eIsProxy()) {
+            return EcoreUtil.getURI(eObject).fragment();
+        }
+        return EcoreUtil.getID(eObject);
+    }
+
+    /**
+     * @return The feature's name, and for a child object its name or type
+     */
+    private String getLabel(EObject eObject, EStructuralFeature feature) {
+        if(eObject == fObject && feature != null) {
+            return feature.getName();
+        }
+
+        String label = eObject.eClass().getName();
+        if(eObject instanceof INameable && StringUtils.isSet(((INameable)eObject).getName())) {
+            label = ((INameable)eObject).getName();
+        }
+
+        return feature == null ? label : label + "." + feature.getName(); //$NON-NLS-1$
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<EObject> getValues(Object value) {
+        if(value == null) {
+            return new ArrayList<EObject>();
+        }
+        if(value instanceof List) {
+            return new ArrayList<EObject>((List<EObject>)value);
+        }
+        List<EObject> values = new ArrayList<EObject>();
+        values.add((EObject)value);
+        return values;
+    }
+
+    private List<EObject> getValues(EObject eObject, EReference reference) {
+        return getValues(eObject.eGet(reference, false));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void setValues(EObject eObject, EReference reference, List<EObject> values) {
+        if(reference.isMany()) {
+            ECollections.setEList((EList<EObject>)eObject.eGet(reference), values);
+        }
+        else {
+            eObject.eSet(reference, values.isEmpty() ? null : values.get(0));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void setValue(EObject eObject, EStructuralFeature feature, Object value) {
+        if(feature.isMany()) {
+            ECollections.setEList((EList<Object>)eObject.eGet(feature), (List<Object>)value);
+        }
+        else {
+            eObject.eSet(feature, value);
+        }
+    }
+
+    private List<EObject> getAllContents(EObject root) {
+        List<EObject> eObjects = new ArrayList<EObject>();
+        eObjects.add(root);
+        for(Iterator<EObject> iter = root.eAllContents(); iter.hasNext();) {
+            eObjects.add(iter.next());
+        }
+        return eObjects;
+    }
+}
@@ -28,4 +28,6 @@ public interface IPreferenceConstants {
     String PREFS_EXPORT_MAX_THREADS = "exportMaxThreads";  //$NON-NLS-1$
     
     String PREFS_FETCH_IN_BACKGROUND = "fetchInBackground";  //$NON-NLS-1$
+    
+    String PREFS_METRICS_LOG = "metricsLog";  //$NON-NLS-1$
  }
@@ -13,6 +13,7 @@ import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.authentication.SimpleCredentialsStorage;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.RepositoryMetrics;
 import org.eclipse.jface.preference.PreferencePage;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.PersonIdent;
@@ -24,6 +25,7 @@ import org.eclipse.swt.events.VerifyListener;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.DirectoryDialog;
@@ -61,6 +63,11 @@ implements IWorkbenchPreferencePage, IPreferenceConstants {
     
     private Button fFetchInBackgroundButton;
     
+    private Combo fMetricsLogCombo;
+    
+    // Values of PREFS_METRICS_LOG in the order of the combo items
+    private static final String[] METRICS_LOG_FORMATS = { "", RepositoryMetrics.LOG_FORMAT_CSV, RepositoryMetrics.LOG_FORMAT_JSON }; //$NON-NLS-1$
+    
     private Button fUseProxyButton, fRequiresProxyAuthenticationButton;
     private Text fProxyHostTextField;
     private Text fProxyPortTextField;
@@ -130,6 +137,14 @@ implements IWorkbenchPreferencePage, IPreferenceConstants {
             }
         });
         
+        // Metrics log
+        label = new Label(settingsGroup, SWT.NULL);
+        label.setText(Messages.ModelRepositoryPreferencePage_20);
+        
+        fMetricsLogCombo = new Combo(settingsGroup, SWT.READ_ONLY);
+        fMetricsLogCombo.setItems(new String[] { Messages.ModelRepositoryPreferencePage_21, Messages.ModelRepositoryPreferencePage_22,
+                Messages.ModelRepositoryPreferencePage_23 });
+        
         
         // Repository Group
         Group repositoryGroup = new Group(client, SWT.NULL);
@@ -265,6 +280,7 @@ implements IWorkbenchPreferencePage, IPreferenceConstants {
         
         fUserRepoFolderTextField.setText(getPreferenceStore().getString(PREFS_REPOSITORY_FOLDER));
         fFetchInBackgroundButton.setSelection(getPreferenceStore().getBoolean(PREFS_FETCH_IN_BACKGROUND));
+        fMetricsLogCombo.select(getMetricsLogIndex(getPreferenceStore().getString(PREFS_METRICS_LOG)));
         
         fStoreCredentialsButton.setSelection(getPreferenceStore().getBoolean(PREFS_STORE_REPO_CREDENTIALS));
         
@@ -300,6 +316,8 @@ implements IWorkbenchPreferencePage, IPreferenceConstants {
         
         getPreferenceStore().setValue(PREFS_REPOSITORY_FOLDER, fUserRepoFolderTextField.getText());
         getPreferenceStore().setValue(PREFS_FETCH_IN_BACKGROUND, fFetchInBackgroundButton.getSelection());
+        getPreferenceStore().setValue(PREFS_METRICS_LOG, METRICS_LOG_FORMATS[fMetricsLogCombo.getSelectionIndex()]);
+        ModelRepositoryPlugin.INSTANCE.updateMetricsLog();
         
         getPreferenceStore().setValue(PREFS_STORE_REPO_CREDENTIALS, fStoreCredentialsButton.getSelection());
         
@@ -328,6 +346,7 @@ implements IWorkbenchPreferencePage, IPreferenceConstants {
         
         fUserRepoFolderTextField.setText(getPreferenceStore().getDefaultString(PREFS_REPOSITORY_FOLDER));
         fFetchInBackgroundButton.setSelection(getPreferenceStore().getDefaultBoolean(PREFS_FETCH_IN_BACKGROUND));
+        fMetricsLogCombo.select(getMetricsLogIndex(getPreferenceStore().getDefaultString(PREFS_METRICS_LOG)));
         
         fStoreCredentialsButton.setSelection(getPreferenceStore().getDefaultBoolean(PREFS_STORE_REPO_CREDENTIALS));
         
@@ -350,6 +369,15 @@ implements IWorkbenchPreferencePage, IPreferenceConstants {
         fProxyUserPasswordTextField.setEnabled(fUseProxyButton.getSelection() && fRequiresProxyAuthenticationButton.getSelection());
     }
     
+    private int getMetricsLogIndex(String format) {
+        for(int i = 0; i < METRICS_LOG_FORMATS.length; i++) {
+            if(METRICS_LOG_FORMATS[i].equals(format)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+    
     private PersonIdent getUserDetails() {
         try {
             return GraficoUtils.getGitConfigUserDetails();
@@ -40,5 +40,7 @@ implements IPreferenceConstants {
 		store.setDefault(PREFS_EXPORT_MAX_THREADS, 10);
 		
 		store.setDefault(PREFS_FETCH_IN_BACKGROUND, true);
+		
+		store.setDefault(PREFS_METRICS_LOG, ""); //$NON-NLS-1$
     }
 }
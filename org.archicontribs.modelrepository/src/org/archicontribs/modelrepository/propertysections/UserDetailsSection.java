@@ -11,10 +11,10 @@ import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.eclipse.jface.viewers.IFilter;
 import org.eclipse.jface.viewers.IStructuredSelection;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Color;
@@ -181,8 +181,8 @@ public class UserDetailsSection extends AbstractArchiPropertySection {
     }
     
     private void saveToLocalConfig(String name, String globalValue, String localValue) {
-        try(Git git = Git.open(fRepository.getLocalRepositoryFolder())) {
-            StoredConfig config = git.getRepository().getConfig();
+        try(Repository repository = fRepository.openRepository()) {
+            StoredConfig config = repository.getConfig();
             
             // Unset if blank or same as 
             if(!StringUtils.isSet(localValue) || globalValue.equals(localValue)) {
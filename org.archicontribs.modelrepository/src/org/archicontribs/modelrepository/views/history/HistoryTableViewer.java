@@ -7,28 +7,35 @@ package org.archicontribs.modelrepository.views.history;
 
 import java.io.IOException;
 import java.text.DateFormat;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
+import org.archicontribs.modelrepository.grafico.GraficoHistoryCache;
+import org.archicontribs.modelrepository.grafico.GraficoHistoryCache.CommitInfo;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.layout.TableColumnLayout;
 import org.eclipse.jface.viewers.CellLabelProvider;
 import org.eclipse.jface.viewers.ColumnViewerToolTipSupport;
 import org.eclipse.jface.viewers.ColumnWeightData;
-import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.ILazyContentProvider;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TableViewerColumn;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerCell;
-import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTException;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Composite;
 
@@ -38,7 +45,12 @@ import org.eclipse.swt.widgets.Composite;
  */
 public class HistoryTableViewer extends TableViewer {
     
-    private RevCommit localMasterCommit, originMasterCommit;
+    /**
+     * Number of commits walked to show straight away while the history cache is made or brought up to date
+     */
+    static final int PAGE_SIZE = 200;
+    
+    private ObjectId localMasterId, originMasterId;
     
     /**
      * Constructor
@@ -53,6 +65,14 @@ public class HistoryTableViewer extends TableViewer {
         
         ColumnViewerToolTipSupport.enableFor(this);
     }
+    
+    /**
+     * @param element A row of the table
+     * @return The commit of the row read from the repository, or null
+     */
+    public RevCommit getCommit(Object element) {
+        return ((HistoryContentProvider)getContentProvider()).getCommit(element);
+    }
 
     /**
      * Set things up.
@@ -87,53 +107,56 @@ public class HistoryTableViewer extends TableViewer {
     
     /**
      * The Model for the Table.
+     * 
+     * The commits come from the repository's history cache so they are not read to show the table.
+     * If the cache is up to date it is shown straight away, otherwise the first page of commits is walked and shown
+     * while the cache is updated in a background job.
      */
-    class HistoryContentProvider implements IStructuredContentProvider {
-        List<RevCommit> commits = new ArrayList<RevCommit>();
+    class HistoryContentProvider implements ILazyContentProvider {
+        List<CommitInfo> commits = Collections.emptyList();
+        
+        Repository repository;
+        ObjectReader objectReader;
+        HistoryCacheJob cacheJob;
         
         public void inputChanged(Viewer v, Object oldInput, Object newInput) {
-            commits = new ArrayList<RevCommit>();
+            close();
             
-            if(!(newInput instanceof IArchiRepository)) {
-                return;
-            }
+            localMasterId = null;
+            originMasterId = null;
             
-            IArchiRepository repo = (IArchiRepository)newInput;
+            if(newInput instanceof IArchiRepository) {
+                load((IArchiRepository)newInput);
+            }
             
+            setItemCount(commits.size());
+        }
+        
+        private void load(IArchiRepository repo) {
             // Local Repo was deleted
             if(!repo.getLocalRepositoryFolder().exists()) {
                 return;
             }
             
-            // TODO See https://github.com/centic9/jgit-cookbook/blob/master/src/main/java/org/dstadler/jgit/porcelain/ShowLog.java
-            try(Repository repository = Git.open(repo.getLocalRepositoryFolder()).getRepository()) {
-                // get a list of all known heads, tags, remotes, ...
-                //Collection<Ref> allRefs = repository.getAllRefs().values();
+            try {
+                repository = repo.openRepository();
+                objectReader = repository.newObjectReader();
                 
-                // a RevWalk allows to walk over commits based on some filtering that is defined
-                try(RevWalk revWalk = new RevWalk(repository)) {
-//                    for(Ref ref : allRefs ) {
-//                        revWalk.markStart(revWalk.parseCommit(ref.getObjectId()));
-//                    }
-                    
-                    // We are interested in the local master branch and origin master branch
-                    ObjectId objectID = repository.resolve(IGraficoConstants.REFS_HEADS_MASTER);
-                    if(objectID != null) {
-                        localMasterCommit = revWalk.parseCommit(objectID);
-                        revWalk.markStart(localMasterCommit); 
-                    }
-                    
-                    objectID = repository.resolve(IGraficoConstants.ORIGIN_MASTER);
-                    if(objectID != null) {
-                        originMasterCommit = revWalk.parseCommit(objectID);
-                        revWalk.markStart(originMasterCommit);
-                    }
-                    
-                    for(RevCommit commit : revWalk ) {
-                        commits.add(commit);
-                    }
+                // We are interested in the local master branch and origin master branch
+                localMasterId = repository.resolve(IGraficoConstants.REFS_HEADS_MASTER);
+                originMasterId = repository.resolve(IGraficoConstants.ORIGIN_MASTER);
+                
+                GraficoHistoryCache cache = new GraficoHistoryCache(repository);
+                
+                if(cache.isUpToDate()) {
+                    commits = cache.getHistory();
+                }
+                else {
+                    // The cache may be empty or missing the newest commits so show the first page now
+                    commits = cache.walkNewest(PAGE_SIZE);
                     
-                    revWalk.dispose();
+                    cacheJob = new HistoryCacheJob(this, repo);
+                    cacheJob.schedule();
                 }
             }
             catch(IOException ex) {
@@ -141,11 +164,95 @@ public class HistoryTableViewer extends TableViewer {
             }
         }
         
+        /**
+         * Show the commits from the updated cache
+         */
+        void setCommits(HistoryCacheJob job, List<CommitInfo> newCommits) {
+            // Input has changed since
+            if(job != cacheJob || getTable().isDisposed()) {
+                return;
+            }
+            
+            commits = newCommits;
+            setItemCount(commits.size());
+            refresh();
+        }
+        
+        public void updateElement(int index) {
+            if(index < commits.size()) {
+                replace(commits.get(index), index);
+            }
+        }
+        
+        RevCommit getCommit(Object element) {
+            if(element instanceof CommitInfo && objectReader != null) {
+                try {
+                    return RevCommit.parse(objectReader.open(((CommitInfo)element).getId(), Constants.OBJ_COMMIT).getCachedBytes());
+                }
+                catch(IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            
+            return null;
+        }
+        
+        private void close() {
+            if(cacheJob != null) {
+                cacheJob.cancel();
+                cacheJob = null;
+            }
+            
+            if(objectReader != null) {
+                objectReader.close();
+                objectReader = null;
+            }
+            
+            if(repository != null) {
+                repository.close();
+                repository = null;
+            }
+            
+            commits = Collections.emptyList();
+        }
+        
         public void dispose() {
+            close();
         }
+    }
+    
+    /**
+     * Adds new commits to the history cache and hands the history to the content provider
+     */
+    class HistoryCacheJob extends Job {
+        private HistoryContentProvider fContentProvider;
+        private IArchiRepository fRepo;
         
-        public Object[] getElements(Object parent) {
-            return commits.toArray();
+        HistoryCacheJob(HistoryContentProvider contentProvider, IArchiRepository repo) {
+            super("History Cache Job"); //$NON-NLS-1$
+            fContentProvider = contentProvider;
+            fRepo = repo;
+            setSystem(true);
+        }
+        
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            try(Repository repository = fRepo.openRepository()) {
+                GraficoHistoryCache cache = new GraficoHistoryCache(repository);
+                cache.update();
+                
+                if(monitor.isCanceled() || getTable().isDisposed()) {
+                    return Status.CANCEL_STATUS;
+                }
+                
+                List<CommitInfo> commits = cache.getHistory();
+                getTable().getDisplay().asyncExec(() -> fContentProvider.setCommits(this, commits));
+            }
+            catch(IOException | SWTException ex) {
+                ex.printStackTrace();
+            }
+            
+            return Status.OK_STATUS;
         }
     }
     
@@ -157,16 +264,16 @@ public class HistoryTableViewer extends TableViewer {
         
         DateFormat dateFormat = DateFormat.getDateTimeInstance();
         
-        public String getColumnText(RevCommit commit, int columnIndex) {
+        public String getColumnText(CommitInfo commit, int columnIndex) {
             switch(columnIndex) {
                 case 0:
-                    return commit.getName().substring(0, 8);
+                    return commit.getId().getName().substring(0, 8);
                     
                 case 1:
                     return commit.getShortMessage();
                     
                 case 2:
-                    return commit.getAuthorIdent().getName();
+                    return commit.getAuthorName();
                 
                 case 3:
                     return dateFormat.format(new Date(commit.getCommitTime() * 1000L));
@@ -178,21 +285,21 @@ public class HistoryTableViewer extends TableViewer {
 
         @Override
         public void update(ViewerCell cell) {
-            if(cell.getElement() instanceof RevCommit) {
-                RevCommit commit = (RevCommit)cell.getElement();
+            if(cell.getElement() instanceof CommitInfo) {
+                CommitInfo commit = (CommitInfo)cell.getElement();
                 
                 cell.setText(getColumnText(commit, cell.getColumnIndex()));
                 
                 if(cell.getColumnIndex() == 1) {
                     Image image = null;
                     
-                    if(commit.equals(localMasterCommit) && commit.equals(originMasterCommit)) {
+                    if(commit.getId().equals(localMasterId) && commit.getId().equals(originMasterId)) {
                         image = IModelRepositoryImages.ImageFactory.getImage(IModelRepositoryImages.ICON_HISTORY_VIEW);
                     }
-                    else if(commit.equals(originMasterCommit)) {
+                    else if(commit.getId().equals(originMasterId)) {
                         image = IModelRepositoryImages.ImageFactory.getImage(IModelRepositoryImages.ICON_REMOTE);
                     }
-                    else if(commit.equals(localMasterCommit)) {
+                    else if(commit.getId().equals(localMasterId)) {
                         image = IModelRepositoryImages.ImageFactory.getImage(IModelRepositoryImages.ICON_LOCAL);
                     }
                     
@@ -203,23 +310,25 @@ public class HistoryTableViewer extends TableViewer {
         
         @Override
         public String getToolTipText(Object element) {
-            if(element instanceof RevCommit) {
-                RevCommit commit = (RevCommit)element;
+            if(element instanceof CommitInfo) {
+                CommitInfo commit = (CommitInfo)element;
                 
                 String s = ""; //$NON-NLS-1$
                 
-                if(commit.equals(localMasterCommit) && commit.equals(originMasterCommit)) {
+                if(commit.getId().equals(localMasterId) && commit.getId().equals(originMasterId)) {
                     s += Messages.HistoryTableViewer_4 + " "; //$NON-NLS-1$
                 }
-                else if(commit.equals(localMasterCommit)) {
+                else if(commit.getId().equals(localMasterId)) {
                     s += Messages.HistoryTableViewer_5 + " "; //$NON-NLS-1$
                 }
 
-                else if(commit.equals(originMasterCommit)) {
+                else if(commit.getId().equals(originMasterId)) {
                     s += Messages.HistoryTableViewer_6 + " "; //$NON-NLS-1$
                 }
                 
-                s += commit.getFullMessage().trim();
+                // Read the full message
+                RevCommit revCommit = getCommit(commit);
+                s += revCommit != null ? revCommit.getFullMessage().trim() : commit.getShortMessage();
                 
                 return s;
             }
@@ -238,7 +238,7 @@ implements IContextProvider, ISelectionListener, IRepositoryListener {
      * @param selection
      */
     public void updateActions(ISelection selection) {
-        RevCommit commit = (RevCommit)((IStructuredSelection)selection).getFirstElement();
+        RevCommit commit = fTableViewer.getCommit(((IStructuredSelection)selection).getFirstElement());
         
         fActionExtractCommit.setCommit(commit);
         fActionRestoreCommit.setCommit(commit);
@@ -7,6 +7,17 @@ package org.archicontribs.modelrepository.views.repositories;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.authentication.ProxyAuthenticater;
@@ -23,6 +34,7 @@ import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.widgets.Display;
@@ -30,11 +42,57 @@ import org.eclipse.swt.widgets.Display;
 /**
  * Fetch in Background Job
  * 
+ * Repos are fetched in parallel by a small pool of threads. A repo that hasn't changed is fetched less often.
+ * Before fetching, the remote's master branch is compared with origin/master and the fetch is skipped if they are the same.
+ * 
  * @author Phillip Beauvoir
  */
 public class FetchJob extends Job {
     
+    /**
+     * Time between fetch cycles, and between fetches of a repo that has changed
+     */
+    static final long INTERVAL = 20000;
+    
+    /**
+     * Longest time between fetches of a repo that hasn't changed
+     */
+    static final long MAX_INTERVAL = 16 * INTERVAL;
+    
+    /**
+     * Most repos fetched at the same time
+     */
+    static final int MAX_THREADS = 4;
+    
+    /**
+     * When to next fetch a repo.
+     * Each fetch that brings nothing new doubles the wait up to MAX_INTERVAL, a fetch that brings changes resets it.
+     */
+    static class FetchSchedule {
+        SimpleCredentialsStorage credentials;
+        long interval = INTERVAL;
+        long nextFetch;
+        
+        FetchSchedule(IArchiRepository repo) {
+            credentials = new SimpleCredentialsStorage(new File(repo.getLocalGitFolder(), IGraficoConstants.REPO_CREDENTIALS_FILE));
+        }
+        
+        void update(boolean hasChanged) {
+            interval = hasChanged ? INTERVAL : Math.min(interval * 2, MAX_INTERVAL);
+            nextFetch = System.currentTimeMillis() + interval;
+        }
+    }
+    
     private ModelRepositoryTreeViewer fViewer;
+    
+    // Local repository folder -> when to fetch it
+    private Map<File, FetchSchedule> fSchedules = new ConcurrentHashMap<File, FetchSchedule>();
+    
+    private AtomicBoolean fNeedsRefresh = new AtomicBoolean();
+    
+    // Counts for this cycle
+    private AtomicInteger fFetchedCount = new AtomicInteger();
+    private AtomicInteger fSkippedCount = new AtomicInteger();
 
     public FetchJob(ModelRepositoryTreeViewer viewer) {
         super("Fetch Job"); //$NON-NLS-1$
@@ -74,61 +132,178 @@ public class FetchJob extends Job {
             return Status.OK_STATUS;
         }
         
-        boolean needsRefresh = false;
+        // Set up and check the proxy once for all repos
+        try {
+            ProxyAuthenticater.update();
+        }
+        catch(IOException ex) {
+            // Proxy not reachable so try again next time
+            reschedule();
+            return Status.OK_STATUS;
+        }
         
-        for(IArchiRepository repo : fViewer.getRepositories(fViewer.getRootFolder())) {
-            // Check also in for loop
-            if(!canRun()) {
-                return Status.OK_STATUS;
+        fFetchedCount.set(0);
+        fSkippedCount.set(0);
+        
+        List<IArchiRepository> dueRepos = getDueRepositories();
+        
+        if(!dueRepos.isEmpty()) {
+            fetch(dueRepos);
+        }
+        
+        if(fNeedsRefresh.getAndSet(false)) {
+            fViewer.refreshInBackground();
+        }
+        
+        reschedule();
+        
+        return new Status(IStatus.OK, ModelRepositoryPlugin.PLUGIN_ID, "Fetched: " + fFetchedCount.get() + //$NON-NLS-1$
+                ", Skipped (no remote changes): " + fSkippedCount.get() + //$NON-NLS-1$
+                ", Not due: " + (fSchedules.size() - dueRepos.size())); //$NON-NLS-1$
+    }
+    
+    /**
+     * @return The repositories that are due to be fetched
+     */
+    private List<IArchiRepository> getDueRepositories() {
+        List<IArchiRepository> repos = fViewer.getRepositories(fViewer.getRootFolder());
+        List<IArchiRepository> dueRepos = new ArrayList<IArchiRepository>();
+        Set<File> folders = new HashSet<File>();
+        long now = System.currentTimeMillis();
+        
+        for(IArchiRepository repo : repos) {
+            folders.add(repo.getLocalRepositoryFolder());
+            
+            FetchSchedule schedule = fSchedules.get(repo.getLocalRepositoryFolder());
+            if(schedule == null) {
+                schedule = new FetchSchedule(repo);
+                fSchedules.put(repo.getLocalRepositoryFolder(), schedule);
             }
-
-            // Get credentials. In some public repos we can still fetch without needing a password so we try anyway
-            SimpleCredentialsStorage scs = new SimpleCredentialsStorage(new File(repo.getLocalGitFolder(), IGraficoConstants.REPO_CREDENTIALS_FILE));
             
-            try {
-                ProxyAuthenticater.update(repo.getOnlineRepositoryURL());
-                repo.fetchFromRemote(scs.getUsername(), scs.getPassword(), null, false);
-                needsRefresh = true;
+            if(now >= schedule.nextFetch) {
+                dueRepos.add(repo);
             }
-            catch(IOException ex) {
+        }
+        
+        // Forget repos that have been removed
+        fSchedules.keySet().retainAll(folders);
+        
+        return dueRepos;
+    }
+    
+    /**
+     * Fetch the repos in parallel and wait for them all to finish
+     */
+    private void fetch(List<IArchiRepository> repos) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_THREADS, repos.size()), runnable -> {
+            Thread thread = new Thread(runnable, "Fetch Job Worker"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for(IArchiRepository repo : repos) {
+            tasks.add(Executors.callable(() -> fetch(repo)));
+        }
+        
+        try {
+            executor.invokeAll(tasks);
+        }
+        catch(InterruptedException ex) {
+            ex.printStackTrace();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * Fetch a repo and work out when to fetch it next
+     */
+    private void fetch(IArchiRepository repo) {
+        // Background fetch might have been turned off while waiting
+        if(!canRun()) {
+            return;
+        }
+        
+        FetchSchedule schedule = fSchedules.get(repo.getLocalRepositoryFolder());
+        if(schedule == null) {
+            return;
+        }
+        
+        boolean hasChanged = false;
+        
+        try {
+            // In some public repos we can still fetch without needing a password so we try anyway
+            String userName = schedule.credentials.getUsername();
+            String password = schedule.credentials.getPassword();
+            
+            // Only fetch if the remote master is not the same as ours
+            if(repo.hasRemoteChanged(userName, password)) {
+                FetchResult result = repo.fetchFromRemote(userName, password, null, false);
+                hasChanged = !result.getTrackingRefUpdates().isEmpty();
+                fFetchedCount.incrementAndGet();
             }
-            catch(GitAPIException ex) {
-                if(ex instanceof TransportException) {
-                    // Seems to be the only way to trap these exceptions :-(
-                    if(ex.getMessage().contains("not authorized") || //$NON-NLS-1$
-                            ex.getMessage().contains("authentication not supported")) { //$NON-NLS-1$
-                        // Disable background fetch
-                        ModelRepositoryPlugin.INSTANCE.getPreferenceStore().setValue(IPreferenceConstants.PREFS_FETCH_IN_BACKGROUND, false);
-
-                        // Show message
-                        Display.getDefault().asyncExec(() -> {
-                            String message = Messages.FetchJob_0 + " "; //$NON-NLS-1$
-                            message += Messages.FetchJob_1 + "\n\n"; //$NON-NLS-1$
-                            try {
-                                message += repo.getName() + "\n"; //$NON-NLS-1$
-                                message += repo.getOnlineRepositoryURL() + "\n"; //$NON-NLS-1$
-                            }
-                            catch(IOException ex1) {
-                                ex1.printStackTrace();
-                            }
-                            MessageDialog.openInformation(Display.getCurrent().getActiveShell(), Messages.FetchJob_2, message);
-                        });
-
-                        return Status.OK_STATUS;
-                    }
+            else {
+                fSkippedCount.incrementAndGet();
+            }
+        }
+        catch(IOException ex) {
+        }
+        catch(GitAPIException ex) {
+            if(ex instanceof TransportException) {
+                // Seems to be the only way to trap these exceptions :-(
+                if(ex.getMessage().contains("not authorized") || //$NON-NLS-1$
+                        ex.getMessage().contains("authentication not supported")) { //$NON-NLS-1$
+                    notAuthorized(repo);
+                    return;
                 }
             }
         }
-
-        if(needsRefresh) {
-            fViewer.refreshInBackground();
+        
+        schedule.update(hasChanged);
+        
+        if(hasChanged) {
+            fNeedsRefresh.set(true);
+        }
+    }
+    
+    /**
+     * Turn off background fetch and tell the user. Only done once if more than one repo fails at the same time.
+     */
+    private void notAuthorized(IArchiRepository repo) {
+        if(!canRun()) {
+            return;
+        }
+        
+        synchronized(this) {
+            if(!canRun()) {
+                return;
+            }
+            
+            // Disable background fetch
+            ModelRepositoryPlugin.INSTANCE.getPreferenceStore().setValue(IPreferenceConstants.PREFS_FETCH_IN_BACKGROUND, false);
         }
 
+        // Show message
+        Display.getDefault().asyncExec(() -> {
+            String message = Messages.FetchJob_0 + " "; //$NON-NLS-1$
+            message += Messages.FetchJob_1 + "\n\n"; //$NON-NLS-1$
+            try {
+                message += repo.getName() + "\n"; //$NON-NLS-1$
+                message += repo.getOnlineRepositoryURL() + "\n"; //$NON-NLS-1$
+            }
+            catch(IOException ex1) {
+                ex1.printStackTrace();
+            }
+            MessageDialog.openInformation(Display.getCurrent().getActiveShell(), Messages.FetchJob_2, message);
+        });
+    }
+    
+    private void reschedule() {
         if(canRun()) {
-            schedule(20000); // Schedule again in 20 seconds if possible
+            schedule(INTERVAL); // Schedule again if possible
         }
-        
-        return Status.OK_STATUS;
     }
     
     /*
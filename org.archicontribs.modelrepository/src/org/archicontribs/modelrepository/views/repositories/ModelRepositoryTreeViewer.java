@@ -6,20 +6,17 @@
 package org.archicontribs.modelrepository.views.repositories;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.List;
-import java.util.Map;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.grafico.ArchiRepository;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
-import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.views.repositories.RepositoryStatusJob.StatusCache;
 import org.eclipse.jface.viewers.CellLabelProvider;
 import org.eclipse.jface.viewers.ColumnViewerToolTipSupport;
 import org.eclipse.jface.viewers.IDecoration;
@@ -43,6 +40,16 @@ import com.archimatetool.editor.utils.StringUtils;
  * Repository Tree Viewer
  */
 public class ModelRepositoryTreeViewer extends TreeViewer implements IRepositoryListener {
+    
+    /**
+     * Works out the status of repositories off the UI thread
+     */
+    private RepositoryStatusJob fStatusJob;
+    
+    /**
+     * Watches the repositories' files for changes
+     */
+    private RepositoryFolderWatcher fFolderWatcher;
 
     /**
      * Constructor
@@ -50,6 +57,8 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
     public ModelRepositoryTreeViewer(Composite parent) {
         super(parent, SWT.MULTI);
         
+        fStatusJob = new RepositoryStatusJob(this);
+        
         setContentProvider(new ModelRepoTreeContentProvider());
         setLabelProvider(new ModelRepoTreeLabelProvider());
         
@@ -76,14 +85,17 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         
         setInput(""); //$NON-NLS-1$
         
-        // Refresh File System Job
-        new RefreshFilesJob(this);
+        // Refresh when the repository folders change
+        fFolderWatcher = new RepositoryFolderWatcher(this);
         
         // Fetch Job
         new FetchJob(this);
     }
 
     protected void refreshInBackground() {
+        // Remote commits may have changed
+        fStatusJob.requestAll(getRepositories(getRootFolder()));
+        
         if(!getControl().isDisposed()) {
             getControl().getDisplay().asyncExec(new Runnable() {
                 @Override
@@ -96,6 +108,44 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         }
     }
 
+    /**
+     * Refresh repositories whose files have changed from a background thread
+     * @param repos
+     */
+    protected void refreshInBackground(List<IArchiRepository> repos) {
+        fStatusJob.requestAll(repos);
+        
+        if(!getControl().isDisposed()) {
+            getControl().getDisplay().asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    if(!getControl().isDisposed()) {
+                        for(IArchiRepository repo : repos) {
+                            refresh(repo);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Update the labels of repositories from a background thread
+     * @param repos
+     */
+    protected void updateInBackground(Object[] repos) {
+        if(!getControl().isDisposed()) {
+            getControl().getDisplay().asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    if(!getControl().isDisposed()) {
+                        update(repos, null);
+                    }
+                }
+            });
+        }
+    }
+
     @Override
     public void repositoryChanged(String eventName, IArchiRepository repository) {
         switch(eventName) {
@@ -104,11 +154,19 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
                 setSelection(new StructuredSelection(repository));
                 break;
                 
+            case IRepositoryListener.REPOSITORY_DELETING:
+                // Open watch handles would stop the folder being deleted on Windows
+                fFolderWatcher.unwatchRepository(repository.getLocalRepositoryFolder());
+                break;
+                
             case IRepositoryListener.REPOSITORY_DELETED:
+                fStatusJob.remove(repository);
                 refresh();
                 break;
 
             default:
+                // The label is updated when the new status is known
+                fStatusJob.request(repository);
                 refresh(repository);
                 break;
         }
@@ -186,25 +244,11 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
 	// ===============================================================================================
 
     class ModelRepoTreeLabelProvider extends CellLabelProvider {
-        // Cache status for expensive calls
-        private class StatusCache {
-            boolean hasUnpushedCommits;
-            boolean hasRemoteCommits;
-            boolean hasLocalChanges;
-            
-            public StatusCache(boolean hasUnpushedCommits, boolean hasRemoteCommits, boolean hasLocalChanges) {
-                this.hasUnpushedCommits = hasUnpushedCommits;
-                this.hasRemoteCommits = hasRemoteCommits;
-                this.hasLocalChanges = hasLocalChanges;
-            }
-        }
-        
-        Map<IArchiRepository, StatusCache> cache = new Hashtable<IArchiRepository, StatusCache>();
         
         Image getImage(IArchiRepository repo) {
             Image image = IModelRepositoryImages.ImageFactory.getImage(IModelRepositoryImages.ICON_MODEL);
             
-            StatusCache sc = cache.get(repo);
+            StatusCache sc = fStatusJob.getStatus(repo);
             if(sc != null) {
                 if(sc.hasLocalChanges) {
                     image = IModelRepositoryImages.ImageFactory.getOverlayImage(image,
@@ -228,7 +272,7 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         String getStatusText(IArchiRepository repo) {
             String s = ""; //$NON-NLS-1$
             
-            StatusCache sc = cache.get(repo);
+            StatusCache sc = fStatusJob.getStatus(repo);
             if(sc != null) {
                 if(sc.hasLocalChanges) {
                     s += Messages.ModelRepositoryTreeViewer_2;
@@ -263,24 +307,17 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
                     return;
                 }
                 
-                // Image
-                try {
-                    boolean hasUnpushedCommits = repo.hasUnpushedCommits(IGraficoConstants.REFS_HEADS_MASTER);
-                    boolean hasRemoteCommits = repo.hasRemoteCommits(IGraficoConstants.REFS_HEADS_MASTER);
-                    boolean hasLocalChanges = repo.hasLocalChanges();
-                    
-                    StatusCache sc = new StatusCache(hasUnpushedCommits, hasRemoteCommits, hasLocalChanges);
-                    cache.put(repo, sc);
-
-                    if(hasUnpushedCommits || hasRemoteCommits || hasLocalChanges) {
-                        cell.setForeground(ColorFactory.get(255, 64, 0));
-                    }
-                    else {
-                        cell.setForeground(null);
-                    }
+                // Only read the cached status here, it is worked out in the background
+                StatusCache sc = fStatusJob.getStatus(repo);
+                if(sc == null) {
+                    fStatusJob.request(repo);
+                }
+                
+                if(sc != null && sc.hasChanges()) {
+                    cell.setForeground(ColorFactory.get(255, 64, 0));
                 }
-                catch(IOException ex) {
-                    ex.printStackTrace();
+                else {
+                    cell.setForeground(null);
                 }
                 
                 cell.setText(repo.getName());
@@ -0,0 +1,363 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.views.repositories;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.grafico.ArchiRepository;
+import org.archicontribs.modelrepository.grafico.GraficoUtils;
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+
+/**
+ * Repository Folder Watcher
+ *
+ * Watches the root folder for repositories being added or removed, and in each repository the .git folder, refs and model
+ * folders for changes made by this or another program. The watch runs on its own daemon thread rather than a Jobs worker,
+ * as it waits on the watch service for as long as the viewer is open, so it uses no CPU when idle.
+ *
+ * Events are collected until there are none for a short time, and then only the repositories that changed are refreshed.
+ *
+ * @author Phillip Beauvoir
+ */
+public class RepositoryFolderWatcher {
+
+    /**
+     * Wait for this long without events before refreshing
+     */
+    static final long DELAY = 300;
+
+    /**
+     * Refresh after this long even if events are still coming
+     */
+    static final long MAX_DELAY = 2000;
+
+    /**
+     * Files directly in the .git folder that change the status of a repository.
+     * Other files there, such as the index and checksum, are written when the status is worked out so are ignored.
+     */
+    private static final Set<String> GIT_FILES = new HashSet<String>(Arrays.asList(
+            "HEAD", //$NON-NLS-1$
+            "packed-refs", //$NON-NLS-1$
+            IGraficoConstants.LOCAL_ARCHI_FILENAME));
+
+    private static final String GIT_FOLDER = ".git"; //$NON-NLS-1$
+
+    private ModelRepositoryTreeViewer fViewer;
+
+    private volatile boolean fStopped;
+
+    private volatile WatchService fWatchService;
+
+    private WatchKey fRootKey;
+
+    // Watched folder -> local repository folder it belongs to. Keys of a repository are cancelled from the UI thread.
+    private Map<WatchKey, File> fKeys = new ConcurrentHashMap<WatchKey, File>();
+
+    // Local repository folders being watched
+    private Set<File> fWatchedRepos = new HashSet<File>();
+
+    public RepositoryFolderWatcher(ModelRepositoryTreeViewer viewer) {
+        fViewer = viewer;
+
+        fViewer.getControl().addDisposeListener(new DisposeListener() {
+            public void widgetDisposed(DisposeEvent e) {
+                stop();
+            }
+        });
+
+        start();
+    }
+
+    protected void start() {
+        if(canRun()) {
+            // Runs for as long as the viewer so it mustn't stop the application from exiting
+            Thread thread = new Thread(this::run, "Repository Folder Watcher"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * The thread waits on the watch service so close it to stop waiting
+     */
+    protected void stop() {
+        fStopped = true;
+        closeWatchService();
+    }
+
+    /**
+     * Stop watching a repository's folders, so that they are not held open while it is deleted.
+     * Called before the repository's folder is deleted.
+     * @param repoFolder The local repository folder
+     */
+    void unwatchRepository(File repoFolder) {
+        repoFolder = repoFolder.getAbsoluteFile();
+
+        for(Map.Entry<WatchKey, File> entry : fKeys.entrySet()) {
+            if(entry.getValue().getAbsoluteFile().equals(repoFolder)) {
+                entry.getKey().cancel();
+                fKeys.remove(entry.getKey());
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            fWatchService = FileSystems.getDefault().newWatchService();
+
+            File rootFolder = fViewer.getRootFolder();
+            rootFolder.mkdirs();
+            fRootKey = rootFolder.toPath().register(fWatchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+
+            // Stopped while starting
+            if(fStopped) {
+                return;
+            }
+
+            watchRepositories();
+
+            while(canRun() && !fStopped) {
+                // Wait for the first event
+                WatchKey key = fWatchService.take();
+
+                Set<File> changedRepos = new LinkedHashSet<File>();
+                boolean rootChanged = false;
+                long start = System.currentTimeMillis();
+
+                // Collect more events until it is quiet
+                while(key != null) {
+                    rootChanged |= handleEvents(key, changedRepos);
+
+                    if(System.currentTimeMillis() - start > MAX_DELAY) {
+                        break;
+                    }
+
+                    key = fWatchService.poll(DELAY, TimeUnit.MILLISECONDS);
+                }
+
+                if(!canRun()) {
+                    break;
+                }
+
+                // Child folder added/deleted/renamed so refresh all
+                if(rootChanged) {
+                    watchRepositories();
+                    fViewer.refreshInBackground();
+                }
+                else if(!changedRepos.isEmpty()) {
+                    List<IArchiRepository> repos = new ArrayList<IArchiRepository>();
+                    for(File folder : changedRepos) {
+                        repos.add(new ArchiRepository(folder));
+                    }
+                    fViewer.refreshInBackground(repos);
+                }
+            }
+        }
+        // Closed when stopped
+        catch(ClosedWatchServiceException | InterruptedException ex) {
+        }
+        catch(IOException ex) {
+            logError("Could not watch the repository folders", ex); //$NON-NLS-1$
+        }
+        finally {
+            closeWatchService();
+            fWatchService = null;
+            fKeys.clear();
+            fWatchedRepos.clear();
+        }
+    }
+
+    /**
+     * Take the events of a key
+     * @return true if the repositories in the root folder might have changed
+     */
+    private boolean handleEvents(WatchKey key, Set<File> changedRepos) throws IOException {
+        boolean rootChanged = false;
+
+        Path folder = (Path)key.watchable();
+        File repoFolder = fKeys.get(key);
+
+        for(WatchEvent<?> event : key.pollEvents()) {
+            // Events were lost
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                if(key == fRootKey) {
+                    rootChanged = true;
+                }
+                else if(repoFolder != null) {
+                    changedRepos.add(repoFolder);
+                }
+                continue;
+            }
+
+            Path path = folder.resolve((Path)event.context());
+            String name = path.getFileName().toString();
+
+            if(key == fRootKey) {
+                rootChanged = true;
+            }
+            else if(repoFolder == null) {
+                continue;
+            }
+            // Top folder of a repository
+            else if(folder.equals(repoFolder.toPath())) {
+                if(GIT_FOLDER.equals(name)) {
+                    rootChanged = true;
+                }
+                else if(IGraficoConstants.MODEL_FOLDER.equals(name)) {
+                    changedRepos.add(repoFolder);
+                    if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        watchFolders(path, repoFolder);
+                    }
+                }
+            }
+            // .git folder
+            else if(folder.getFileName().toString().equals(GIT_FOLDER)) {
+                if(GIT_FILES.contains(name)) {
+                    changedRepos.add(repoFolder);
+                }
+            }
+            // In refs or model
+            else {
+                changedRepos.add(repoFolder);
+                if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    watchFolders(path, repoFolder);
+                }
+            }
+        }
+
+        // Folder was deleted, or the key was cancelled
+        if(!key.reset()) {
+            fKeys.remove(key);
+        }
+
+        return rootChanged;
+    }
+
+    /**
+     * Watch repositories that have been added to the root folder
+     */
+    private void watchRepositories() throws IOException {
+        Set<File> folders = new HashSet<File>();
+
+        File[] files = fViewer.getRootFolder().listFiles();
+        if(files != null) {
+            for(File folder : files) {
+                if(!folder.isDirectory()) {
+                    continue;
+                }
+
+                folders.add(folder);
+
+                if(fWatchedRepos.add(folder)) {
+                    watchRepository(folder);
+                }
+                // Wasn't a repository before
+                else if(GraficoUtils.isGitRepository(folder) && !isWatched(new File(folder, GIT_FOLDER))) {
+                    watchRepository(folder);
+                }
+            }
+        }
+
+        // Forget removed folders. Their keys are removed when they are no longer valid.
+        fWatchedRepos.retainAll(folders);
+    }
+
+    /**
+     * Watch a repository's folder, and if it is a git repository its .git folder, refs and model folders
+     */
+    private void watchRepository(File repoFolder) throws IOException {
+        register(repoFolder.toPath(), repoFolder);
+
+        if(GraficoUtils.isGitRepository(repoFolder)) {
+            File gitFolder = new File(repoFolder, GIT_FOLDER);
+            register(gitFolder.toPath(), repoFolder);
+            watchFolders(new File(gitFolder, "refs").toPath(), repoFolder); //$NON-NLS-1$
+            watchFolders(new File(repoFolder, IGraficoConstants.MODEL_FOLDER).toPath(), repoFolder);
+        }
+    }
+
+    /**
+     * Watch a folder and all of its sub-folders
+     */
+    private void watchFolders(Path start, File repoFolder) throws IOException {
+        if(!Files.isDirectory(start)) {
+            return;
+        }
+
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(dir, repoFolder);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path folder, File repoFolder) throws IOException {
+        WatchKey key = folder.register(fWatchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        fKeys.put(key, repoFolder);
+    }
+
+    private boolean isWatched(File folder) {
+        for(WatchKey key : fKeys.keySet()) {
+            if(key.watchable().equals(folder.toPath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void closeWatchService() {
+        WatchService watchService = fWatchService;
+        if(watchService != null) {
+            try {
+                watchService.close();
+            }
+            catch(IOException ex) {
+                logError("Could not close the repository folder watch service", ex); //$NON-NLS-1$
+            }
+        }
+    }
+
+    private void logError(String message, Exception ex) {
+        if(ModelRepositoryPlugin.INSTANCE != null) {
+            ModelRepositoryPlugin.INSTANCE.getLog().log(new Status(IStatus.ERROR, ModelRepositoryPlugin.PLUGIN_ID, message, ex));
+        }
+    }
+
+    protected boolean canRun() {
+        return !fViewer.getControl().isDisposed();
+    }
+
+}
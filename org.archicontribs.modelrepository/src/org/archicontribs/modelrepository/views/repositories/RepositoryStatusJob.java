@@ -0,0 +1,183 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.views.repositories;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+
+/**
+ * Works out the status of repositories in the background and updates them in the viewer when it changes.
+ *
+ * Requests are collected and handled together after a short delay, so a burst of requests for the same
+ * repositories is only done once. The label provider only reads the cached status.
+ */
+public class RepositoryStatusJob extends Job {
+
+    /**
+     * Delay before handling requests so that a burst of requests is coalesced
+     */
+    static final long DELAY = 200;
+
+    /**
+     * Status of a repository
+     */
+    static class StatusCache {
+        boolean hasUnpushedCommits;
+        boolean hasRemoteCommits;
+        boolean hasLocalChanges;
+
+        StatusCache(boolean hasUnpushedCommits, boolean hasRemoteCommits, boolean hasLocalChanges) {
+            this.hasUnpushedCommits = hasUnpushedCommits;
+            this.hasRemoteCommits = hasRemoteCommits;
+            this.hasLocalChanges = hasLocalChanges;
+        }
+
+        boolean hasChanges() {
+            return hasUnpushedCommits || hasRemoteCommits || hasLocalChanges;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof StatusCache)) {
+                return false;
+            }
+            StatusCache sc = (StatusCache)obj;
+            return hasUnpushedCommits == sc.hasUnpushedCommits && hasRemoteCommits == sc.hasRemoteCommits && hasLocalChanges == sc.hasLocalChanges;
+        }
+
+        @Override
+        public int hashCode() {
+            return (hasUnpushedCommits ? 1 : 0) | (hasRemoteCommits ? 2 : 0) | (hasLocalChanges ? 4 : 0);
+        }
+    }
+
+    private ModelRepositoryTreeViewer fViewer;
+
+    // Local repository folder -> status
+    private Map<File, StatusCache> fCache = new ConcurrentHashMap<File, StatusCache>();
+
+    // Local repository folder -> repository, waiting to be done
+    private Map<File, IArchiRepository> fRequests = new LinkedHashMap<File, IArchiRepository>();
+
+    public RepositoryStatusJob(ModelRepositoryTreeViewer viewer) {
+        super("Repository Status Job"); //$NON-NLS-1$
+        fViewer = viewer;
+
+        fViewer.getControl().addDisposeListener(new DisposeListener() {
+            public void widgetDisposed(DisposeEvent e) {
+                cancel();
+            }
+        });
+    }
+
+    /**
+     * @param repo
+     * @return The cached status of repo, or null if it hasn't been worked out yet
+     */
+    StatusCache getStatus(IArchiRepository repo) {
+        return fCache.get(repo.getLocalRepositoryFolder());
+    }
+
+    /**
+     * Work out the status of repo in the background
+     * @param repo
+     */
+    void request(IArchiRepository repo) {
+        synchronized(fRequests) {
+            fRequests.put(repo.getLocalRepositoryFolder(), repo);
+        }
+
+        // If already waiting to run this does nothing, if running it will run again
+        if(canRun()) {
+            schedule(DELAY);
+        }
+    }
+
+    /**
+     * Work out the status of all repos in the background
+     * @param repos
+     */
+    void requestAll(List<IArchiRepository> repos) {
+        synchronized(fRequests) {
+            for(IArchiRepository repo : repos) {
+                fRequests.put(repo.getLocalRepositoryFolder(), repo);
+            }
+        }
+
+        if(canRun()) {
+            schedule(DELAY);
+        }
+    }
+
+    /**
+     * Forget the status of repo
+     * @param repo
+     */
+    void remove(IArchiRepository repo) {
+        fCache.remove(repo.getLocalRepositoryFolder());
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        List<IArchiRepository> repos;
+
+        synchronized(fRequests) {
+            repos = new ArrayList<IArchiRepository>(fRequests.values());
+            fRequests.clear();
+        }
+
+        List<IArchiRepository> changed = new ArrayList<IArchiRepository>();
+
+        for(IArchiRepository repo : repos) {
+            if(!canRun() || monitor.isCanceled()) {
+                return Status.CANCEL_STATUS;
+            }
+
+            // Local repo was perhaps deleted
+            if(!repo.getLocalRepositoryFolder().exists()) {
+                remove(repo);
+                continue;
+            }
+
+            try {
+                StatusCache sc = new StatusCache(repo.hasUnpushedCommits(IGraficoConstants.REFS_HEADS_MASTER),
+                                                 repo.hasRemoteCommits(IGraficoConstants.REFS_HEADS_MASTER),
+                                                 repo.hasLocalChanges());
+
+                if(!sc.equals(fCache.put(repo.getLocalRepositoryFolder(), sc))) {
+                    changed.add(repo);
+                }
+            }
+            catch(IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        if(!changed.isEmpty()) {
+            fViewer.updateInBackground(changed.toArray());
+        }
+
+        return Status.OK_STATUS;
+    }
+
+    protected boolean canRun() {
+        return !fViewer.getControl().isDisposed();
+    }
+}